@@ -12,10 +12,7 @@ import com.flightstats.hub.metrics.MetricsRunner;
 import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.replication.ReplicationGlobalManager;
 import com.flightstats.hub.rest.*;
-import com.flightstats.hub.spoke.FileSpokeStore;
-import com.flightstats.hub.spoke.GCRunner;
-import com.flightstats.hub.spoke.SpokeClusterRegister;
-import com.flightstats.hub.spoke.SpokeFinalCheck;
+import com.flightstats.hub.spoke.*;
 import com.flightstats.hub.time.NtpMonitor;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.HubUtils;
@@ -152,7 +149,11 @@ public class HubBindings extends AbstractModule {
         bind(Leaders.class).asEagerSingleton();
         bind(TimeService.class).asEagerSingleton();
         bind(ShutdownManager.class).asEagerSingleton();
-        bind(FileSpokeStore.class).asEagerSingleton();
+        if (HubProperties.getProperty("spoke.store", "file").equals("segment")) {
+            bind(SpokeStore.class).to(SegmentSpokeStore.class).asEagerSingleton();
+        } else {
+            bind(SpokeStore.class).to(FileSpokeStore.class).asEagerSingleton();
+        }
         bind(SpokeClusterRegister.class).asEagerSingleton();
         bind(FinalCheck.class).to(SpokeFinalCheck.class).asEagerSingleton();
         bind(InFlightService.class).asEagerSingleton();
@@ -1,6 +1,7 @@
 package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.PayloadCodec;
 import com.flightstats.hub.exception.ConflictException;
 import com.flightstats.hub.exception.ForbiddenRequestException;
 import com.flightstats.hub.exception.InvalidRequestException;
@@ -40,6 +41,7 @@ public class ChannelValidator {
         validateDescription(config);
         validateTags(config);
         validateStorage(config);
+        validateCodec(config);
         validateGlobal(config);
         if (!isLocalHost) {
             preventDataLoss(config, oldConfig);
@@ -129,6 +131,12 @@ public class ChannelValidator {
         }
     }
 
+    private void validateCodec(ChannelConfig config) {
+        if (StringUtils.isNotEmpty(config.getCodec()) && !PayloadCodec.isValid(config.getCodec())) {
+            throw new InvalidRequestException("{\"error\": \"Valid codec values are ZIP, NONE, FAST, DEFLATE and DEFLATE:1 to DEFLATE:9\"}");
+        }
+    }
+
     private void validateTags(ChannelConfig request) {
         if (request.getTags().size() > 20) {
             throw new InvalidRequestException("{\"error\": \"Channels are limited to 20 tags\"}");
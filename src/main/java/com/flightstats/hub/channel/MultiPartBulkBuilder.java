@@ -23,7 +23,7 @@ import java.net.URI;
 import java.util.SortedSet;
 import java.util.function.Consumer;
 
-class MultiPartBulkBuilder {
+public class MultiPartBulkBuilder {
 
     private final static Logger logger = LoggerFactory.getLogger(MultiPartBulkBuilder.class);
 
@@ -31,7 +31,7 @@ class MultiPartBulkBuilder {
     private static final String BOUNDARY = "||||||~~~~~~||||||~~~~~~||||||~~~~~~||||||~~~~~~||||||~~~~~~||||||";
     private static final byte[] START_BOUNDARY = ("--" + BOUNDARY + "\r\n").getBytes();
     private static final byte[] END_BOUNDARY = ("--" + BOUNDARY + "--").getBytes();
-    private static final String MULTIPART = "multipart/mixed; boundary=" + BOUNDARY;
+    public static final String MULTIPART = "multipart/mixed; boundary=" + BOUNDARY;
     private static final byte[] CONTENT_TYPE = "Content-Type: ".getBytes();
     private static final byte[] CONTENT_KEY = "Content-Key: ".getBytes();
     private static final byte[] CREATION_DATE = "Creation-Date: ".getBytes();
@@ -87,10 +87,27 @@ class MultiPartBulkBuilder {
         }
     }
 
-    private static void writeContent(Content content, OutputStream output, URI channelUri, String name) {
+    public static void writeContent(Content content, OutputStream output, URI channelUri, String name) {
         writeContent(content, output, channelUri, name, true, false);
     }
 
+    /**
+     * Writes a part without a Content-Key, such as the json body of a webhook call.
+     */
+    public static void writePart(OutputStream output, String contentType, byte[] bytes) throws IOException {
+        output.write(START_BOUNDARY);
+        output.write(CONTENT_TYPE);
+        output.write(contentType.getBytes());
+        output.write(CRLF);
+        output.write(CRLF);
+        output.write(bytes);
+        output.write(CRLF);
+    }
+
+    public static void writeEnd(OutputStream output) throws IOException {
+        output.write(END_BOUNDARY);
+    }
+
     private static void writeContent(Content content, OutputStream output, URI channelUri, String name,
                                      boolean startBoundary, boolean endBoundary) {
         try {
@@ -0,0 +1,318 @@
+package com.flightstats.hub.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.HubUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Tells every hub in the cluster about new ContentKeys, so webhooks can wait for new keys instead of polling,
+ * and skip time queries for channels with nothing new.
+ * <p>
+ * Inserts on this hub call notifyInsert(), and reports from other hubs call receive().  Both wake the listeners
+ * subscribed to the channel.  Each peer is sent the latest key of every channel which changed since the last report
+ * that peer accepted, within webhook.push.intervalMillis of the change.  When nothing has changed, reports back off
+ * to one every webhook.push.idleMillis.  A peer's reports cover every key
+ * which was stable when the report was taken, so hasNoKeys() only answers true when every hub has reported
+ * past the end of the range, and nothing has been reported at or after the start.  Changes are only kept for
+ * ten minutes, so a peer which has not been heard from for longer is treated as new.  Otherwise callers should
+ * query as before, which is also the fallback for new, restarted or unreachable hubs.
+ */
+@Singleton
+public class ChannelKeyNotifier {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChannelKeyNotifier.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Client client = RestClient.createClient(1, 2, true, false);
+    private static final long DEPARTED_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long UNCHANGED_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final boolean enabled = HubProperties.getProperty("webhook.push.enabled", true);
+    private final String instance = RandomStringUtils.randomAlphanumeric(8);
+    private final long started = System.currentTimeMillis();
+    private final ConcurrentMap<String, Long> latest = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Changed> changes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> delivered = new ConcurrentHashMap<>();
+    private final Set<String> sending = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<LongConsumer>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Backoff> backoffs = new ConcurrentHashMap<>();
+    private final Supplier<Set<String>> servers;
+    private final String self;
+    private final long stableMillis;
+    private final MetricsService metricsService;
+    private final long interval = HubProperties.getProperty("webhook.push.intervalMillis", 200);
+    private final long idleInterval = HubProperties.getProperty("webhook.push.idleMillis", 2000);
+    private ExecutorService executorService;
+
+    @Inject
+    public ChannelKeyNotifier(@Named("HubCuratorCluster") CuratorCluster hubCluster, MetricsService metricsService) {
+        this(hubCluster::getServers, HubHost.getLocalNamePort(),
+                TimeUnit.SECONDS.toMillis(HubProperties.getProperty("app.stable_seconds", 5)), metricsService);
+        if (enabled) {
+            executorService = Executors.newFixedThreadPool(HubProperties.getProperty("webhook.push.threads", 4),
+                    new ThreadFactoryBuilder().setNameFormat("channel-notifier-%d").setDaemon(true).build());
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("channel-notifier-report").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(this::report, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @VisibleForTesting
+    ChannelKeyNotifier(Supplier<Set<String>> servers, String self, long stableMillis, MetricsService metricsService) {
+        this.servers = servers;
+        this.self = self;
+        this.stableMillis = stableMillis;
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Called after key has been written on this hub.
+     */
+    public void notifyInsert(String channel, ContentKey key) {
+        long millis = key.getMillis();
+        latest.merge(channel, millis, Math::max);
+        changes.compute(channel, (name, existing) -> {
+            long keyMillis = existing == null ? millis : Math.max(existing.keyMillis, millis);
+            return new Changed(keyMillis, System.currentTimeMillis());
+        });
+        wake(channel, millis);
+    }
+
+    /**
+     * listener is called with the millis of new keys in channel, from this hub or reported by others.
+     * It should return quickly.
+     */
+    public void subscribe(String channel, LongConsumer listener) {
+        listeners.computeIfAbsent(channel, name -> ConcurrentHashMap.newKeySet()).add(listener);
+    }
+
+    public void unsubscribe(String channel, LongConsumer listener) {
+        listeners.computeIfPresent(channel, (name, existing) -> {
+            existing.remove(listener);
+            return existing.isEmpty() ? null : existing;
+        });
+    }
+
+    private void wake(String channel, long millis) {
+        Set<LongConsumer> channelListeners = listeners.get(channel);
+        if (channelListeners != null) {
+            for (LongConsumer listener : channelListeners) {
+                listener.accept(millis);
+            }
+        }
+    }
+
+    /**
+     * @return true if every other hub is reporting, so listeners will be woken by new keys from any hub
+     */
+    public boolean isReporting() {
+        if (!enabled) {
+            return false;
+        }
+        for (String server : servers.get()) {
+            if (!server.equals(self) && !peers.containsKey(server)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every hub is known to have no keys for channel from start (inclusive) to end (exclusive)
+     */
+    public boolean hasNoKeys(String channel, DateTime start, DateTime end) {
+        if (!enabled) {
+            return false;
+        }
+        boolean noKeys = isCovered(channel, start.getMillis(), end.getMillis());
+        metricsService.count("webhook.push", 1, noKeys ? "result:skipped" : "result:queried");
+        return noKeys;
+    }
+
+    private boolean isCovered(String channel, long start, long end) {
+        Long latestMillis = latest.get(channel);
+        if (latestMillis != null && latestMillis >= start) {
+            return false;
+        }
+        if (start < started || end > System.currentTimeMillis() - stableMillis) {
+            return false;
+        }
+        Set<String> current = servers.get();
+        for (String server : current) {
+            if (!server.equals(self) && !peers.containsKey(server)) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+            Peer peer = entry.getValue();
+            if (start < peer.first) {
+                return false;
+            }
+            boolean covered = peer.sent - stableMillis >= end;
+            if (!covered && (current.contains(entry.getKey()) || start < peer.sent + stableMillis)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accepts a report from another hub.
+     */
+    public void receive(ObjectNode report) {
+        String server = report.get("server").asText();
+        String reportInstance = report.get("instance").asText();
+        long sent = report.get("sent").asLong();
+        report.get("channels").fields().forEachRemaining(field -> {
+            long millis = field.getValue().asLong();
+            Long previous = latest.get(field.getKey());
+            latest.merge(field.getKey(), millis, Math::max);
+            if (previous == null || millis > previous) {
+                wake(field.getKey(), millis);
+            }
+        });
+        peers.compute(server, (name, peer) -> {
+            if (peer == null || !peer.instance.equals(reportInstance)) {
+                logger.info("new peer {} {}", server, reportInstance);
+                return new Peer(reportInstance, sent, sent);
+            }
+            if (sent - peer.sent > UNCHANGED_MILLIS - MARGIN_MILLIS) {
+                //the peer has dropped changes older than UNCHANGED_MILLIS, which may not have reached this hub
+                logger.info("peer {} was not heard from for {} ms", server, sent - peer.sent);
+                return new Peer(reportInstance, sent, sent);
+            }
+            return new Peer(reportInstance, peer.first, Math.max(peer.sent, sent));
+        });
+    }
+
+    @VisibleForTesting
+    ObjectNode createReport(String server, long sent) {
+        ObjectNode report = mapper.createObjectNode();
+        report.put("server", self);
+        report.put("instance", instance);
+        report.put("sent", sent);
+        ObjectNode channels = report.putObject("channels");
+        long since = delivered.getOrDefault(server, sent - UNCHANGED_MILLIS) - MARGIN_MILLIS;
+        for (Map.Entry<String, Changed> entry : changes.entrySet()) {
+            if (entry.getValue().changed >= since) {
+                channels.put(entry.getKey(), entry.getValue().keyMillis);
+            }
+        }
+        return report;
+    }
+
+    @VisibleForTesting
+    void delivered(String server, long sent) {
+        delivered.merge(server, sent, Math::max);
+    }
+
+    /**
+     * @return true if server should be sent a report now
+     */
+    @VisibleForTesting
+    boolean isDue(String server, long now) {
+        long since = delivered.getOrDefault(server, now - UNCHANGED_MILLIS) - MARGIN_MILLIS;
+        boolean changed = changes.values().stream().anyMatch(change -> change.changed >= since);
+        Backoff backoff = backoffs.computeIfAbsent(server, name -> new Backoff());
+        synchronized (backoff) {
+            if (changed) {
+                backoff.wait = interval;
+            } else if (now < backoff.last + backoff.wait) {
+                return false;
+            } else {
+                backoff.wait = Math.min(idleInterval, Math.max(interval, backoff.wait * 2));
+            }
+            backoff.last = now;
+            return true;
+        }
+    }
+
+    private void report() {
+        try {
+            long now = System.currentTimeMillis();
+            changes.entrySet().removeIf(entry -> entry.getValue().changed < now - UNCHANGED_MILLIS);
+            peers.entrySet().removeIf(entry -> entry.getValue().sent < now - DEPARTED_MILLIS);
+            Set<String> current = servers.get();
+            backoffs.keySet().retainAll(current);
+            for (String server : current) {
+                if (!server.equals(self) && !sending.contains(server) && isDue(server, now) && sending.add(server)) {
+                    executorService.submit(() -> send(server));
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to report", e);
+        }
+    }
+
+    private void send(String server) {
+        ClientResponse response = null;
+        try {
+            long sent = System.currentTimeMillis();
+            ObjectNode report = createReport(server, sent);
+            response = client.resource(HubHost.getScheme() + server + "/internal/webhook/notify")
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .post(ClientResponse.class, report.toString());
+            if (response.getStatus() < 400) {
+                delivered(server, sent);
+            } else {
+                metricsService.count("webhook.push.send", 1, "result:failed");
+            }
+        } catch (Exception e) {
+            logger.debug("unable to notify " + server, e);
+            metricsService.count("webhook.push.send", 1, "result:failed");
+        } finally {
+            HubUtils.close(response);
+            sending.remove(server);
+        }
+    }
+
+    private static class Changed {
+        private final long keyMillis;
+        private final long changed;
+
+        private Changed(long keyMillis, long changed) {
+            this.keyMillis = keyMillis;
+            this.changed = changed;
+        }
+    }
+
+    private static class Backoff {
+        private long last;
+        private long wait;
+    }
+
+    private static class Peer {
+        private final String instance;
+        private final long first;
+        private final long sent;
+
+        private Peer(String instance, long first, long sent) {
+            this.instance = instance;
+            this.first = first;
+            this.sent = sent;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.flightstats.hub.model.*;
 import com.google.common.base.Optional;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.function.Consumer;
 
@@ -23,6 +25,20 @@ public interface ContentDao {
 
     Content get(String channelName, ContentKey key);
 
+    /**
+     * Returns the items which were found.
+     */
+    default Map<ContentKey, Content> get(String channelName, Collection<ContentKey> keys) {
+        Map<ContentKey, Content> found = new HashMap<>();
+        for (ContentKey key : keys) {
+            Content content = get(channelName, key);
+            if (content != null) {
+                found.put(key, content);
+            }
+        }
+        return found;
+    }
+
     SortedSet<ContentKey> queryByTime(TimeQuery timQuery);
 
     SortedSet<ContentKey> query(DirectionQuery query);
@@ -7,36 +7,92 @@ import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.PooledBuffer;
 import com.google.common.io.ByteStreams;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.util.Arrays;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+/**
+ * Marshals items for Spoke and S3, with the channel's PayloadCodec.
+ * <p>
+ * ZIP items are zip files.  Items with any other codec are an envelope of
+ * the magic bytes "HUB", a version, the codec id and level, the length of the meta json, the meta json, then the encoded payload.
+ * Zip files start with "PK", so the two formats are told apart by their first bytes.
+ */
 public class ContentMarshaller {
 
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+    private static final byte[] MAGIC = {'H', 'U', 'B'};
+    private static final int VERSION = 1;
 
     public static byte[] toBytes(Content content) throws IOException {
+        return toBytes(content, PayloadCodec.getDefault());
+    }
+
+    public static byte[] toBytes(Content content, PayloadCodec codec) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream zipOut = new ZipOutputStream(baos);
+        marshal(content, codec, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Marshals content into a buffer from the BufferPool, sized from the content length when it is known.
+     * The caller must release the buffer.
+     */
+    public static PooledBuffer toBuffer(Content content, PayloadCodec codec) throws IOException {
+        int initialSize = (int) Math.min(maxBytes, content.getContentLength() + 1024);
+        PooledBuffer.Output output = new PooledBuffer.Output(initialSize);
+        try {
+            marshal(content, codec, output);
+            return output.toBuffer();
+        } catch (Exception e) {
+            output.discard();
+            throw e;
+        }
+    }
+
+    private static void marshal(Content content, PayloadCodec codec, OutputStream outputStream) throws IOException {
+        if (codec.isZip()) {
+            marshalZip(content, outputStream);
+            return;
+        }
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(codec.getId());
+        out.writeByte(codec.getLevel());
+        byte[] meta = getMetaData(content).getBytes();
+        out.writeInt(meta.length);
+        out.write(meta);
+        long bytesCopied = codec.encode(content.getStream(), out);
+        checkSize(bytesCopied);
+        content.setSize(bytesCopied);
+        out.close();
+    }
+
+    private static void marshalZip(Content content, OutputStream outputStream) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(outputStream);
         zipOut.setLevel(Deflater.BEST_COMPRESSION);
         zipOut.putNextEntry(new ZipEntry("meta"));
         String meta = getMetaData(content);
         zipOut.write(meta.getBytes());
         zipOut.putNextEntry(new ZipEntry("payload"));
         long bytesCopied = ByteStreams.copy(content.getStream(), zipOut);
+        checkSize(bytesCopied);
+        content.setSize(bytesCopied);
+        zipOut.close();
+    }
+
+    private static void checkSize(long bytesCopied) {
         if (bytesCopied > maxBytes) {
             throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
         }
-        content.setSize(bytesCopied);
-        zipOut.close();
-        return baos.toByteArray();
     }
 
     public static String getMetaData(Content content) {
@@ -48,13 +104,42 @@ public class ContentMarshaller {
     }
 
     public static Content toContent(byte[] read, ContentKey key) throws IOException {
-        ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(read));
+        return toContent(new ByteArrayInputStream(read), key);
+    }
+
+    public static Content toContent(InputStream read, ContentKey key) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(read, MAGIC.length);
+        byte[] start = new byte[MAGIC.length];
+        int length = ByteStreams.read(pushback, start, 0, start.length);
+        if (length == start.length && Arrays.equals(start, MAGIC)) {
+            return toEnvelopeContent(new DataInputStream(pushback), key);
+        }
+        pushback.unread(start, 0, length);
+        ZipInputStream zipStream = new ZipInputStream(pushback);
         zipStream.getNextEntry();
         byte[] bytes = ByteStreams.toByteArray(zipStream);
         Content.Builder builder = Content.builder().withContentKey(key);
         setMetaData(new String(bytes), builder);
         zipStream.getNextEntry();
-        return builder.withStream(zipStream).build();
+        Content content = builder.withStream(zipStream).build();
+        content.setCodec(PayloadCodec.forName(PayloadCodec.ZIP));
+        return content;
+    }
+
+    private static Content toEnvelopeContent(DataInputStream in, ContentKey key) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unknown envelope version " + version + " " + key);
+        }
+        int id = in.readUnsignedByte();
+        PayloadCodec codec = PayloadCodec.forId(id, in.readUnsignedByte());
+        byte[] meta = new byte[in.readInt()];
+        in.readFully(meta);
+        Content.Builder builder = Content.builder().withContentKey(key);
+        setMetaData(new String(meta), builder);
+        Content content = builder.withStream(codec.decode(in)).build();
+        content.setCodec(codec);
+        return content;
     }
 
     public static void setMetaData(String metaData, Content.Builder builder) throws IOException {
@@ -15,6 +15,9 @@ import com.flightstats.hub.replication.ReplicationGlobalManager;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -23,6 +26,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -37,6 +45,9 @@ public class LocalChannelService implements ChannelService {
 
     private final static Logger logger = LoggerFactory.getLogger(LocalChannelService.class);
     private static final int DIR_COUNT_LIMIT = HubProperties.getProperty("app.directionCountLimit", 10000);
+    private static final ExecutorService bulkPackager = Executors.newFixedThreadPool(
+            HubProperties.getProperty("app.bulkPackageThreads", Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder().setNameFormat("bulk-package-%d").setDaemon(true).build());
     @Inject
     private ContentService contentService;
     @Inject
@@ -116,7 +127,7 @@ public class LocalChannelService implements ChannelService {
             Traces traces = ActiveTraces.getLocal();
             traces.add("ContentService.insert");
             try {
-                content.packageStream();
+                content.packageBuffer(PayloadCodec.forChannel(channelConfig));
                 checkZeroBytes(content, channelConfig);
                 traces.add("ContentService.insert marshalled");
                 ContentKey key = content.keyAndStart(timeService.getNow());
@@ -131,6 +142,8 @@ public class LocalChannelService implements ChannelService {
                 traces.add("ContentService.insert", "error", e.getMessage());
                 logger.warn("insertion error " + channelName, e);
                 throw e;
+            } finally {
+                content.releaseBuffer();
             }
         });
     }
@@ -150,7 +163,7 @@ public class LocalChannelService implements ChannelService {
             throw new InvalidRequestException(msg);
         }
         boolean insert = inFlightService.inFlight(() -> {
-            content.packageStream();
+            content.packageStream(PayloadCodec.forChannel(channelConfig));
             checkZeroBytes(content, channelConfig);
             return contentService.historicalInsert(channelName, content);
         });
@@ -172,10 +185,42 @@ public class LocalChannelService implements ChannelService {
             throw new ForbiddenRequestException(channel + " cannot modified while replicating");
         }
         long start = System.currentTimeMillis();
+        PayloadCodec codec = PayloadCodec.forChannel(getCachedChannelConfig(channel));
         Collection<ContentKey> contentKeys = inFlightService.inFlight(() -> {
-            MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
-            multiPartParser.parse();
-            return contentService.insert(bulkContent);
+            //items are marshalled while the rest of the body is parsed
+            List<Future<?>> packaging = new ArrayList<>();
+            AtomicBoolean aborted = new AtomicBoolean();
+            try {
+                MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
+                multiPartParser.parse(content -> packaging.add(bulkPackager.submit(() -> {
+                    if (!aborted.get()) {
+                        content.packageBuffer(codec);
+                    }
+                    return null;
+                })));
+                for (Future<?> future : packaging) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwables.throwIfUnchecked(e.getCause());
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+                return contentService.insert(bulkContent);
+            } finally {
+                //packaging tasks may still be writing to pooled buffers, so they must finish before the release
+                aborted.set(true);
+                for (Future<?> future : packaging) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(future);
+                    } catch (ExecutionException e) {
+                        logger.debug("packaging failed", e.getCause());
+                    }
+                }
+                for (Content content : bulkContent.getItems()) {
+                    content.releaseBuffer();
+                }
+            }
         });
         metricsService.insert(channel, start, Insert.bulk, bulkContent.getItems().size(), bulkContent.getSize());
         return contentKeys;
@@ -0,0 +1,171 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How ContentMarshaller encodes an item's payload.
+ * <p>
+ * ZIP is the original format, a zip file with meta and payload entries, which every hub can read.
+ * The others are written in ContentMarshaller's envelope, which has no zip entry overhead:
+ * NONE stores the payload as is, DEFLATE:n compresses it at level n (DEFLATE is level 6),
+ * and FAST is DEFLATE:1, for channels where insert latency matters more than size.
+ * <p>
+ * A channel's codec comes from its codec property, otherwise from app.payloadCodec.
+ * Items are always read with the codec they were written with, so a channel's codec can be changed at any time.
+ */
+public class PayloadCodec {
+
+    private final static Logger logger = LoggerFactory.getLogger(PayloadCodec.class);
+
+    public static final String ZIP = "ZIP";
+    public static final String NONE = "NONE";
+    public static final String DEFLATE = "DEFLATE";
+    public static final String FAST = "FAST";
+
+    static final int NONE_ID = 0;
+    static final int DEFLATE_ID = 1;
+    private static final int DEFLATE_LEVEL = 6;
+
+    private static final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+    private static final PayloadCodec zip = new PayloadCodec(ZIP, -1, Deflater.BEST_COMPRESSION);
+    private static final PayloadCodec none = new PayloadCodec(NONE, NONE_ID, 0);
+
+    private final String name;
+    private final int id;
+    private final int level;
+
+    private PayloadCodec(String name, int id, int level) {
+        this.name = name;
+        this.id = id;
+        this.level = level;
+    }
+
+    public static PayloadCodec getDefault() {
+        return forName(HubProperties.getProperty("app.payloadCodec", ZIP));
+    }
+
+    public static PayloadCodec forChannel(ChannelConfig channelConfig) {
+        if (channelConfig == null || StringUtils.isBlank(channelConfig.getCodec())) {
+            return getDefault();
+        }
+        return forName(channelConfig.getCodec());
+    }
+
+    /**
+     * @return the codec for name, or ZIP if name is not valid
+     */
+    public static PayloadCodec forName(String name) {
+        return codecs.computeIfAbsent(StringUtils.upperCase(StringUtils.trimToEmpty(name)), key -> {
+            PayloadCodec codec = parse(key);
+            if (codec == null) {
+                logger.warn("invalid payload codec {}, using {}", key, ZIP);
+                return zip;
+            }
+            return codec;
+        });
+    }
+
+    public static boolean isValid(String name) {
+        return parse(StringUtils.upperCase(StringUtils.trim(name))) != null;
+    }
+
+    private static PayloadCodec parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name) {
+            case ZIP:
+                return zip;
+            case NONE:
+                return none;
+            case FAST:
+                return new PayloadCodec(FAST, DEFLATE_ID, Deflater.BEST_SPEED);
+            case DEFLATE:
+                return new PayloadCodec(DEFLATE, DEFLATE_ID, DEFLATE_LEVEL);
+        }
+        String level = StringUtils.removeStart(name, DEFLATE + ":");
+        if (level.length() == 1 && level.charAt(0) >= '1' && level.charAt(0) <= '9') {
+            return new PayloadCodec(name, DEFLATE_ID, Integer.parseInt(level));
+        }
+        return null;
+    }
+
+    /**
+     * @return the codec an envelope payload was written with
+     */
+    static PayloadCodec forId(int id, int level) throws IOException {
+        if (id == NONE_ID) {
+            return none;
+        } else if (id == DEFLATE_ID) {
+            if (level == Deflater.BEST_SPEED) {
+                return forName(FAST);
+            } else if (level > Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION && level != DEFLATE_LEVEL) {
+                return forName(DEFLATE + ":" + level);
+            }
+            return forName(DEFLATE);
+        }
+        throw new IOException("unknown payload codec id " + id);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    boolean isZip() {
+        return this == zip;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Copies all of in to out, encoded.  out is not closed.
+     *
+     * @return the number of bytes read from in
+     */
+    long encode(InputStream in, OutputStream out) throws IOException {
+        if (id == NONE_ID) {
+            return ByteStreams.copy(in, out);
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8 * 1024);
+            long bytesCopied = ByteStreams.copy(in, deflaterOut);
+            deflaterOut.finish();
+            return bytesCopied;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    InputStream decode(InputStream in) {
+        if (id == NONE_ID) {
+            return in;
+        }
+        return new InflaterInputStream(in);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
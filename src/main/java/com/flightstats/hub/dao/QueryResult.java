@@ -2,16 +2,14 @@ package com.flightstats.hub.dao;
 
 import com.flightstats.hub.model.ContentKey;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class QueryResult {
 
     private SortedSet<ContentKey> contentKeys = Collections.synchronizedSortedSet(new TreeSet<>());
+    private final List<List<ContentKey>> sortedKeys = new ArrayList<>();
     private AtomicInteger success = new AtomicInteger();
     private int attempts;
 
@@ -24,16 +22,80 @@ public class QueryResult {
         success.incrementAndGet();
     }
 
+    /**
+     * Holds keys from one source, which are merged with the other sources by getContentKeys().
+     * Keys which are not in order are sorted first.
+     */
+    public void addSortedKeys(List<ContentKey> keys) {
+        synchronized (sortedKeys) {
+            sortedKeys.add(keys);
+        }
+        success.incrementAndGet();
+    }
+
     public SortedSet<ContentKey> getContentKeys() {
+        synchronized (sortedKeys) {
+            if (!sortedKeys.isEmpty()) {
+                merge(sortedKeys);
+                sortedKeys.clear();
+            }
+        }
         return contentKeys;
     }
 
+    /**
+     * Adds the keys from each source once, in order, rather than building a set for each source.
+     */
+    private void merge(List<List<ContentKey>> sources) {
+        List<Iterator<ContentKey>> iterators = new ArrayList<>();
+        List<ContentKey> heads = new ArrayList<>();
+        for (List<ContentKey> keys : sources) {
+            if (!isSorted(keys)) {
+                Collections.sort(keys);
+            }
+            Iterator<ContentKey> iterator = keys.iterator();
+            if (iterator.hasNext()) {
+                iterators.add(iterator);
+                heads.add(iterator.next());
+            }
+        }
+        ContentKey last = null;
+        while (!heads.isEmpty()) {
+            int lowest = 0;
+            for (int i = 1; i < heads.size(); i++) {
+                if (heads.get(i).compareTo(heads.get(lowest)) < 0) {
+                    lowest = i;
+                }
+            }
+            ContentKey key = heads.get(lowest);
+            if (last == null || key.compareTo(last) != 0) {
+                contentKeys.add(key);
+                last = key;
+            }
+            if (iterators.get(lowest).hasNext()) {
+                heads.set(lowest, iterators.get(lowest).next());
+            } else {
+                heads.remove(lowest);
+                iterators.remove(lowest);
+            }
+        }
+    }
+
+    private static boolean isSorted(List<ContentKey> keys) {
+        for (int i = 1; i < keys.size(); i++) {
+            if (keys.get(i - 1).compareTo(keys.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public boolean hadSuccess() {
         return success.get() >= 1;
     }
 
     @Override
     public String toString() {
-        return "contentKeys=" + contentKeys.size() + " success=" + success + " attempts=" + attempts;
+        return "contentKeys=" + getContentKeys().size() + " success=" + success + " attempts=" + attempts;
     }
 }
@@ -16,6 +16,15 @@ public class TtlEnforcer {
 
     public static void enforce(String path, ChannelService channelService,
                                Consumer<ChannelConfig> channelConsumer) {
+        enforce(path, channelService, channelConsumer, dir -> {
+        });
+    }
+
+    /**
+     * @param removedConsumer is called with the name of each directory removed for not having a channel
+     */
+    public static void enforce(String path, ChannelService channelService,
+                               Consumer<ChannelConfig> channelConsumer, Consumer<String> removedConsumer) {
         try {
             File spokeRoot = new File(path);
             Set<String> dirSet = new HashSet<>(Arrays.asList(spokeRoot.list()));
@@ -27,10 +36,12 @@ public class TtlEnforcer {
             }
             dirSet.removeAll(channelSet);
             dirSet.remove("lost+found");
+            dirSet.removeIf(dir -> dir.startsWith("."));
             for (String dir : dirSet) {
                 String dirPath = path + "/" + dir;
                 logger.info("removing dir without channel {}", dirPath);
                 Commander.run(new String[]{"rm", "-rf", dirPath}, 1);
+                removedConsumer.accept(dir);
             }
         } catch (Exception e) {
             logger.warn("unble to run " + path, e);
@@ -2,9 +2,11 @@ package com.flightstats.hub.dao.aws;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.*;
 import com.flightstats.hub.exception.FailedQueryException;
+import com.flightstats.hub.exception.FailedReadException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
@@ -22,14 +24,8 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.SortedSet;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -44,6 +40,8 @@ public class ClusterContentService implements ContentService {
     private static final long largePayload = HubProperties.getLargePayload();
     private final boolean dropSomeWrites = HubProperties.getProperty("s3.dropSomeWrites", false);
     private final int spokeTtlMinutes = HubProperties.getSpokeTtl();
+    private final int multiGetWindow = HubProperties.getProperty("app.multiGetWindow", 8);
+    private final int spokeBatchItems = HubProperties.getProperty("spoke.read.batchItems", 50);
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
@@ -64,6 +62,10 @@ public class ClusterContentService implements ContentService {
     private S3WriteQueue s3WriteQueue;
     @Inject
     private HubUtils hubUtils;
+    @Inject
+    private ContentCache contentCache;
+    @Inject
+    private ChannelKeyNotifier channelKeyNotifier;
 
     private static final ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ClusterContentService-%d").build());
 
@@ -80,6 +82,7 @@ public class ClusterContentService implements ContentService {
             spokeContent = createIndex(content);
         }
         ContentKey key = spokeContentDao.insert(channelName, spokeContent);
+        channelKeyNotifier.notifyInsert(channelName, key);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (channel.isSingle() || channel.isBoth()) {
             Supplier<Void> local = () -> {
@@ -103,6 +106,9 @@ public class ClusterContentService implements ContentService {
     public Collection<ContentKey> insert(BulkContent bulkContent) throws Exception {
         String channelName = bulkContent.getChannel();
         SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
+        if (!keys.isEmpty()) {
+            channelKeyNotifier.notifyInsert(channelName, keys.last());
+        }
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (channel.isSingle() || channel.isBoth()) {
             for (ContentKey key : keys) {
@@ -115,18 +121,35 @@ public class ClusterContentService implements ContentService {
     @Override
     public boolean historicalInsert(String channelName, Content content) throws Exception {
         s3SingleContentDao.insertHistorical(channelName, content);
+        channelKeyNotifier.notifyInsert(channelName, content.getContentKey().get());
         return true;
     }
 
     @Override
     public Optional<Content> get(String channelName, ContentKey key) {
         logger.trace("fetching {} from channel {} ", key.toString(), channelName);
+        Optional<Content> cached = contentCache.get(channelName, key);
+        if (cached.isPresent()) {
+            return checkForLargeIndex(channelName, cached.get());
+        }
+        return getAndCache(channelName, key);
+    }
+
+    private Optional<Content> getAndCache(String channelName, ContentKey key) {
+        Content content = getUncached(channelName, key);
+        if (content != null) {
+            contentCache.put(channelName, content);
+        }
+        return checkForLargeIndex(channelName, content);
+    }
+
+    private Content getUncached(String channelName, ContentKey key) {
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (key.getTime().isAfter(getSpokeTtlTime(channelName))) {
             Content content = spokeContentDao.get(channelName, key);
             if (content != null) {
                 logger.trace("returning from spoke {} {}", key.toString(), channelName);
-                return checkForLargeIndex(channelName, content);
+                return content;
             }
         }
         Content content;
@@ -140,7 +163,7 @@ public class ClusterContentService implements ContentService {
                 content = s3BatchContentDao.get(channelName, key);
             }
         }
-        return checkForLargeIndex(channelName, content);
+        return content;
     }
 
     private Optional<Content> checkForLargeIndex(String channelName, Content content) {
@@ -166,25 +189,110 @@ public class ClusterContentService implements ContentService {
         SortedSet<MinutePath> minutePaths = ContentKeyUtil.convert(keys);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         DateTime spokeTtlTime = getSpokeTtlTime(channelName);
+        List<ContentKey> pending = new ArrayList<>();
         for (MinutePath minutePath : minutePaths) {
             if (minutePath.getTime().isAfter(spokeTtlTime)
                     || channel.isSingle()) {
-                getValues(channelName, callback, minutePath);
+                pending.addAll(minutePath.getKeys());
             } else {
+                getValues(channelName, callback, pending, spokeTtlTime);
+                pending.clear();
                 if (!s3BatchContentDao.streamMinute(channelName, minutePath, callback)) {
-                    getValues(channelName, callback, minutePath);
+                    getValues(channelName, callback, minutePath.getKeys(), spokeTtlTime);
+                }
+            }
+        }
+        getValues(channelName, callback, pending, spokeTtlTime);
+    }
+
+    /**
+     * Fetches up to app.multiGetWindow batches concurrently, and calls back in key order.
+     * Keys within the Spoke window are read in batches of spoke.read.batchItems from one Spoke server.
+     */
+    private void getValues(String channelName, Consumer<Content> callback, Collection<ContentKey> keys, DateTime spokeTtlTime) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<List<ContentKey>> batches = new ArrayList<>();
+        List<ContentKey> spokeBatch = new ArrayList<>();
+        for (ContentKey key : keys) {
+            if (key.getTime().isAfter(spokeTtlTime)) {
+                spokeBatch.add(key);
+                if (spokeBatch.size() >= spokeBatchItems) {
+                    batches.add(spokeBatch);
+                    spokeBatch = new ArrayList<>();
                 }
+            } else {
+                if (!spokeBatch.isEmpty()) {
+                    batches.add(spokeBatch);
+                    spokeBatch = new ArrayList<>();
+                }
+                batches.add(Collections.singletonList(key));
+            }
+        }
+        if (!spokeBatch.isEmpty()) {
+            batches.add(spokeBatch);
+        }
+        Traces traces = ActiveTraces.getLocal();
+        Deque<Future<List<Content>>> inFlight = new ArrayDeque<>();
+        Iterator<List<ContentKey>> iterator = batches.iterator();
+        try {
+            while (iterator.hasNext() || !inFlight.isEmpty()) {
+                while (iterator.hasNext() && inFlight.size() < multiGetWindow) {
+                    List<ContentKey> batch = iterator.next();
+                    inFlight.add(executorService.submit(() -> {
+                        ActiveTraces.setLocal(traces);
+                        return getBatch(channelName, batch);
+                    }));
+                }
+                for (Content content : inFlight.removeFirst().get()) {
+                    callback.accept(content);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            throw new FailedReadException("unable to get " + channelName, e.getCause());
+        } finally {
+            for (Future<List<Content>> future : inFlight) {
+                future.cancel(true);
             }
         }
     }
 
-    private void getValues(String channelName, Consumer<Content> callback, ContentPathKeys contentPathKeys) {
-        for (ContentKey contentKey : contentPathKeys.getKeys()) {
-            Optional<Content> contentOptional = get(channelName, contentKey);
-            if (contentOptional.isPresent()) {
-                callback.accept(contentOptional.get());
+    private List<Content> getBatch(String channelName, List<ContentKey> keys) {
+        List<Content> contents = new ArrayList<>();
+        if (keys.size() == 1) {
+            Optional<Content> content = get(channelName, keys.get(0));
+            if (content.isPresent()) {
+                contents.add(content.get());
+            }
+            return contents;
+        }
+        Map<ContentKey, Content> found = new HashMap<>();
+        List<ContentKey> uncached = new ArrayList<>();
+        for (ContentKey key : keys) {
+            Optional<Content> cached = contentCache.get(channelName, key);
+            if (cached.isPresent()) {
+                found.put(key, cached.get());
+            } else {
+                uncached.add(key);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            for (Content content : spokeContentDao.get(channelName, uncached).values()) {
+                contentCache.put(channelName, content);
+                found.put(content.getContentKey().get(), content);
+            }
+        }
+        for (ContentKey key : keys) {
+            Content content = found.get(key);
+            Optional<Content> optional = content == null ? getAndCache(channelName, key) : checkForLargeIndex(channelName, content);
+            if (optional.isPresent()) {
+                contents.add(optional.get());
             }
         }
+        return contents;
     }
 
     @Override
@@ -331,6 +439,7 @@ public class ClusterContentService implements ContentService {
         s3BatchContentDao.delete(channelName);
         lastContentPath.delete(channelName, CHANNEL_LATEST_UPDATED);
         lastContentPath.delete(channelName, S3Verifier.LAST_SINGLE_VERIFIED);
+        contentCache.invalidate(channelName);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (!channel.isSingle()) {
             new S3Batch(channel, hubUtils).stop();
@@ -340,6 +449,7 @@ public class ClusterContentService implements ContentService {
     @Override
     public void delete(String channelName, ContentKey contentKey) {
         s3SingleContentDao.delete(channelName, contentKey);
+        contentCache.invalidate(channelName, contentKey);
     }
 
     @Override
@@ -0,0 +1,285 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.PayloadCodec;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded, least recently used cache of payloads for ClusterContentService.
+ * Content is immutable, so entries only need to be invalidated when items or channels are deleted.
+ * <p>
+ * The cache is disabled unless app.contentCacheMB is greater than zero.
+ * When app.contentCacheOffHeap is true, payloads are held in pages of direct memory, which are allocated once
+ * and reused as entries are evicted, so the cache never waits on the garbage collector to free direct memory.
+ * <p>
+ * Invalidation is local to this hub.  Other hubs may serve a deleted item until it is evicted,
+ * or for at most app.contentCacheMinutes.
+ */
+@SuppressWarnings("WeakerAccess")
+@Singleton
+public class ContentCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(ContentCache.class);
+    static final int PAGE_SIZE = 4 * 1024;
+
+    private final MetricsService metricsService;
+    private final long maxItemBytes;
+    private final Arena arena;
+    private final AtomicLong bytes = new AtomicLong();
+    private final Cache<ChannelContentKey, Entry> cache;
+
+    @Inject
+    public ContentCache(MetricsService metricsService) {
+        this(HubProperties.getProperty("app.contentCacheMB", 0) * 1024L * 1024L,
+                HubProperties.getProperty("app.contentCacheMaxItemKB", 1024) * 1024L,
+                HubProperties.getProperty("app.contentCacheOffHeap", true),
+                PAGE_SIZE, metricsService);
+    }
+
+    ContentCache(long maxBytes, long maxItemBytes, boolean offHeap, int pageSize, MetricsService metricsService) {
+        this.metricsService = metricsService;
+        this.maxItemBytes = maxItemBytes;
+        if (maxBytes > 0) {
+            logger.info("caching {} bytes, offHeap {}", maxBytes, offHeap);
+            arena = offHeap ? new Arena(pageSize, maxBytes + maxItemBytes) : null;
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher((ChannelContentKey key, Entry entry) -> entry.weight())
+                    .expireAfterWrite(HubProperties.getProperty("app.contentCacheMinutes", 60), TimeUnit.MINUTES)
+                    .removalListener(this::onRemoval)
+                    .build();
+        } else {
+            arena = null;
+            cache = null;
+        }
+    }
+
+    public Optional<Content> get(String channel, ContentKey key) {
+        if (cache == null) {
+            return Optional.absent();
+        }
+        Entry entry = cache.getIfPresent(new ChannelContentKey(channel, key));
+        Content content = entry == null ? null : entry.toContent(key);
+        if (content == null) {
+            metricsService.count("content.cache", 1, "result:miss");
+            return Optional.absent();
+        }
+        metricsService.count("content.cache", 1, "result:hit");
+        return Optional.of(content);
+    }
+
+    /**
+     * Caches the payload of content, which is read into memory if it is still a stream.
+     * Large items are not cached.
+     */
+    public void put(String channel, Content content) {
+        if (cache == null || !content.getContentKey().isPresent()
+                || content.isLarge() || content.getContentLength() > maxItemBytes) {
+            return;
+        }
+        byte[] data = content.getData();
+        if (data == null || data.length > maxItemBytes) {
+            return;
+        }
+        Entry entry = Entry.create(content, data, arena);
+        if (entry == null) {
+            metricsService.count("content.cache", 1, "result:full");
+            return;
+        }
+        bytes.addAndGet(entry.weight());
+        cache.put(new ChannelContentKey(channel, content.getContentKey().get()), entry);
+        metricsService.gauge("content.cache.bytes", bytes.get());
+    }
+
+    public void invalidate(String channel, ContentKey key) {
+        if (cache != null) {
+            cache.invalidate(new ChannelContentKey(channel, key));
+        }
+    }
+
+    public void invalidate(String channel) {
+        if (cache != null) {
+            cache.asMap().keySet().removeIf(key -> key.getChannel().equals(channel));
+        }
+    }
+
+    long getFreePages() {
+        return arena == null ? 0 : arena.free.size();
+    }
+
+    private void onRemoval(RemovalNotification<ChannelContentKey, Entry> notification) {
+        Entry entry = notification.getValue();
+        bytes.addAndGet(-entry.weight());
+        entry.release();
+        if (notification.wasEvicted()) {
+            metricsService.count("content.cache", 1, "result:evicted");
+        }
+    }
+
+    /**
+     * Fixed size pages of direct memory, carved from slabs as they are needed, up to maxBytes.
+     * Pages are returned with free(), and never given back to the JVM.
+     */
+    static class Arena {
+        private static final int SLAB_SIZE = 1024 * 1024;
+
+        private final int pageSize;
+        private final long maxPages;
+        private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pages = new AtomicLong();
+
+        Arena(int pageSize, long maxBytes) {
+            this.pageSize = pageSize;
+            this.maxPages = (maxBytes + pageSize - 1) / pageSize;
+        }
+
+        /**
+         * @return pages holding data, or null if the arena is full
+         */
+        ByteBuffer[] allocate(byte[] data) {
+            ByteBuffer[] allocated = new ByteBuffer[Math.max(1, (data.length + pageSize - 1) / pageSize)];
+            for (int i = 0; i < allocated.length; i++) {
+                ByteBuffer page = nextPage();
+                if (page == null) {
+                    free(allocated);
+                    return null;
+                }
+                int offset = i * pageSize;
+                page.clear();
+                page.put(data, offset, Math.min(pageSize, data.length - offset));
+                allocated[i] = page;
+            }
+            return allocated;
+        }
+
+        private ByteBuffer nextPage() {
+            ByteBuffer page = free.poll();
+            while (page == null) {
+                long current = pages.get();
+                int slabPages = (int) Math.min(SLAB_SIZE / pageSize, maxPages - current);
+                if (slabPages <= 0) {
+                    return null;
+                }
+                if (pages.compareAndSet(current, current + slabPages)) {
+                    ByteBuffer slab = ByteBuffer.allocateDirect(slabPages * pageSize);
+                    for (int i = 0; i < slabPages; i++) {
+                        slab.limit((i + 1) * pageSize).position(i * pageSize);
+                        free.add(slab.slice());
+                    }
+                }
+                page = free.poll();
+            }
+            return page;
+        }
+
+        void free(ByteBuffer[] allocated) {
+            for (ByteBuffer page : allocated) {
+                if (page != null) {
+                    free.add(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds one payload, on the heap or in arena pages.  Pages are freed when the cache and every reader
+     * have released the entry, so a read never sees a page reused by another entry.
+     */
+    private static class Entry {
+        private final Optional<String> contentType;
+        private final PayloadCodec codec;
+        private final int length;
+        private final byte[] heap;
+        private final ByteBuffer[] pages;
+        private final Arena arena;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Entry(Content content, int length, byte[] heap, ByteBuffer[] pages, Arena arena) {
+            this.contentType = content.getContentType();
+            this.codec = content.getCodec();
+            this.length = length;
+            this.heap = heap;
+            this.pages = pages;
+            this.arena = arena;
+        }
+
+        static Entry create(Content content, byte[] data, Arena arena) {
+            if (arena == null) {
+                return new Entry(content, data.length, data, null, null);
+            }
+            ByteBuffer[] pages = arena.allocate(data);
+            return pages == null ? null : new Entry(content, data.length, null, pages, arena);
+        }
+
+        private int weight() {
+            return pages == null ? length : pages.length * arena.pageSize;
+        }
+
+        private boolean retain() {
+            int current = references.get();
+            while (current > 0) {
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                current = references.get();
+            }
+            return false;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0 && pages != null) {
+                arena.free(pages);
+            }
+        }
+
+        /**
+         * @return null if the entry was released before it could be read
+         */
+        private Content toContent(ContentKey key) {
+            byte[] data;
+            if (heap != null) {
+                data = heap;
+            } else {
+                if (!retain()) {
+                    return null;
+                }
+                try {
+                    data = new byte[length];
+                    for (int i = 0; i < pages.length; i++) {
+                        int offset = i * arena.pageSize;
+                        ByteBuffer page = pages[i].duplicate();
+                        page.clear();
+                        page.get(data, offset, Math.min(arena.pageSize, length - offset));
+                    }
+                } finally {
+                    release();
+                }
+            }
+            Content content = Content.builder()
+                    .withContentKey(key)
+                    .withContentType(contentType.orNull())
+                    .withData(data)
+                    .build();
+            content.setCodec(codec);
+            return content;
+        }
+    }
+}
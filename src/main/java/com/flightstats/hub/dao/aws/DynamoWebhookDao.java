@@ -42,6 +42,14 @@ public class DynamoWebhookDao implements Dao<Webhook> {
         item.put("ttlMinutes", new AttributeValue().withN(String.valueOf(webhook.getTtlMinutes())));
         item.put("maxWaitMinutes", new AttributeValue().withN(String.valueOf(webhook.getMaxWaitMinutes())));
         item.put("callbackTimeoutSeconds", new AttributeValue().withN(String.valueOf(webhook.getCallbackTimeoutSeconds())));
+        if (webhook.isBatch()) {
+            item.put("maxItems", new AttributeValue().withN(String.valueOf(webhook.getMaxItems())));
+            item.put("maxWaitMillis", new AttributeValue().withN(String.valueOf(webhook.getMaxWaitMillis())));
+        }
+        if (webhook.getMaxBytes() != null) {
+            item.put("maxBytes", new AttributeValue().withN(String.valueOf(webhook.getMaxBytes())));
+        }
+        item.put("inlinePayloads", new AttributeValue().withBOOL(webhook.isInlinePayloads()));
         dbClient.putItem(getTableName(), item);
     }
 
@@ -87,6 +95,18 @@ public class DynamoWebhookDao implements Dao<Webhook> {
         if (item.containsKey("callbackTimeoutSeconds")) {
             builder.callbackTimeoutSeconds(Integer.valueOf(item.get("callbackTimeoutSeconds").getN()));
         }
+        if (item.containsKey("inlinePayloads")) {
+            builder.inlinePayloads(item.get("inlinePayloads").getBOOL());
+        }
+        if (item.containsKey("maxItems")) {
+            builder.maxItems(Integer.valueOf(item.get("maxItems").getN()));
+        }
+        if (item.containsKey("maxBytes")) {
+            builder.maxBytes(Integer.valueOf(item.get("maxBytes").getN()));
+        }
+        if (item.containsKey("maxWaitMillis")) {
+            builder.maxWaitMillis(Integer.valueOf(item.get("maxWaitMillis").getN()));
+        }
         return builder.build().withDefaults();
     }
 
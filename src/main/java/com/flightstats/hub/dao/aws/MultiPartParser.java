@@ -6,35 +6,57 @@ import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
-import com.flightstats.hub.util.ByteRing;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
+/**
+ * Parses a multipart bulk body into the items of a BulkContent.
+ * <p>
+ * The body is read in large chunks, and boundaries are found with a Boyer-Moore-Horspool search.
+ * Each item's data is a slice of the chunk it was read into, so item bytes are not copied by the parser.
+ * A chunk is never reused once it holds items; only the unparsed remainder is copied into the next chunk.
+ * Items are passed to the listener as soon as their closing boundary is read.
+ */
 public class MultiPartParser {
     private final static Logger logger = LoggerFactory.getLogger(MultiPartParser.class);
 
     private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024 * 3;
-    private BulkContent bulkContent;
-    private BufferedInputStream stream;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private enum State {PREAMBLE, HEADERS, BODY, DONE}
+
+    private final BulkContent bulkContent;
+    private final InputStream stream;
     private Content.Builder builder;
-    private final ByteArrayOutputStream baos;
-    private static final byte[] CRLF = "\r\n".getBytes();
+    private byte[] buffer = new byte[CHUNK_BYTES];
+    private int position;
+    private int limit;
+    private int bodyStart;
+    private int searchFrom;
+    private long count;
 
     public MultiPartParser(BulkContent bulkContent) {
         this.bulkContent = bulkContent;
-        builder = Content.builder();
-        stream = new BufferedInputStream(bulkContent.getStream());
-        baos = new ByteArrayOutputStream();
+        this.stream = bulkContent.getStream();
     }
 
     public void parse() throws IOException {
-        parseItems();
+        parse(content -> {
+        });
+    }
+
+    /**
+     * @param listener is called with each item as soon as it has been read
+     */
+    public void parse(Consumer<Content> listener) throws IOException {
+        parseItems(listener);
         if (bulkContent.getItems().isEmpty()) {
             throw new InvalidRequestException("multipart has no items");
         } else if (bulkContent.isNew()) {
@@ -46,52 +68,115 @@ public class MultiPartParser {
         }
     }
 
-    private void parseItems() throws IOException {
+    private void parseItems(Consumer<Content> listener) throws IOException {
         String boundary = "--" + getBoundary();
-        byte[] startBoundary = (boundary + "\r\n").getBytes();
-        byte[] endBoundary = (boundary + "--").getBytes();
-        boolean started = false;
-        boolean header = false;
-        ByteRing byteRing = new ByteRing(endBoundary.length);
-        int count = 0;
-        int read = stream.read();
-        while (read != -1) {
-            count++;
-            if (count > maxBytes) {
-                logger.warn("multipart max payload exceeded {}", maxBytes, bulkContent.getChannel());
-                throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
-            }
-            baos.write((byte) read);
-            byteRing.put((byte) read);
-
-            if (byteRing.compare(startBoundary)) {
-                if (!started) {
-                    started = true;
-                    baos.reset();
+        Pattern start = new Pattern((boundary + "\r\n").getBytes());
+        Pattern delimiter = new Pattern(("\r\n" + boundary).getBytes());
+        State state = State.PREAMBLE;
+        while (state != State.DONE) {
+            boolean needMore = false;
+            if (state == State.PREAMBLE) {
+                int found = start.indexOf(buffer, position, limit);
+                if (found < 0) {
+                    position = Math.max(position, limit - start.length() + 1);
+                    needMore = true;
                 } else {
-                    addItem(startBoundary);
+                    position = found + start.length();
+                    newItem();
+                    state = State.HEADERS;
                 }
-                header = true;
-                builder.withContentType("text/plain");
-            } else if (header && byteRing.compare(CRLF)) {
-                String headerLine = StringUtils.strip(baos.toString());
-                baos.reset();
-                if (StringUtils.isEmpty(headerLine)) {
-                    header = false;
+            } else if (state == State.HEADERS) {
+                int lineEnd = indexOfCrlf(position);
+                if (lineEnd < 0) {
+                    needMore = true;
                 } else {
-                    if (StringUtils.startsWithIgnoreCase(headerLine, "content-type:")) {
-                        String type = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-type:"));
-                        builder.withContentType(type);
-                    } else if (StringUtils.startsWithIgnoreCase(headerLine, "content-key:")) {
-                        String key = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-key:"));
-                        builder.withContentKey(ContentKey.fromFullUrl(key));
+                    String headerLine = StringUtils.strip(new String(buffer, position, lineEnd - position, StandardCharsets.UTF_8));
+                    position = lineEnd + 2;
+                    if (StringUtils.isEmpty(headerLine)) {
+                        bodyStart = position;
+                        searchFrom = position - 2;
+                        state = State.BODY;
+                    } else {
+                        addHeader(headerLine);
                     }
                 }
-            } else if (byteRing.compare(endBoundary)) {
-                addItem(endBoundary);
-                break;
+            } else {
+                int found = delimiter.indexOf(buffer, searchFrom, limit);
+                int after = found + delimiter.length();
+                if (found < 0) {
+                    searchFrom = Math.max(searchFrom, limit - delimiter.length() + 1);
+                    needMore = true;
+                } else if (after + 2 > limit) {
+                    searchFrom = found;
+                    needMore = true;
+                } else if (buffer[after] == '\r' && buffer[after + 1] == '\n') {
+                    addItem(bodyStart, found, listener);
+                    position = after + 2;
+                    newItem();
+                    state = State.HEADERS;
+                } else if (buffer[after] == '-' && buffer[after + 1] == '-') {
+                    addItem(bodyStart, found, listener);
+                    state = State.DONE;
+                } else {
+                    searchFrom = found + 1;
+                }
+            }
+            if (needMore && !fill(state == State.BODY ? bodyStart - 2 : position)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads more of the stream, moving the bytes from mark onward into a new chunk if this one is full.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill(int mark) throws IOException {
+        if (limit == buffer.length) {
+            int remaining = limit - mark;
+            byte[] next = new byte[Math.max(CHUNK_BYTES, remaining * 2)];
+            System.arraycopy(buffer, mark, next, 0, remaining);
+            buffer = next;
+            position -= mark;
+            bodyStart -= mark;
+            searchFrom -= mark;
+            limit = remaining;
+        }
+        int read = stream.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            return false;
+        }
+        count += read;
+        if (count > maxBytes) {
+            logger.warn("multipart max payload exceeded {} {}", maxBytes, bulkContent.getChannel());
+            throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+        }
+        limit += read;
+        return true;
+    }
+
+    private int indexOfCrlf(int from) {
+        for (int i = from; i < limit - 1; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                return i;
             }
-            read = stream.read();
+        }
+        return -1;
+    }
+
+    private void newItem() {
+        builder = Content.builder();
+        builder.withContentType("text/plain");
+    }
+
+    private void addHeader(String headerLine) {
+        if (StringUtils.startsWithIgnoreCase(headerLine, "content-type:")) {
+            String type = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-type:"));
+            builder.withContentType(type);
+        } else if (StringUtils.startsWithIgnoreCase(headerLine, "content-key:")) {
+            String key = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-key:"));
+            builder.withContentKey(ContentKey.fromFullUrl(key));
         }
     }
 
@@ -104,17 +189,56 @@ public class MultiPartParser {
 
     }
 
-    private void addItem(byte[] boundary) {
-        byte[] bytes = baos.toByteArray();
-        byte[] data = ArrayUtils.subarray(bytes, 0, bytes.length - boundary.length - CRLF.length);
-        if ((data.length == 0 && builder.getContentKey().isPresent())
-                || data.length > 0) {
-            builder.withData(data);
-            bulkContent.getItems().add(builder.build());
+    private void addItem(int start, int end, Consumer<Content> listener) {
+        int length = Math.max(0, end - start);
+        if ((length == 0 && builder.getContentKey().isPresent())
+                || length > 0) {
+            builder.withStream(new ByteArrayInputStream(buffer, Math.min(start, end), length));
+            Content content = builder.build();
+            bulkContent.getItems().add(content);
+            listener.accept(content);
         }
-        builder = Content.builder();
-        baos.reset();
     }
 
+    /**
+     * A Boyer-Moore-Horspool search for a byte pattern.
+     */
+    static class Pattern {
+        private final byte[] pattern;
+        private final int[] shift = new int[256];
+
+        Pattern(byte[] pattern) {
+            this.pattern = pattern;
+            int last = pattern.length - 1;
+            for (int i = 0; i < shift.length; i++) {
+                shift[i] = pattern.length;
+            }
+            for (int i = 0; i < last; i++) {
+                shift[pattern[i] & 0xff] = last - i;
+            }
+        }
+
+        int length() {
+            return pattern.length;
+        }
 
+        /**
+         * @return the index of the first match starting from from, which ends before to, or -1
+         */
+        int indexOf(byte[] bytes, int from, int to) {
+            int last = pattern.length - 1;
+            int i = Math.max(0, from);
+            while (i + last < to) {
+                int j = last;
+                while (bytes[i + j] == pattern[j]) {
+                    if (j == 0) {
+                        return i;
+                    }
+                    j--;
+                }
+                i += shift[bytes[i + last] & 0xff];
+            }
+            return -1;
+        }
+    }
 }
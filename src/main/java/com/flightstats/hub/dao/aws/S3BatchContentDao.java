@@ -31,9 +31,11 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 @Singleton
@@ -46,6 +48,8 @@ public class S3BatchContentDao implements ContentDao {
 
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
+    private final long rangeGapBytes = HubProperties.getProperty("s3.batchRangeGapKB", 64) * 1024L;
+    private final long maxRangeBytes = HubProperties.getProperty("s3.batchMaxRangeMB", 16) * 1024L * 1024L;
     @Inject
     private AmazonS3 s3Client;
     @Inject
@@ -93,6 +97,13 @@ public class S3BatchContentDao implements ContentDao {
     private Content getS3Object(String channel, ContentKey key) throws IOException {
         logger.trace("S3BatchContentDao.getS3Object {} {}", channel, key);
         MinutePath minutePath = new MinutePath(key.getTime());
+        Map<String, long[]> ranges = getRanges(channel, minutePath);
+        if (ranges != null) {
+            List<Content> found = new ArrayList<>();
+            if (readRanges(channel, minutePath, Collections.singletonList(key), ranges, found::add)) {
+                return found.isEmpty() ? null : found.get(0);
+            }
+        }
         Content content = null;
         try (ZipInputStream zipStream = getZipInputStream(channel, minutePath)) {
             ZipEntry nextEntry = zipStream.getNextEntry();
@@ -135,12 +146,107 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Returns the [offset, length] of each item in the batch, or null if the index does not include them.
+     */
+    private Map<String, long[]> getRanges(String channel, ContentPathKeys minutePath) {
+        long start = System.currentTimeMillis();
+        try (S3Object object = s3Client.getObject(s3BucketName.getS3BucketName(), getS3BatchIndexKey(channel, minutePath))) {
+            JsonNode ranges = mapper.readTree(ByteStreams.toByteArray(object.getObjectContent())).get("ranges");
+            if (ranges == null) {
+                return null;
+            }
+            Map<String, long[]> map = new HashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = ranges.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                map.put(field.getKey(), new long[]{field.getValue().get(0).asLong(), field.getValue().get(1).asLong()});
+            }
+            return map;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                logger.warn("unable to get index " + channel + " " + minutePath, e);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to get index " + channel + " " + minutePath, e);
+        } finally {
+            metricsService.time(channel, "s3.get", start, "type:batch");
+        }
+        return null;
+    }
+
+    /**
+     * Reads the items for keys with ranged requests, coalescing items which are close together.
+     * Returns false if the ranges could not be read, so the caller can fall back to reading the whole batch.
+     */
+    private boolean readRanges(String channel, ContentPathKeys minutePath, Collection<ContentKey> keys,
+                               Map<String, long[]> ranges, Consumer<Content> callback) {
+        List<ContentKey> sorted = keys.stream()
+                .filter(key -> ranges.containsKey(key.toUrl()))
+                .sorted(Comparator.comparingLong(key -> ranges.get(key.toUrl())[0]))
+                .collect(Collectors.toList());
+        try {
+            int i = 0;
+            while (i < sorted.size()) {
+                long rangeStart = ranges.get(sorted.get(i).toUrl())[0];
+                long rangeEnd = rangeStart + ranges.get(sorted.get(i).toUrl())[1];
+                int j = i + 1;
+                while (j < sorted.size()) {
+                    long[] next = ranges.get(sorted.get(j).toUrl());
+                    if (next[0] - rangeEnd > rangeGapBytes || next[0] + next[1] - rangeStart > maxRangeBytes) {
+                        break;
+                    }
+                    rangeEnd = Math.max(rangeEnd, next[0] + next[1]);
+                    j++;
+                }
+                byte[] bytes = getRange(channel, minutePath, rangeStart, rangeEnd);
+                for (ContentKey key : sorted.subList(i, j)) {
+                    long[] range = ranges.get(key.toUrl());
+                    callback.accept(S3BatchZip.readEntry(key, bytes, (int) (range[0] - rangeStart), (int) range[1]));
+                }
+                i = j;
+            }
+            return true;
+        } catch (AmazonS3Exception e) {
+            logger.warn("AmazonS3Exception : unable to read ranges " + channel + " " + minutePath, e);
+        } catch (IOException e) {
+            logger.warn("unable to read ranges " + channel + " " + minutePath, e);
+        } finally {
+            ActiveTraces.getLocal().add("S3BatchContentDao.readRanges completed", sorted.size());
+        }
+        return false;
+    }
+
+    private byte[] getRange(String channel, ContentPathKeys minutePath, long start, long end) throws IOException {
+        long time = System.currentTimeMillis();
+        GetObjectRequest request = new GetObjectRequest(s3BucketName.getS3BucketName(), getS3BatchItemsKey(channel, minutePath))
+                .withRange(start, end - 1);
+        try (S3Object object = s3Client.getObject(request)) {
+            return ByteStreams.toByteArray(object.getObjectContent());
+        } finally {
+            metricsService.time(channel, "s3.get", time, end - start, "type:batchRange");
+        }
+    }
+
     @Override
     public boolean streamMinute(String channel, ContentPathKeys minutePath, Consumer<Content> callback) {
+        Set<ContentKey> delivered = new HashSet<>();
+        Map<String, long[]> ranges = getRanges(channel, minutePath);
+        if (ranges != null) {
+            Consumer<Content> rangeCallback = content -> {
+                callback.accept(content);
+                delivered.add(content.getContentKey().get());
+            };
+            if (readRanges(channel, minutePath, minutePath.getKeys(), ranges, rangeCallback)) {
+                return !delivered.isEmpty();
+            }
+        }
         Map<String, ContentKey> keyMap = new HashMap<>();
-        boolean found = false;
+        boolean found = !delivered.isEmpty();
         for (ContentKey key : minutePath.getKeys()) {
-            keyMap.put(key.toUrl(), key);
+            if (!delivered.contains(key)) {
+                keyMap.put(key.toUrl(), key);
+            }
         }
         try (ZipInputStream zipStream = getZipInputStream(channel, minutePath)) {
             ZipEntry nextEntry = zipStream.getNextEntry();
@@ -184,14 +290,23 @@ public class S3BatchContentDao implements ContentDao {
         DateTime rounded = query.getUnit().round(query.getStartTime());
         String channel = query.getChannelName();
         traces.add("S3BatchContentDao.queryHourPlus starting ", channel, rounded, query.getUnit());
-        ListObjectsRequest request = new ListObjectsRequest()
-                .withBucketName(s3BucketName.getS3BucketName())
-                .withPrefix(channel + BATCH_INDEX + query.getUnit().format(rounded))
-                .withMaxKeys(s3MaxQueryItems);
-        SortedSet<MinutePath> minutePaths = listMinutePaths(channel, request, traces, true);
-        for (MinutePath minutePath : minutePaths) {
-            getKeysForMinute(channel, minutePath, keys, traces);
+        DateTime end = rounded.plus(query.getUnit().getDuration()).minusMillis(1);
+        if (query.getUnit().equals(TimeUtil.Unit.MONTHS)) {
+            end = rounded.withDayOfMonth(1).plusMonths(1).minusMillis(1);
         }
+        SortedSet<MinutePath> minutePaths = new TreeSet<>();
+        S3ConcurrentQuery.run(S3ConcurrentQuery.getPrefixes(rounded, end), prefix -> {
+            ListObjectsRequest request = new ListObjectsRequest()
+                    .withBucketName(s3BucketName.getS3BucketName())
+                    .withPrefix(channel + BATCH_INDEX + prefix)
+                    .withMaxKeys(s3MaxQueryItems);
+            return listMinutePaths(channel, request, traces, true);
+        }, minutePaths::addAll, () -> false);
+        SortedSet<ContentKey> found = keys;
+        List<MinutePath> newestFirst = new ArrayList<>(minutePaths);
+        Collections.reverse(newestFirst);
+        S3ConcurrentQuery.run(newestFirst, minutePath -> getKeysForMinute(channel, minutePath, traces), found::addAll,
+                () -> query.getCount() > 0 && found.size() >= query.getCount());
         traces.add("S3BatchContentDao.queryHourPlus found keys", keys);
         return keys;
     }
@@ -214,6 +329,14 @@ public class S3BatchContentDao implements ContentDao {
         return keys;
     }
 
+    private List<ContentKey> getKeysForMinute(String channel, MinutePath minutePath, Traces traces) {
+        List<ContentKey> keys = new ArrayList<>();
+        getKeysForMinute(channel, minutePath, traces, item -> {
+            keys.add(ContentKey.fromUrl(item.asText()).get());
+        });
+        return keys;
+    }
+
     private void getKeysForMinute(String channel, MinutePath minutePath, SortedSet<ContentKey> keys, Traces traces) {
         getKeysForMinute(channel, minutePath, traces, item -> {
             keys.add(ContentKey.fromUrl(item.asText()).get());
@@ -282,19 +405,22 @@ public class S3BatchContentDao implements ContentDao {
             if (paths.isEmpty()) {
                 return keys;
             }
-            for (MinutePath path : paths) {
-                getKeysForMinute(channel, path, traces, item -> {
-                    ContentKey contentKey = ContentKey.fromUrl(item.asText()).get();
-                    if (contentKey.compareTo(query.getStartKey()) > 0
-                            && keys.size() < query.getCount()) {
-                        keys.add(contentKey);
-                    }
-                });
-                if (keys.size() >= query.getCount()) {
-                    break;
-                }
-                markerTime = path.getTime();
-            }
+            AtomicReference<DateTime> lastPath = new AtomicReference<>(markerTime);
+            S3ConcurrentQuery.run(new ArrayList<>(paths),
+                    path -> new AbstractMap.SimpleEntry<>(path, getKeysForMinute(channel, path, traces)),
+                    entry -> {
+                        for (ContentKey contentKey : entry.getValue()) {
+                            if (contentKey.compareTo(query.getStartKey()) > 0
+                                    && keys.size() < query.getCount()) {
+                                keys.add(contentKey);
+                            }
+                        }
+                        if (keys.size() < query.getCount()) {
+                            lastPath.set(entry.getKey().getTime());
+                        }
+                    },
+                    () -> keys.size() >= query.getCount());
+            markerTime = lastPath.get();
         } while (keys.size() < query.getCount() && markerTime.isBefore(endTime));
         return keys;
     }
@@ -360,7 +486,7 @@ public class S3BatchContentDao implements ContentDao {
         try {
             logger.debug("writing {} batch {} keys {} bytes {}", channel, path, keys.size(), bytes.length);
             writeBatchItems(channel, path, bytes);
-            writeBatchIndex(channel, path, keys);
+            writeBatchIndex(channel, path, keys, bytes);
         } catch (Exception e) {
             logger.warn("unable to write batch to S3 " + channel + " " + path, e);
             throw e;
@@ -369,7 +495,7 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
-    private void writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys) {
+    private void writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys, byte[] batch) {
         String batchIndexKey = getS3BatchIndexKey(channel, path);
         ObjectNode root = mapper.createObjectNode();
         root.put("id", path.toUrl());
@@ -377,6 +503,19 @@ public class S3BatchContentDao implements ContentDao {
         for (ContentKey key : keys) {
             items.add(key.toUrl());
         }
+        try {
+            Map<String, long[]> ranges = S3BatchZip.getRanges(batch);
+            ObjectNode rangesNode = root.putObject("ranges");
+            for (ContentKey key : keys) {
+                long[] range = ranges.get(key.toUrl());
+                if (range != null) {
+                    rangesNode.putArray(key.toUrl()).add(range[0]).add(range[1]);
+                }
+            }
+        } catch (ZipException e) {
+            logger.warn("unable to find ranges for " + channel + " " + path, e);
+            root.remove("ranges");
+        }
         String index = root.toString();
         logger.trace("index is {} {}", batchIndexKey, index);
         byte[] bytes = index.getBytes(StandardCharsets.UTF_8);
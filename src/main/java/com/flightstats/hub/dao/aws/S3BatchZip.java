@@ -0,0 +1,103 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Locates and reads entries within the zip files written for S3 batches, so single entries can be read
+ * with ranged requests instead of downloading the whole minute.
+ * <p>
+ * A range starts at an entry's local file header and ends after its compressed data.
+ */
+class S3BatchZip {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_LENGTH = 22;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final int LOCAL_LENGTH = 30;
+
+    /**
+     * @return the [offset, length] of each entry, by entry name
+     */
+    static Map<String, long[]> getRanges(byte[] zip) throws ZipException {
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(buffer);
+        int entries = buffer.getShort(end + 10) & 0xFFFF;
+        int position = buffer.getInt(end + 16);
+        Map<String, long[]> ranges = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            if (buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("invalid central directory header at " + position);
+            }
+            long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            int localOffset = buffer.getInt(position + 42);
+            String name = new String(zip, position + CENTRAL_LENGTH, nameLength, StandardCharsets.UTF_8);
+            if (buffer.getInt(localOffset) != LOCAL_SIGNATURE) {
+                throw new ZipException("invalid local header at " + localOffset);
+            }
+            int localHeader = LOCAL_LENGTH + (buffer.getShort(localOffset + 26) & 0xFFFF)
+                    + (buffer.getShort(localOffset + 28) & 0xFFFF);
+            ranges.put(name, new long[]{localOffset, localHeader + compressedSize});
+            position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+        }
+        return ranges;
+    }
+
+    private static int findEnd(ByteBuffer buffer) throws ZipException {
+        for (int position = buffer.limit() - END_LENGTH; position >= 0; position--) {
+            if (buffer.getInt(position) == END_SIGNATURE) {
+                return position;
+            }
+        }
+        throw new ZipException("end of central directory not found");
+    }
+
+    /**
+     * Reads the entry for key from bytes, where the entry's range starts at offset.
+     */
+    static Content readEntry(ContentKey key, byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(offset) != LOCAL_SIGNATURE) {
+            throw new ZipException("invalid local header for " + key);
+        }
+        int method = buffer.getShort(offset + 8) & 0xFFFF;
+        int nameLength = buffer.getShort(offset + 26) & 0xFFFF;
+        int extraLength = buffer.getShort(offset + 28) & 0xFFFF;
+        int dataOffset = offset + LOCAL_LENGTH + nameLength + extraLength;
+        Content.Builder builder = Content.builder().withContentKey(key);
+        String meta = new String(bytes, dataOffset - extraLength, extraLength);
+        ContentMarshaller.setMetaData(meta, builder);
+        InputStream data = new ByteArrayInputStream(bytes, dataOffset, offset + length - dataOffset);
+        if (method == ZipEntry.DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            try {
+                builder.withData(ByteStreams.toByteArray(new InflaterInputStream(data, inflater)));
+            } finally {
+                inflater.end();
+            }
+        } else {
+            builder.withData(ByteStreams.toByteArray(data));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,92 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.exception.FailedQueryException;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.Traces;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the parts of long S3 queries concurrently, such as listing each hour of a day, or reading each minute index.
+ * <p>
+ * Each query runs up to s3.queryConcurrency parts at once, and all queries share s3.queryThreads threads.
+ * Results are passed back on the calling thread in part order, so callers can stop early once they have enough.
+ */
+class S3ConcurrentQuery {
+
+    private static final int queryConcurrency = HubProperties.getProperty("s3.queryConcurrency", 8);
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(
+            HubProperties.getProperty("s3.queryThreads", 32),
+            new ThreadFactoryBuilder().setNameFormat("S3ConcurrentQuery-%d").build());
+
+    /**
+     * Applies function to each part, and passes the results to consumer in order.
+     * No more parts are started once done returns true.
+     */
+    static <P, R> void run(List<P> parts, Function<P, R> function, Consumer<R> consumer, BooleanSupplier done) {
+        Traces traces = ActiveTraces.getLocal();
+        Deque<Future<R>> inFlight = new ArrayDeque<>();
+        Iterator<P> iterator = parts.iterator();
+        try {
+            while (!done.getAsBoolean() && (iterator.hasNext() || !inFlight.isEmpty())) {
+                while (iterator.hasNext() && inFlight.size() < queryConcurrency) {
+                    P part = iterator.next();
+                    inFlight.add(executorService.submit(() -> {
+                        ActiveTraces.setLocal(traces);
+                        return function.apply(part);
+                    }));
+                }
+                consumer.accept(inFlight.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            throw new FailedQueryException("unable to complete query " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<R> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the time path prefixes which cover start through end, newest first.
+     * Spans of up to two days use hours, up to two months use days, and longer spans use months.
+     */
+    static List<String> getPrefixes(DateTime start, DateTime end) {
+        TimeUtil.Unit unit = TimeUtil.Unit.MONTHS;
+        if (end.isBefore(start)) {
+            end = start;
+        }
+        long hours = new Duration(start, end).getStandardHours();
+        if (hours <= 48) {
+            unit = TimeUtil.Unit.HOURS;
+        } else if (hours <= 62 * 24) {
+            unit = TimeUtil.Unit.DAYS;
+        }
+        List<String> prefixes = new ArrayList<>();
+        DateTime time = end;
+        String last = unit.format(start);
+        String prefix = unit.format(time);
+        prefixes.add(prefix);
+        while (!prefix.equals(last)) {
+            time = unit.equals(TimeUtil.Unit.MONTHS) ? time.minusMonths(1) : time.minus(unit.getDuration());
+            prefix = unit.format(time);
+            prefixes.add(prefix);
+        }
+        return prefixes;
+    }
+}
@@ -1,5 +1,6 @@
 package com.flightstats.hub.dao.aws;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.S3ResponseMetadata;
 import com.amazonaws.services.s3.model.*;
@@ -12,9 +13,11 @@ import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.DirectionQuery;
 import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.ChunkInputStream;
 import com.flightstats.hub.util.ChunkOutputStream;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.apache.commons.io.IOUtils;
@@ -22,11 +25,12 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @SuppressWarnings("Duplicates")
 @Singleton
@@ -34,7 +38,11 @@ public class S3LargeContentDao implements ContentDao {
 
     private final static Logger logger = LoggerFactory.getLogger(S3LargeContentDao.class);
 
+    private static final ExecutorService readService = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("S3LargeContentDao-%d").setDaemon(true).build());
+
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
+    private final int readThreads = HubProperties.getProperty("s3.large.readThreads", 3);
 
     @Inject
     private MetricsService metricsService;
@@ -77,6 +85,7 @@ public class S3LargeContentDao implements ContentDao {
         String name = s3BucketName.getS3BucketName();
         String uploadId = "";
         boolean completed = false;
+        ChunkOutputStream outputStream = null;
         try {
             ObjectMetadata metadata = new ObjectMetadata();
             if (content.getContentType().isPresent()) {
@@ -91,21 +100,24 @@ public class S3LargeContentDao implements ContentDao {
             InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(name, s3Key, metadata);
             InitiateMultipartUploadResult initResponse = s3Client.initiateMultipartUpload(initRequest);
             uploadId = initResponse.getUploadId();
-            ChunkOutputStream outputStream = new ChunkOutputStream(content.getThreads(), chunk -> {
+            outputStream = new ChunkOutputStream(content.getThreads(), chunk -> {
                 try {
-                    byte[] bytes = chunk.getBytes();
-                    logger.info("got bytes {} {}", s3Key, bytes.length);
-                    ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+                    long partStart = System.currentTimeMillis();
+                    int size = chunk.getSize();
+                    logger.info("got bytes {} {}", s3Key, size);
                     UploadPartRequest uploadRequest = new UploadPartRequest()
                             .withBucketName(name)
                             .withKey(s3Key)
                             .withUploadId(initResponse.getUploadId())
                             .withPartNumber(chunk.getCount())
-                            .withInputStream(bais)
-                            .withPartSize(bytes.length);
+                            .withInputStream(chunk.getStream())
+                            .withPartSize(size);
                     UploadPartResult uploadPart = s3Client.uploadPart(uploadRequest);
                     partETags.add(uploadPart.getPartETag());
-                    logger.info("wrote chunk {} {} {}", s3Key, chunk.getCount(), bytes.length);
+                    long millis = Math.max(1, System.currentTimeMillis() - partStart);
+                    logger.info("wrote chunk {} {} {} in {} ms", s3Key, chunk.getCount(), size, millis);
+                    metricsService.time(channelName, "s3.put.part", partStart, size, "type:large");
+                    metricsService.gauge("s3.put.part.bytesPerSecond", size * 1000.0 / millis, "channel:" + channelName);
                     return "ok";
                 } catch (Exception e) {
                     logger.warn("what happened POST to " + channelName + " for chunk " + chunk.getCount(), e);
@@ -115,7 +127,7 @@ public class S3LargeContentDao implements ContentDao {
 
             InputStream stream = content.getStream();
             long copied = IOUtils.copyLarge(stream, outputStream);
-            ActiveTraces.getLocal().add("S3LargeContentDao.write processed", copied);
+            ActiveTraces.getLocal().add("S3LargeContentDao.write processed", copied, outputStream.getWaitMillis());
             logger.info("before complete key {} with {} parts", s3Key, partETags.size());
             outputStream.close();
             CompleteMultipartUploadRequest compRequest = new CompleteMultipartUploadRequest(name, s3Key, uploadId, partETags);
@@ -134,6 +146,9 @@ public class S3LargeContentDao implements ContentDao {
         } catch (Exception e) {
             logger.warn("unable to write large item to S3 " + channelName + " " + key, e);
             ActiveTraces.getLocal().add("S3LargeContentDao.error ", e.getMessage());
+            if (outputStream != null) {
+                outputStream.abort();
+            }
             if (StringUtils.isNotBlank(uploadId)) {
                 if (completed) {
                     logger.warn("deleting multipart " + channelName + " " + key, e);
@@ -191,11 +206,15 @@ public class S3LargeContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Items with more than one part are read with concurrent ranged GETs, s3.large.readThreads parts at a time.
+     */
     private Content getS3Object(String channelName, ContentKey key) throws IOException {
         long start = System.currentTimeMillis();
+        String name = s3BucketName.getS3BucketName();
+        String s3Key = getS3ContentKey(channelName, key);
         try {
-            S3Object object = s3Client.getObject(s3BucketName.getS3BucketName(), getS3ContentKey(channelName, key));
-            ObjectMetadata metadata = object.getObjectMetadata();
+            ObjectMetadata metadata = s3Client.getObjectMetadata(name, s3Key);
             Map<String, String> userData = metadata.getUserMetadata();
             /*if (userData.containsKey("compressed")) {
                 //todo - gfm -
@@ -206,7 +225,13 @@ public class S3LargeContentDao implements ContentDao {
                 builder.withContentType(type);
             }
             builder.withContentKey(key);
-            builder.withStream(object.getObjectContent());
+            long length = metadata.getContentLength();
+            if (readThreads > 1 && ChunkInputStream.isChunked(length)) {
+                builder.withStream(new ChunkInputStream(length, readThreads, readService,
+                        (offset, bytes, size) -> readRange(name, s3Key, offset, bytes, size)));
+            } else {
+                builder.withStream(s3Client.getObject(name, s3Key).getObjectContent());
+            }
             return builder.build();
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() != 404) {
@@ -218,6 +243,18 @@ public class S3LargeContentDao implements ContentDao {
         }
     }
 
+    private void readRange(String name, String s3Key, long offset, byte[] bytes, int length) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(name, s3Key).withRange(offset, offset + length - 1);
+        try (S3Object object = s3Client.getObject(request)) {
+            IOUtils.readFully(object.getObjectContent(), bytes, 0, length);
+        } catch (IOException | AmazonClientException e) {
+            logger.info("retrying range {} {} of {} {}", offset, length, s3Key, e.getMessage());
+            try (S3Object object = s3Client.getObject(request)) {
+                IOUtils.readFully(object.getObjectContent(), bytes, 0, length);
+            }
+        }
+    }
+
     @Override
     public SortedSet<ContentKey> queryByTime(TimeQuery query) {
         throw new UnsupportedOperationException("the large dao only deals with large objects, queries are tracked using the small dao");
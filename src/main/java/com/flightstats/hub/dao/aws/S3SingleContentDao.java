@@ -172,6 +172,11 @@ public class S3SingleContentDao implements ContentDao {
         Traces traces = ActiveTraces.getLocal();
         traces.add("S3SingleContentDao.queryByTime", query);
         String timePath = query.getUnit().format(query.getStartTime());
+        if (query.getLimitKey() != null || !query.getUnit().lessThanOrEqual(TimeUtil.Unit.HOURS)) {
+            SortedSet<ContentKey> keys = queryConcurrently(query);
+            traces.add("S3SingleContentDao.queryByTime completed", keys);
+            return keys;
+        }
         ListObjectsRequest request = new ListObjectsRequest()
                 .withBucketName(s3BucketName.getS3BucketName())
                 .withMaxKeys(s3MaxQueryItems);
@@ -187,6 +192,47 @@ public class S3SingleContentDao implements ContentDao {
         return keys;
     }
 
+    /**
+     * Lists the hours, days or months within the query concurrently, newest first,
+     * and stops once a query with a count has enough keys.
+     */
+    private SortedSet<ContentKey> queryConcurrently(TimeQuery query) {
+        String channel = query.getChannelName();
+        ContentKey limitKey = query.getLimitKey();
+        if (limitKey == null) {
+            limitKey = ContentKey.lastKey(query.getStartTime().plus(query.getUnit().getDuration()));
+        }
+        ContentKeySet keys = new ContentKeySet(query.getCount(), limitKey);
+        List<String> prefixes = S3ConcurrentQuery.getPrefixes(query.getUnit().round(query.getStartTime()), limitKey.getTime());
+        ActiveTraces.getLocal().add("S3SingleContentDao.queryConcurrently", prefixes.size());
+        S3ConcurrentQuery.run(prefixes, prefix -> listPrefix(channel, prefix), keys::addAll,
+                () -> query.getCount() > 0 && keys.size() >= query.getCount());
+        return keys;
+    }
+
+    private List<ContentKey> listPrefix(String channel, String timePath) {
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName.getS3BucketName())
+                .withPrefix(channel + "/" + timePath)
+                .withMaxKeys(s3MaxQueryItems);
+        List<ContentKey> keys = new ArrayList<>();
+        ObjectListing listing;
+        do {
+            listing = getObjectListing(request, channel);
+            List<S3ObjectSummary> summaries = listing.getObjectSummaries();
+            for (S3ObjectSummary summary : summaries) {
+                Optional<ContentKey> contentKey = ContentKey.fromUrl(StringUtils.substringAfter(summary.getKey(), channel + "/"));
+                if (contentKey.isPresent()) {
+                    keys.add(contentKey.get());
+                }
+            }
+            if (!summaries.isEmpty()) {
+                request.withMarker(summaries.get(summaries.size() - 1).getKey());
+            }
+        } while (listing.isTruncated() && keys.size() < MAX_ITEMS);
+        return keys;
+    }
+
     private SortedSet<ContentKey> iterateListObjects(String channel, ListObjectsRequest request,
                                                      int maxItems, int count, ContentKey limitKey) {
         Traces traces = ActiveTraces.getLocal();
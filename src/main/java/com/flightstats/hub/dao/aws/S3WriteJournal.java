@@ -0,0 +1,369 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An append only journal of the keys waiting to be written to S3, so S3WriteQueue survives restarts.
+ * <p>
+ * Keys are appended as lines of "millis channel/name/key" to numbered segment files, and read back in order
+ * by a single reader.  A segment is deleted once it has been rolled, fully read, and every key read from it
+ * has been acknowledged.  Segments left by a previous process are read again from the start.
+ * <p>
+ * Appends are buffered and written together, either when the reader has caught up or by flush().
+ * Only sync() forces them to disk, so a crash loses the keys appended since the last sync().
+ */
+class S3WriteJournal {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3WriteJournal.class);
+    private static final String SUFFIX = ".journal";
+    private static final int READ_BYTES = 64 * 1024;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final ConcurrentSkipListMap<Long, Long> unacked = new ConcurrentSkipListMap<>();
+    private final Deque<Record> readAhead = new ArrayDeque<>();
+    private final List<Segment> completed = new ArrayList<>();
+    private Segment writing;
+    private FileOutputStream file;
+    private OutputStream output;
+    private final Deque<Long> unread = new ArrayDeque<>();
+    private long replaying;
+    private long replayedWritten;
+    private long buffered;
+    private RandomAccessFile input;
+    private long sequence;
+    private long depth;
+
+    S3WriteJournal(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        long next = 0;
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                Segment segment = new Segment(file, Long.parseLong(StringUtils.removeEnd(file.getName(), SUFFIX)));
+                segment.length = file.length();
+                segment.sealed = true;
+                if (segments.isEmpty()) {
+                    replayedWritten = firstWritten(file);
+                }
+                depth += countLines(file);
+                segments.add(segment);
+                next = segment.number + 1;
+            }
+        }
+        replaying = depth;
+        if (!segments.isEmpty()) {
+            logger.info("replaying {} keys from {} segments in {}", depth, segments.size(), directory);
+        }
+        roll(next);
+    }
+
+    /**
+     * Waits up to timeoutMillis for the depth to be less than maxDepth, then appends key either way.
+     * An interrupt ends the wait, and is left set on the thread.
+     *
+     * @return false if the depth was still at least maxDepth
+     */
+    synchronized boolean append(ChannelContentKey key, long maxDepth, long timeoutMillis) throws IOException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        boolean under = true;
+        try {
+            while (depth >= maxDepth) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    under = false;
+                    break;
+                }
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            under = depth < maxDepth;
+        }
+        append(key);
+        return under;
+    }
+
+    synchronized void append(ChannelContentKey key) throws IOException {
+        long now = System.currentTimeMillis();
+        byte[] line = (now + " " + key.toUrl() + "\n").getBytes(StandardCharsets.UTF_8);
+        output.write(line);
+        buffered += line.length;
+        unread.add(now);
+        depth++;
+        if (writing.length + buffered >= segmentBytes) {
+            roll(writing.number + 1);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes buffered appends, so the reader can see them.
+     */
+    synchronized void flush() throws IOException {
+        if (buffered > 0) {
+            output.flush();
+            writing.length += buffered;
+            buffered = 0;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes buffered appends, and forces them to disk.
+     */
+    synchronized void sync() throws IOException {
+        flush();
+        file.getChannel().force(false);
+    }
+
+    /**
+     * Returns the next key, waiting up to timeoutMillis for one to be appended.
+     *
+     * @return null if no key is available
+     */
+    synchronized Record next(long timeoutMillis) throws IOException, InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (readAhead.isEmpty()) {
+            if (readSegment()) {
+                continue;
+            }
+            if (buffered > 0) {
+                flush();
+                continue;
+            }
+            long wait = end - System.currentTimeMillis();
+            if (wait <= 0) {
+                return null;
+            }
+            wait(wait);
+        }
+        Record record = readAhead.removeFirst();
+        unacked.put(record.sequence, record.written);
+        return record;
+    }
+
+    /**
+     * Acknowledges a key returned by next(), whether or not it was written.
+     */
+    synchronized void ack(Record record) {
+        unacked.remove(record.sequence);
+        record.segment.acked++;
+        depth--;
+        deleteCompleted();
+        notifyAll();
+    }
+
+    /**
+     * The number of keys appended or replayed, and not yet acknowledged.
+     */
+    synchronized long getDepth() {
+        return depth;
+    }
+
+    /**
+     * The age in millis of the oldest key which has been appended or replayed, and not yet acknowledged.
+     */
+    synchronized long getOldestAge() {
+        long oldest = Long.MAX_VALUE;
+        Map.Entry<Long, Long> first = unacked.firstEntry();
+        if (first != null) {
+            oldest = first.getValue();
+        }
+        if (!readAhead.isEmpty()) {
+            oldest = Math.min(oldest, readAhead.peekFirst().written);
+        } else if (replaying > 0) {
+            oldest = Math.min(oldest, replayedWritten);
+        } else if (!unread.isEmpty()) {
+            oldest = Math.min(oldest, unread.peekFirst());
+        }
+        if (oldest == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    synchronized void close() throws IOException {
+        sync();
+        output.close();
+        if (input != null) {
+            input.close();
+        }
+    }
+
+    private boolean readSegment() throws IOException {
+        Segment segment = segments.peekFirst();
+        while (segment != null && segment.read >= segment.length) {
+            if (!segment.sealed) {
+                return false;
+            }
+            segments.removeFirst();
+            segment.readFully = true;
+            closeInput();
+            deleteCompleted(segment);
+            segment = segments.peekFirst();
+        }
+        if (segment == null) {
+            return false;
+        }
+        if (input == null) {
+            input = new RandomAccessFile(segment.file, "r");
+            input.seek(segment.read);
+        }
+        byte[] bytes = new byte[(int) Math.min(READ_BYTES, segment.length - segment.read)];
+        input.readFully(bytes);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                readRecord(segment, new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start == 0) {
+            if (!segment.sealed) {
+                return false;
+            }
+            logger.warn("skipping partial line at the end of {}", segment.file);
+            start = bytes.length;
+        }
+        segment.read += start;
+        input.seek(segment.read);
+        return true;
+    }
+
+    private void readRecord(Segment segment, String line) {
+        if (replaying > 0) {
+            replaying--;
+        } else {
+            unread.poll();
+        }
+        try {
+            long written = Long.parseLong(StringUtils.substringBefore(line, " "));
+            if (replaying > 0) {
+                replayedWritten = written;
+            }
+            ChannelContentKey key = ChannelContentKey.fromUrl(StringUtils.substringAfter(line, " "));
+            segment.records++;
+            readAhead.add(new Record(key, written, sequence++, segment));
+        } catch (RuntimeException e) {
+            logger.warn("skipping invalid line in {}: {}", segment.file, line);
+            depth--;
+        }
+    }
+
+    private void roll(long number) throws IOException {
+        if (output != null) {
+            sync();
+            output.close();
+            writing.sealed = true;
+        }
+        writing = new Segment(new File(directory, String.format("%016d", number) + SUFFIX), number);
+        file = new FileOutputStream(writing.file, true);
+        output = new BufferedOutputStream(file);
+        segments.add(writing);
+    }
+
+    private void closeInput() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    private void deleteCompleted() {
+        for (Iterator<Segment> iterator = completed.iterator(); iterator.hasNext(); ) {
+            if (deleteIfDone(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void deleteCompleted(Segment segment) {
+        if (!deleteIfDone(segment)) {
+            completed.add(segment);
+        }
+    }
+
+    private boolean deleteIfDone(Segment segment) {
+        if (segment.readFully && segment.acked >= segment.records) {
+            if (!segment.file.delete()) {
+                logger.warn("unable to delete {}", segment.file);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long firstWritten(File file) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            return Long.parseLong(StringUtils.substringBefore(reader.readLine(), " "));
+        } catch (IOException | RuntimeException e) {
+            return file.lastModified();
+        }
+    }
+
+    private static long countLines(File file) throws IOException {
+        long lines = 0;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            int read;
+            while ((read = stream.read()) != -1) {
+                if (read == '\n') {
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    static class Record {
+        private final ChannelContentKey key;
+        private final long written;
+        private final long sequence;
+        private final Segment segment;
+
+        private Record(ChannelContentKey key, long written, long sequence, Segment segment) {
+            this.key = key;
+            this.written = written;
+            this.sequence = sequence;
+            this.segment = segment;
+        }
+
+        ChannelContentKey getKey() {
+            return key;
+        }
+
+        long getWritten() {
+            return written;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long number;
+        private long length;
+        private long read;
+        private boolean sealed;
+        private boolean readFully;
+        private long records;
+        private long acked;
+
+        private Segment(File file, long number) {
+            this.file = file;
+            this.number = number;
+        }
+    }
+}
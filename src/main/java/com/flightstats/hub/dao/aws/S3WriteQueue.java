@@ -5,8 +5,10 @@ import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.exception.FailedReadException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.util.Sleeper;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
@@ -19,8 +21,22 @@ import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
+/**
+ * Writes items from Spoke to S3 in the background.
+ * <p>
+ * Keys are journaled to disk under s3.writeQueuePath, so they survive restarts.  The journal is forced to disk
+ * every s3.writeQueueSyncMillis, and keys lost in a crash before then are found later by S3Verifier.
+ * s3.writeQueueSize is a soft limit.  Once that many keys are waiting, add() blocks for up to
+ * s3.writeQueueBlockMillis and journals the key anyway, and s3.writeQueueExtraThreads more writers help drain the queue.
+ * Keys for the same channel added within s3.writeQueueLingerMillis are grouped, so each batch is read
+ * from Spoke with one request.
+ */
 @SuppressWarnings("WeakerAccess")
 @Singleton
 public class S3WriteQueue {
@@ -28,25 +44,57 @@ public class S3WriteQueue {
     private final static Logger logger = LoggerFactory.getLogger(S3WriteQueue.class);
 
     private static final int THREADS = HubProperties.getProperty("s3.writeQueueThreads", 20);
+    private static final int MAX_DEPTH = HubProperties.getProperty("s3.writeQueueSize", 40000);
+    private static final int EXTRA_THREADS = HubProperties.getProperty("s3.writeQueueExtraThreads", THREADS / 2);
+    private static final long BLOCK_MILLIS = HubProperties.getProperty("s3.writeQueueBlockMillis", 100);
+    private static final long SYNC_MILLIS = HubProperties.getProperty("s3.writeQueueSyncMillis", 100);
+    private static final long LINGER_MILLIS = HubProperties.getProperty("s3.writeQueueLingerMillis", 100);
+    private static final int BATCH_ITEMS = HubProperties.getProperty("s3.writeQueueBatchItems", 50);
     private Retryer<Void> retryer = buildRetryer();
-    private BlockingQueue<ChannelContentKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
-    private ExecutorService executorService = Executors.newFixedThreadPool(THREADS,
+    private BlockingQueue<List<S3WriteJournal.Record>> batches = new LinkedBlockingQueue<>(THREADS * 2);
+    private ExecutorService executorService = Executors.newFixedThreadPool(THREADS + EXTRA_THREADS + 1,
             new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
+    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-scheduler-%d").setDaemon(true).build());
+    private final S3WriteJournal journal;
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
     @Inject
     @Named(ContentDao.SINGLE_LONG_TERM)
     private ContentDao s3SingleContentDao;
-
+    @Inject
+    private MetricsService metricsService;
 
     @Inject
-    private S3WriteQueue() throws InterruptedException {
-        for (int i = 0; i < THREADS; i++) {
+    private S3WriteQueue() throws IOException {
+        String path = HubProperties.getProperty("s3.writeQueuePath", HubProperties.getSpokePath() + "/.s3WriteQueue");
+        journal = new S3WriteJournal(new File(path), HubProperties.getProperty("s3.writeQueueSegmentMB", 8) * 1024L * 1024L);
+        scheduler.scheduleWithFixedDelay(this::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            metricsService.gauge("s3.writeQueue.depth", journal.getDepth());
+            metricsService.gauge("s3.writeQueue.age", journal.getOldestAge());
+        }, 1, 1, TimeUnit.SECONDS);
+        executorService.submit(() -> {
+            try {
+                while (true) {
+                    group();
+                }
+            } catch (Exception e) {
+                logger.warn("exited group thread", e);
+                return null;
+            }
+        });
+        for (int i = 0; i < THREADS + EXTRA_THREADS; i++) {
+            boolean extra = i >= THREADS;
             executorService.submit(() -> {
                 try {
                     while (true) {
-                        write();
+                        if (extra && journal.getDepth() < MAX_DEPTH) {
+                            Sleeper.sleep(1000);
+                        } else {
+                            write();
+                        }
                     }
                 } catch (Exception e) {
                     logger.warn("exited thread", e);
@@ -56,54 +104,124 @@ public class S3WriteQueue {
         }
     }
 
+    /**
+     * Reads keys from the journal, and hands them to the writers grouped by channel.
+     */
+    private void group() throws IOException, InterruptedException {
+        S3WriteJournal.Record first = journal.next(5000);
+        if (first == null) {
+            return;
+        }
+        Map<String, List<S3WriteJournal.Record>> channels = new LinkedHashMap<>();
+        channels.computeIfAbsent(first.getKey().getChannel(), name -> new ArrayList<>()).add(first);
+        long end = System.currentTimeMillis() + LINGER_MILLIS;
+        for (int i = 1; i < BATCH_ITEMS; i++) {
+            S3WriteJournal.Record record = journal.next(Math.max(0, end - System.currentTimeMillis()));
+            if (record == null) {
+                break;
+            }
+            channels.computeIfAbsent(record.getKey().getChannel(), name -> new ArrayList<>()).add(record);
+        }
+        for (List<S3WriteJournal.Record> batch : channels.values()) {
+            batches.put(batch);
+        }
+    }
+
     private void write() throws InterruptedException {
+        List<S3WriteJournal.Record> batch = batches.poll(5, TimeUnit.SECONDS);
+        if (batch == null) {
+            return;
+        }
+        String channel = batch.get(0).getKey().getChannel();
+        ActiveTraces.start("S3WriteQueue.write", channel, batch.size());
         try {
-            ChannelContentKey key = keys.poll(5, TimeUnit.SECONDS);
-            retryer.call(() -> {
-                writeContent(key);
-                return null;
-            });
-        } catch (Exception e) {
-            logger.warn("unable to call s3", e);
+            Map<ContentKey, Content> contents = read(channel, batch);
+            for (S3WriteJournal.Record record : batch) {
+                ChannelContentKey key = record.getKey();
+                try {
+                    retryer.call(() -> {
+                        writeContent(key, contents.remove(key.getContentKey()));
+                        return null;
+                    });
+                } catch (Exception e) {
+                    logger.warn("unable to call s3 " + key, e);
+                } finally {
+                    journal.ack(record);
+                }
+            }
+        } finally {
+            ActiveTraces.end();
         }
     }
 
-    private void writeContent(ChannelContentKey key) throws Exception {
-        if (key != null) {
-            ActiveTraces.start("S3WriteQueue.writeContent", key);
+    private Map<ContentKey, Content> read(String channel, List<S3WriteJournal.Record> batch) {
+        Map<ContentKey, Content> contents = new HashMap<>();
+        if (batch.size() > 1) {
+            List<ContentKey> keys = batch.stream()
+                    .map(record -> record.getKey().getContentKey())
+                    .collect(Collectors.toList());
             try {
-                logger.trace("writing {}", key.getContentKey());
-                Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
-                content.packageStream();
-                if (content.getData() == null) {
-                    throw new FailedReadException("unable to read " + key.toString());
-                }
-                s3SingleContentDao.insert(key.getChannel(), content);
-            } finally {
-                ActiveTraces.end();
+                contents.putAll(spokeContentDao.get(channel, keys));
+            } catch (Exception e) {
+                logger.info("unable to read batch " + channel, e);
             }
         }
+        return contents;
     }
 
+    private void writeContent(ChannelContentKey key, Content content) throws Exception {
+        logger.trace("writing {}", key.getContentKey());
+        if (content == null) {
+            content = spokeContentDao.get(key.getChannel(), key.getContentKey());
+        }
+        content.packageStream();
+        if (content.getData() == null) {
+            throw new FailedReadException("unable to read " + key.toString());
+        }
+        s3SingleContentDao.insert(key.getChannel(), content);
+    }
+
+    private void sync() {
+        try {
+            journal.sync();
+        } catch (Exception e) {
+            logger.warn("unable to sync journal", e);
+        }
+    }
+
+    /**
+     * Called after the item is written to Spoke, so this never fails the insert.
+     * A key which can not be journaled is left for S3Verifier.
+     */
     public void add(ChannelContentKey key) {
-        boolean value = keys.offer(key);
-        if (!value) {
-            logger.warn("Add to queue failed - out of queue space. key= {}", key);
+        try {
+            if (!journal.append(key, MAX_DEPTH, BLOCK_MILLIS)) {
+                metricsService.count("s3.writeQueue.blocked", 1);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to journal key " + key, e);
+            metricsService.count("s3.writeQueue.failed", 1);
         }
     }
 
     public void close() {
         int count = 0;
-        while (keys.size() > 0) {
+        while (journal.getDepth() > 0) {
             count++;
-            logger.info("waiting for keys {}", keys.size());
+            logger.info("waiting for keys {}", journal.getDepth());
             if (count >= 60) {
-                logger.warn("waited too long for keys {}", keys.size());
-                return;
+                logger.warn("waited too long for keys {}", journal.getDepth());
+                break;
             }
             Sleeper.sleepQuietly(1000);
         }
         executorService.shutdown();
+        scheduler.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("unable to close journal", e);
+        }
     }
 
     private Retryer<Void> buildRetryer() {
@@ -1,21 +1,28 @@
 package com.flightstats.hub.dao.file;
 
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
 import com.flightstats.hub.dao.ContentKeyUtil;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.dao.ContentService;
 import com.flightstats.hub.exception.FailedWriteException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.spoke.FileSpokeStore;
+import com.flightstats.hub.spoke.SpokeBuffers;
+import com.flightstats.hub.spoke.SpokeKeyOutput;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.inject.Inject;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.function.Consumer;
 
@@ -27,6 +34,10 @@ public class SingleContentService implements ContentService {
     private final static Logger logger = LoggerFactory.getLogger(SingleContentService.class);
 
     private final FileSpokeStore fileSpokeStore;
+    @Inject
+    private MetricsService metricsService;
+    @Inject
+    private ChannelKeyNotifier channelKeyNotifier;
 
     public SingleContentService() {
         String contentPath = FileUtil.getContentPath();
@@ -41,6 +52,7 @@ public class SingleContentService implements ContentService {
         if (!fileSpokeStore.insert(path, content.getData())) {
             throw new FailedWriteException("unable to write to file syste, " + path);
         }
+        channelKeyNotifier.notifyInsert(channelName, key);
         return key;
     }
 
@@ -69,13 +81,15 @@ public class SingleContentService implements ContentService {
     @Override
     public Optional<Content> get(String channelName, ContentKey key) {
         String path = getPath(channelName, key);
+        ByteBuffer buffer = null;
         try {
-            byte[] bytes = fileSpokeStore.read(path);
-            if (null != bytes) {
-                return Optional.of(ContentMarshaller.toContent(bytes, key));
-            }
+            buffer = fileSpokeStore.readBuffer(path);
+            metricsService.count("spoke.payload.bytes", buffer.remaining(), SpokeBuffers.getSource(buffer));
+            return Optional.of(ContentMarshaller.toContent(new ByteBufferBackedInputStream(buffer), key));
         } catch (Exception e) {
             logger.warn("unable to get data: " + path, e);
+        } finally {
+            SpokeBuffers.done(buffer);
         }
         return Optional.absent();
     }
@@ -142,7 +156,7 @@ public class SingleContentService implements ContentService {
     private void handleNext(DirectionQuery query, Set<ContentKey> keys) {
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            fileSpokeStore.getNext(query.getChannelName(), query.getStartKey().toUrl(), query.getCount(), baos);
+            fileSpokeStore.getNext(query.getChannelName(), query.getStartKey().toUrl(), query.getCount(), SpokeKeyOutput.text(baos));
             String keyString = baos.toString();
             ContentKeyUtil.convertKeyStrings(keyString, keys);
         } catch (IOException e) {
@@ -4,4 +4,8 @@ public class FailedQueryException extends RuntimeException {
     public FailedQueryException(String message) {
         super(message);
     }
+
+    public FailedQueryException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -49,10 +49,11 @@ public class ChannelConfig implements Serializable, NamedType {
     boolean protect;
     DateTime mutableTime;
     boolean allowZeroBytes;
+    String codec;
 
     private ChannelConfig(String name, String owner, Date creationDate, long ttlDays, long maxItems, String description,
                           Set<String> tags, String replicationSource, String storage, GlobalConfig global,
-                          boolean protect, DateTime mutableTime, boolean allowZeroBytes) {
+                          boolean protect, DateTime mutableTime, boolean allowZeroBytes, String codec) {
         this.name = StringUtils.trim(name);
         this.owner = StringUtils.trim(owner);
         this.creationDate = creationDate;
@@ -61,6 +62,7 @@ public class ChannelConfig implements Serializable, NamedType {
         this.replicationSource = replicationSource;
         this.mutableTime = mutableTime;
         this.allowZeroBytes = allowZeroBytes;
+        this.codec = StringUtils.upperCase(StringUtils.trimToEmpty(codec));
         if (maxItems == 0 && ttlDays == 0 && mutableTime == null) {
             this.ttlDays = 120;
             this.maxItems = 0;
@@ -137,6 +139,7 @@ public class ChannelConfig implements Serializable, NamedType {
             builder.mutableTime(HubDateTimeTypeAdapter.deserialize(rootNode.get("mutableTime").asText()));
         }
         if (rootNode.has("allowZeroBytes")) builder.allowZeroBytes(rootNode.get("allowZeroBytes").asBoolean());
+        if (rootNode.has("codec")) builder.codec(getString(rootNode.get("codec")));
         return builder.build();
     }
 
@@ -266,6 +269,13 @@ public class ChannelConfig implements Serializable, NamedType {
         return this.allowZeroBytes;
     }
 
+    /**
+     * @return the PayloadCodec name for this channel, or empty for the hub's default
+     */
+    public String getCodec() {
+        return this.codec;
+    }
+
     public boolean equals(Object o) {
         if (o == this) return true;
         if (!(o instanceof ChannelConfig)) return false;
@@ -305,6 +315,9 @@ public class ChannelConfig implements Serializable, NamedType {
         if (this$mutableTime == null ? other$mutableTime != null : !this$mutableTime.equals(other$mutableTime))
             return false;
         if (this.isAllowZeroBytes() != other.isAllowZeroBytes()) return false;
+        final Object this$codec = this.getCodec();
+        final Object other$codec = other.getCodec();
+        if (this$codec == null ? other$codec != null : !this$codec.equals(other$codec)) return false;
         return true;
     }
 
@@ -335,11 +348,13 @@ public class ChannelConfig implements Serializable, NamedType {
         final Object $mutableTime = this.getMutableTime();
         result = result * PRIME + ($mutableTime == null ? 43 : $mutableTime.hashCode());
         result = result * PRIME + (this.isAllowZeroBytes() ? 79 : 97);
+        final Object $codec = this.getCodec();
+        result = result * PRIME + ($codec == null ? 43 : $codec.hashCode());
         return result;
     }
 
     public String toString() {
-        return "com.flightstats.hub.model.ChannelConfig(name=" + this.getName() + ", owner=" + this.getOwner() + ", creationDate=" + this.getCreationDate() + ", ttlDays=" + this.getTtlDays() + ", maxItems=" + this.getMaxItems() + ", description=" + this.getDescription() + ", tags=" + this.getTags() + ", replicationSource=" + this.getReplicationSource() + ", storage=" + this.getStorage() + ", global=" + this.getGlobal() + ", protect=" + this.isProtect() + ", mutableTime=" + this.getMutableTime() + ", allowZeroBytes=" + this.isAllowZeroBytes() + ")";
+        return "com.flightstats.hub.model.ChannelConfig(name=" + this.getName() + ", owner=" + this.getOwner() + ", creationDate=" + this.getCreationDate() + ", ttlDays=" + this.getTtlDays() + ", maxItems=" + this.getMaxItems() + ", description=" + this.getDescription() + ", tags=" + this.getTags() + ", replicationSource=" + this.getReplicationSource() + ", storage=" + this.getStorage() + ", global=" + this.getGlobal() + ", protect=" + this.isProtect() + ", mutableTime=" + this.getMutableTime() + ", allowZeroBytes=" + this.isAllowZeroBytes() + ", codec=" + this.getCodec() + ")";
     }
 
     public ChannelConfigBuilder toBuilder() {
@@ -356,6 +371,7 @@ public class ChannelConfig implements Serializable, NamedType {
         private String storage = "";
         private boolean protect = HubProperties.isProtected();
         private boolean allowZeroBytes = true;
+        private String codec = "";
         private String name;
         private long ttlDays;
         private long maxItems;
@@ -374,6 +390,7 @@ public class ChannelConfig implements Serializable, NamedType {
             storage(config.getStorage());
             protect(config.isProtect());
             allowZeroBytes(config.isAllowZeroBytes());
+            codec(config.getCodec());
             name(config.getName());
             ttlDays(config.getTtlDays());
             maxItems(config.getMaxItems());
@@ -453,12 +470,17 @@ public class ChannelConfig implements Serializable, NamedType {
             return this;
         }
 
+        public ChannelConfigBuilder codec(String codec) {
+            this.codec = codec;
+            return this;
+        }
+
         public ChannelConfig build() {
-            return new ChannelConfig(name, owner, creationDate, ttlDays, maxItems, description, tags, replicationSource, storage, global, protect, mutableTime, allowZeroBytes);
+            return new ChannelConfig(name, owner, creationDate, ttlDays, maxItems, description, tags, replicationSource, storage, global, protect, mutableTime, allowZeroBytes, codec);
         }
 
         public String toString() {
-            return "com.flightstats.hub.model.ChannelConfig.ChannelConfigBuilder(owner=" + this.owner + ", creationDate=" + this.creationDate + ", description=" + this.description + ", tags=" + this.tags + ", replicationSource=" + this.replicationSource + ", storage=" + this.storage + ", protect=" + this.protect + ", allowZeroBytes=" + this.allowZeroBytes + ", name=" + this.name + ", ttlDays=" + this.ttlDays + ", maxItems=" + this.maxItems + ", global=" + this.global + ", mutableTime=" + this.mutableTime + ")";
+            return "com.flightstats.hub.model.ChannelConfig.ChannelConfigBuilder(owner=" + this.owner + ", creationDate=" + this.creationDate + ", description=" + this.description + ", tags=" + this.tags + ", replicationSource=" + this.replicationSource + ", storage=" + this.storage + ", protect=" + this.protect + ", allowZeroBytes=" + this.allowZeroBytes + ", codec=" + this.codec + ", name=" + this.name + ", ttlDays=" + this.ttlDays + ", maxItems=" + this.maxItems + ", global=" + this.global + ", mutableTime=" + this.mutableTime + ")";
         }
     }
 }
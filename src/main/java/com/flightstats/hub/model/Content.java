@@ -2,7 +2,9 @@ package com.flightstats.hub.model;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.PayloadCodec;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.util.PooledBuffer;
 import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import org.apache.commons.io.IOUtils;
@@ -25,6 +27,9 @@ public class Content implements Serializable {
     private Long size;
     private transient boolean isLarge;
     private transient int threads;
+    private transient boolean packaged;
+    private transient PayloadCodec codec;
+    private transient PooledBuffer buffer;
 
     private Content(Builder builder) {
         contentKey = builder.contentKey;
@@ -69,16 +74,68 @@ public class Content implements Serializable {
         return stream;
     }
 
+    /**
+     * Marshals the stream into data, with the codec it was read with or the default.
+     * Calling this again has no effect.
+     */
     public void packageStream() throws IOException {
+        packageStream(codec == null ? PayloadCodec.getDefault() : codec);
+    }
+
+    public void packageStream(PayloadCodec codec) throws IOException {
+        if (packaged) {
+            return;
+        }
+        packaged = true;
+        if (contentLength < HubProperties.getLargePayload()) {
+            this.codec = codec;
+            data = ContentMarshaller.toBytes(this, codec);
+            stream = null;
+        } else {
+            isLarge = true;
+        }
+    }
+
+    /**
+     * Marshals the stream into a pooled buffer, like packageStream(codec), without copying it into data.
+     * The buffer must be given back with releaseBuffer().
+     */
+    public void packageBuffer(PayloadCodec codec) throws IOException {
+        if (packaged) {
+            return;
+        }
+        packaged = true;
         if (contentLength < HubProperties.getLargePayload()) {
-            data = ContentMarshaller.toBytes(this);
+            this.codec = codec;
+            buffer = ContentMarshaller.toBuffer(this, codec);
             stream = null;
         } else {
             isLarge = true;
         }
     }
 
+    /**
+     * @return the marshalled bytes, without a copy if they are in a pooled buffer, or null
+     */
+    public PooledBuffer getBuffer() {
+        if (buffer != null) {
+            return buffer;
+        }
+        byte[] bytes = getData();
+        return bytes == null ? null : PooledBuffer.wrap(bytes);
+    }
+
+    public void releaseBuffer() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
     public byte[] getData() {
+        if (data == null && buffer != null) {
+            data = buffer.toByteArray();
+        }
         if (data == null && stream != null) {
             //todo gfm - can this go away?
             try {
@@ -155,6 +212,17 @@ public class Content implements Serializable {
         this.size = size;
     }
 
+    /**
+     * @return the codec this was marshalled with or read with, or null
+     */
+    public PayloadCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(PayloadCodec codec) {
+        this.codec = codec;
+    }
+
     //todo - gfm - would be nice with more lombok
     public static class Builder {
         private Optional<String> contentType = Optional.absent();
@@ -121,7 +121,7 @@ public class ContentKey implements ContentPath {
             }
             return diff;
 
-        } else {
+        } else if (other instanceof MinutePath) {
             MinutePath minutePath = (MinutePath) other;
             DateTime endTime = minutePath.getTime().plusMinutes(1);
             int diff = time.compareTo(endTime);
@@ -129,6 +129,8 @@ public class ContentKey implements ContentPath {
                 return 1;
             }
             return diff;
+        } else {
+            return -other.compareTo(this);
         }
     }
 
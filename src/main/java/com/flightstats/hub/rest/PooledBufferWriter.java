@@ -0,0 +1,38 @@
+package com.flightstats.hub.rest;
+
+import com.flightstats.hub.util.PooledBuffer;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes a PooledBuffer request entity straight from its array.
+ * Reporting the size lets the client stream with a fixed Content-Length, instead of buffering the entity again.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.WILDCARD})
+public class PooledBufferWriter implements MessageBodyWriter<PooledBuffer> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return PooledBuffer.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(PooledBuffer buffer, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return buffer.length();
+    }
+
+    @Override
+    public void writeTo(PooledBuffer buffer, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        buffer.writeTo(entityStream);
+    }
+}
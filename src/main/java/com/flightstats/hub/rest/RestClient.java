@@ -64,6 +64,8 @@ public class RestClient {
             ClientConfig config = new DefaultClientConfig();
             config.getProperties().put(HTTPSProperties.PROPERTY_HTTPS_PROPERTIES,
                     new HTTPSProperties((hostname, session) -> true, ctx));
+            config.getClasses().add(PooledBufferWriter.class);
+            config.getClasses().add(SizedStreamingOutputWriter.class);
             Client client = Client.create(config);
             client.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(connectTimeout));
             client.setReadTimeout((int) TimeUnit.SECONDS.toMillis(readTimeout));
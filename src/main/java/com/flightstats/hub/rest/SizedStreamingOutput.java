@@ -0,0 +1,11 @@
+package com.flightstats.hub.rest;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * A StreamingOutput which knows its length up front, so the client can send it with a fixed Content-Length.
+ */
+public interface SizedStreamingOutput extends StreamingOutput {
+
+    long getSize();
+}
@@ -0,0 +1,36 @@
+package com.flightstats.hub.rest;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes a SizedStreamingOutput request entity straight to the connection.
+ * Without a size, the client would buffer the whole entity before sending it.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.WILDCARD})
+public class SizedStreamingOutputWriter implements MessageBodyWriter<SizedStreamingOutput> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return SizedStreamingOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(SizedStreamingOutput output, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return output.getSize();
+    }
+
+    @Override
+    public void writeTo(SizedStreamingOutput output, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        output.write(entityStream);
+    }
+}
@@ -1,8 +1,10 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.Commander;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.ByteStreams;
@@ -15,24 +17,41 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.NotFoundException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
 
 /**
- * Direct interactions with the file system
+ * Direct interactions with the file system, one file per item.
+ * When spoke.keyIndex is enabled, key queries are answered from a SpokeKeyIndex, and the file system
+ * is only read for payloads.
  */
-public class FileSpokeStore {
+public class FileSpokeStore implements SpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStore.class);
     private final String storagePath;
+    private final SpokeKeyIndex keyIndex;
 
     public FileSpokeStore() {
-        this(HubProperties.getSpokePath());
+        this(HubProperties.getSpokePath(), HubProperties.getProperty("spoke.keyIndex", true));
     }
 
     public FileSpokeStore(String storagePath) {
+        this(storagePath, false);
+    }
+
+    public FileSpokeStore(String storagePath, boolean indexKeys) {
         this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
-        logger.info("starting with storage path " + this.storagePath);
+        logger.info("starting with storage path " + this.storagePath + " indexKeys " + indexKeys);
+        keyIndex = indexKeys ? new SpokeKeyIndex() : null;
+        if (keyIndex != null) {
+            Thread thread = new Thread(() -> keyIndex.load(this, new File(this.storagePath)), "SpokeKeyIndex");
+            thread.setDaemon(true);
+            thread.start();
+        }
         if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
             throw new RuntimeException("unable to create startup file");
         }
@@ -42,10 +61,12 @@ public class FileSpokeStore {
         }
     }
 
+    @Override
     public boolean insert(String path, byte[] payload) {
         return insert(path, new ByteArrayInputStream(payload));
     }
 
+    @Override
     public boolean insert(String path, InputStream input) {
         File file = spokeFilePathPart(path);
         logger.trace("insert {} {} {}", file, file.getParentFile().mkdirs(), file.canExecute());
@@ -53,6 +74,9 @@ public class FileSpokeStore {
             long copy = ByteStreams.copy(input, output);
             boolean setExecutable = file.setExecutable(true);
             logger.trace("copied {} {} {}", file, copy, setExecutable);
+            if (keyIndex != null) {
+                keyIndex.add(StringUtils.removeStart(path, "/"), file.lastModified());
+            }
             return true;
         } catch (IOException e) {
             logger.info("unable to write to " + path, e);
@@ -60,13 +84,37 @@ public class FileSpokeStore {
         }
     }
 
+    @Override
     public byte[] read(String path) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         read(path, baos);
         return baos.toByteArray();
     }
 
+    @Override
     public void read(String path, OutputStream output) {
+        File file = getCompleteFile(path);
+        try (FileInputStream input = new FileInputStream(file)) {
+            ByteStreams.copy(input, output);
+        } catch (FileNotFoundException e) {
+            logger.debug("file not found {}", path);
+        } catch (IOException e) {
+            logger.info("unable to read from " + path, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer readBuffer(String path) throws IOException {
+        File file = getCompleteFile(path);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return SpokeBuffers.read(channel, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            logger.debug("file not found {}", path);
+            throw new NotFoundException("not found " + path);
+        }
+    }
+
+    private File getCompleteFile(String path) {
         File file = spokeFilePathPart(path);
         logger.trace("reading {}", file);
         if (!file.exists()) {
@@ -76,32 +124,49 @@ public class FileSpokeStore {
             logger.warn("incomplete file {}", path);
             throw new NotFoundException("incomplete file " + path);
         }
-        try (FileInputStream input = new FileInputStream(file)) {
-            ByteStreams.copy(input, output);
-        } catch (FileNotFoundException e) {
-            logger.debug("file not found {}", path);
-        } catch (IOException e) {
-            logger.info("unable to read from " + path, e);
-        }
+        return file;
     }
 
+    @Override
     public String readKeysInBucket(String path) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        keysInBucket(path, baos);
+        keysInBucket(path, SpokeKeyOutput.text(baos));
         return baos.toString();
     }
 
-    void readKeysInBucket(String path, OutputStream output) {
+    @Override
+    public void readKeysInBucket(String path, SpokeKeyOutput output) {
         keysInBucket(path, output);
     }
 
+    @Override
     public boolean delete(String path) throws Exception {
         FileUtils.deleteDirectory(new File(storagePath + path));
+        if (keyIndex != null) {
+            keyIndex.removePath(StringUtils.removeStart(path, "/"));
+        }
         return true;
     }
 
+    @Override
+    public void removed(String channel) {
+        if (keyIndex != null) {
+            keyIndex.removePath(channel);
+        }
+    }
+
+    @Override
     public boolean deleteFile(String path) throws Exception {
-        return FileUtils.deleteQuietly(spokeFilePathPart(path));
+        boolean deleted = FileUtils.deleteQuietly(spokeFilePathPart(path));
+        if (keyIndex != null) {
+            keyIndex.remove(StringUtils.removeStart(path, "/"));
+        }
+        return deleted;
+    }
+
+    @VisibleForTesting
+    boolean isKeyIndexReady() {
+        return keyIndex != null && keyIndex.isReady();
     }
 
     // given a url containing a key, return the file format
@@ -139,7 +204,15 @@ public class FileSpokeStore {
         return path;
     }
 
-    private void keysInBucket(String key, OutputStream output) {
+    private void keysInBucket(String key, SpokeKeyOutput output) {
+        if (isKeyIndexReady()) {
+            try {
+                keyIndex.keysInBucket(StringUtils.removeStart(key, "/"), output);
+            } catch (Exception e) {
+                logger.info("error with " + key, e);
+            }
+            return;
+        }
         String path = spokeFilePathPart(key).getAbsolutePath();
         logger.trace("path {}", path);
         String resolution = SpokePathUtil.smallestTimeResolution(key);
@@ -161,29 +234,30 @@ public class FileSpokeStore {
                 String filePath = aFile.getPath();
                 logger.trace("filePath {}", filePath);
                 String keyFromPath = spokeKeyFromPath(aFile.getAbsolutePath());
-                writeKey(output, keyFromPath);
+                output.write(keyFromPath);
             }
         } catch (Exception e) {
             logger.info("error with " + path, e);
         }
     }
 
-    private void writeKey(OutputStream output, String keyFromPath) throws IOException {
-        output.write(keyFromPath.getBytes());
-        output.write(",".getBytes());
-    }
-
     @VisibleForTesting
     Collection<String> keysInBucket(String key) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        keysInBucket(key, baos);
+        keysInBucket(key, SpokeKeyOutput.text(baos));
         String[] split = baos.toString().split(",");
         return Arrays.asList(split);
     }
 
+    @Override
     public String getLatest(String channel, String limitPath) {
         logger.trace("latest {} {}", channel, limitPath);
         ContentKey limitKey = ContentKey.fromUrl(limitPath).get();
+        if (isKeyIndexReady()) {
+            DateTime ttlTime = TimeUtil.now().minusMinutes(HubProperties.getSpokeTtl());
+            DateTime earliest = limitKey.getTime().isBefore(ttlTime) ? limitKey.getTime() : ttlTime;
+            return keyIndex.latest(channel, limitPath, earliest.hourOfDay().roundFloorCopy().getMillis());
+        }
         return getLatest(channel, limitPath, limitKey.getTime());
     }
 
@@ -219,10 +293,13 @@ public class FileSpokeStore {
         return getLatest(channel, limitPath, previous);
     }
 
-    /**
-     * This may return more than the request count, as this does not do any sorting.
-     */
-    public void getNext(String channel, String startKey, int count, OutputStream output) throws IOException {
+    @Override
+    public void getNext(String channel, String startKey, int count, SpokeKeyOutput output) throws IOException {
+        if (isKeyIndexReady()) {
+            long endMillis = TimeUtil.now().minuteOfHour().roundFloorCopy().plusMinutes(1).getMillis();
+            keyIndex.next(channel, startKey, count, endMillis, output);
+            return;
+        }
         DateTime now = TimeUtil.now();
         String channelPath = storagePath + channel + "/";
         logger.trace("next {} {} {}", channel, startKey, now);
@@ -243,11 +320,11 @@ public class FileSpokeStore {
                         ContentKey key = ContentKey.fromUrl(keyFromPath).get();
                         if (key.compareTo(start) > 0) {
                             found++;
-                            writeKey(output, channel + "/" + keyFromPath);
+                            output.write(channel + "/" + keyFromPath);
                         }
                     } else {
                         found++;
-                        writeKey(output, channel + "/" + keyFromPath);
+                        output.write(channel + "/" + keyFromPath);
                     }
                 }
             }
@@ -256,12 +333,35 @@ public class FileSpokeStore {
         } while (found < count && minutePath.getTime().isBefore(now));
     }
 
+    @Override
+    public void enforceTtl(ChannelConfig channel, int ttlMinutes) {
+        String channelPath = storagePath + channel.getName();
+        if (channel.isLive()) {
+            DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
+            for (int i = 0; i < 2; i++) {
+                Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i))}, 1);
+                Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.hours(ttlDateTime.minusHours(i + 1))}, 5);
+            }
+            if (keyIndex != null) {
+                keyIndex.removeBefore(channel.getName(), ttlDateTime.minuteOfHour().roundFloorCopy().plusMinutes(1).getMillis());
+            }
+        } else {
+            Commander.run(new String[]{"find", channelPath, "-mmin", "+" + ttlMinutes, "-delete"}, 1);
+        }
+        if (keyIndex != null) {
+            keyIndex.removeWrittenBefore(channel.getName(), TimeUtil.now().minusMinutes(ttlMinutes).getMillis());
+        }
+    }
+
     void enforceTtl(String channel, DateTime dateTime) {
         String limitPath = TimeUtil.minutes(dateTime);
         logger.debug("enforceTtl {} {}", channel, limitPath);
         String[] split = StringUtils.split(limitPath, "/");
         split = new String[]{split[0], split[1], split[2], split[3], split[4]};
         recurseDelete(channel, split, 0, channel);
+        if (keyIndex != null) {
+            keyIndex.removeBefore(channel, dateTime.minuteOfHour().roundFloorCopy().plusMinutes(1).getMillis());
+        }
     }
 
     private void recurseDelete(String path, String[] limitPath, int count, String channel) {
@@ -14,6 +14,7 @@ import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.PooledBuffer;
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
@@ -25,12 +26,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.core.MediaType;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -49,6 +49,9 @@ public class RemoteSpokeStore {
     private final MetricsService metricsService;
     private final ExecutorService executorService;
     private final int stableSeconds = HubProperties.getProperty("app.stable_seconds", 5);
+    private final boolean batchWrites = HubProperties.getProperty("spoke.write.batch", false);
+    private final boolean binaryKeys = HubProperties.getProperty("spoke.query.binary", true);
+    private final Map<String, SpokeBatchWriter> batchWriters = new ConcurrentHashMap<>();
 
     @Inject
     public RemoteSpokeStore(@Named("SpokeCuratorCluster") CuratorCluster cluster, MetricsService metricsService) {
@@ -69,7 +72,7 @@ public class RemoteSpokeStore {
                 public void run() {
                     try {
                         ContentKey key = new ContentKey();
-                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload", path)) {
+                        if (insert(path + key.toUrl(), PooledBuffer.wrap(key.toUrl().getBytes()), server, traces, "payload", path)) {
                             quorumLatch.countDown();
                         } else {
                             traces.log(logger);
@@ -118,16 +121,42 @@ public class RemoteSpokeStore {
         return true;
     }
 
-    public boolean insert(String path, byte[] payload, String spokeApi, String channel) throws InterruptedException {
+    /**
+     * Writes payload to each server, and returns once a quorum have it, or after app.stable_seconds.
+     * Each write holds its own reference to payload, so the caller can release it as soon as this returns.
+     */
+    public boolean insert(String path, PooledBuffer payload, String spokeApi, String channel) throws InterruptedException {
         return insert(path, payload, cluster.getServers(), ActiveTraces.getLocal(), spokeApi, channel);
     }
 
-    private boolean insert(String path, byte[] payload, Collection<String> servers, Traces traces,
+    private boolean insert(String path, PooledBuffer payload, Collection<String> servers, Traces traces,
                            String spokeApi, String channel) throws InterruptedException {
         int quorum = getQuorum(servers.size());
         CountDownLatch quorumLatch = new CountDownLatch(quorum);
         AtomicBoolean firstComplete = new AtomicBoolean();
+        if (batchWrites && spokeApi.equals("payload")) {
+            for (final String server : servers) {
+                traces.add("batch", server, path);
+                payload.retain();
+                getBatchWriter(server).write(path, payload, success -> {
+                    payload.release();
+                    traces.add(server, success);
+                    if (success) {
+                        if (firstComplete.compareAndSet(false, true)) {
+                            metricsService.time(channel, "heisenberg", traces.getStart());
+                        }
+                        quorumLatch.countDown();
+                    } else {
+                        logger.info("batch write failed: server {} path {}", server, path);
+                    }
+                });
+            }
+            quorumLatch.await(stableSeconds, TimeUnit.SECONDS);
+            metricsService.time(channel, "consistent", traces.getStart());
+            return quorumLatch.getCount() != quorum;
+        }
         for (final String server : servers) {
+            payload.retain();
             executorService.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -152,6 +181,7 @@ public class RemoteSpokeStore {
                         logger.warn("write failed: " + server + " " + path, e);
                     } finally {
                         HubUtils.close(response);
+                        payload.release();
                         resetThread();
                     }
 
@@ -163,6 +193,21 @@ public class RemoteSpokeStore {
         return quorumLatch.getCount() != quorum;
     }
 
+    private String getFormat() {
+        return binaryKeys ? "?format=" + SpokeKeyCodec.FORMAT : "";
+    }
+
+    /**
+     * Servers without the binary format ignore the format parameter and respond with comma separated keys.
+     */
+    private boolean isBinary(ClientResponse response) {
+        return response.getType() != null && response.getType().toString().startsWith(SpokeKeyCodec.MEDIA_TYPE);
+    }
+
+    private SpokeBatchWriter getBatchWriter(String server) {
+        return batchWriters.computeIfAbsent(server, name -> new SpokeBatchWriter(name, write_client, executorService));
+    }
+
     private void setThread(String name) {
         Thread thread = Thread.currentThread();
         thread.setName(thread.getName() + "|" + name);
@@ -210,6 +255,49 @@ public class RemoteSpokeStore {
         return null;
     }
 
+    /**
+     * Reads many items from one server with a single request.
+     * Items which are not returned should be read individually with get(path, key).
+     */
+    public Map<ContentKey, Content> get(String channel, Collection<ContentKey> keys) {
+        Map<String, ContentKey> paths = new LinkedHashMap<>();
+        for (ContentKey key : keys) {
+            paths.put(channel + "/" + key.toUrl(), key);
+        }
+        Map<ContentKey, Content> found = new HashMap<>();
+        for (String server : cluster.getRandomServers()) {
+            ClientResponse response = null;
+            try {
+                setThread(channel);
+                response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payloads")
+                        .type(MediaType.APPLICATION_OCTET_STREAM)
+                        .post(ClientResponse.class, SpokeBatchReader.encodeRequest(paths.keySet()));
+                logger.trace("server {} channel {} items {} response {}", server, channel, keys.size(), response);
+                if (response.getStatus() == 200) {
+                    SpokeBatchReader.decodeResponse(response.getEntityInputStream(), (path, payload) -> {
+                        ContentKey key = paths.get(path);
+                        if (key != null && payload != null && payload.length > 0) {
+                            found.put(key, ContentMarshaller.toContent(payload, key));
+                        }
+                    });
+                    return found;
+                }
+            } catch (ClientHandlerException e) {
+                if (e.getCause() != null && e.getCause() instanceof ConnectException) {
+                    logger.warn("connection exception " + server);
+                } else {
+                    logger.warn("unable to get content " + server + " " + channel, e);
+                }
+            } catch (Exception e) {
+                logger.warn("unable to get content " + server + " " + channel, e);
+            } finally {
+                HubUtils.close(response);
+                resetThread();
+            }
+        }
+        return found;
+    }
+
     QueryResult readTimeBucket(String channel, String timePath) throws InterruptedException {
         return getKeys("/internal/spoke/time/" + channel + "/" + timePath);
     }
@@ -231,14 +319,22 @@ public class RemoteSpokeStore {
                     try {
                         setThread(path);
                         traces.add("spoke calling", server, path);
-                        response = query_client.resource(HubHost.getScheme() + server + path).get(ClientResponse.class);
+                        response = query_client.resource(HubHost.getScheme() + server + path + getFormat())
+                                .get(ClientResponse.class);
                         traces.add("spoke server response", server, response);
                         if (response.getStatus() == 200) {
-                            SortedSet<ContentKey> keySet = new TreeSet<>();
-                            String keysString = response.getEntity(String.class);
-                            ContentKeyUtil.convertKeyStrings(keysString, keySet);
-                            traces.add(server, keySet);
-                            queryResult.addKeys(keySet);
+                            if (isBinary(response)) {
+                                List<ContentKey> keys = new ArrayList<>();
+                                SpokeKeyCodec.read(response.getEntityInputStream(), keys::add);
+                                traces.add(server, keys);
+                                queryResult.addSortedKeys(keys);
+                            } else {
+                                SortedSet<ContentKey> keySet = new TreeSet<>();
+                                String keysString = response.getEntity(String.class);
+                                ContentKeyUtil.convertKeyStrings(keysString, keySet);
+                                traces.add(server, keySet);
+                                queryResult.addKeys(keySet);
+                            }
                         }
                     } catch (ClientHandlerException e) {
                         if (e.getCause() != null && e.getCause() instanceof ConnectException) {
@@ -274,15 +370,20 @@ public class RemoteSpokeStore {
                     try {
                         setThread(path);
                         traces.add("spoke calling", server, channel);
-                        response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/latest/" + path)
+                        response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/latest/" + path + getFormat())
                                 .get(ClientResponse.class);
                         traces.add("spoke server response", server, response);
                         if (response.getStatus() == 200) {
-                            String key = response.getEntity(String.class);
-                            if (StringUtils.isNotEmpty(key)) {
-                                orderedKeys.add(ContentKeyUtil.convertKey(key).get());
+                            if (isBinary(response)) {
+                                SpokeKeyCodec.read(response.getEntityInputStream(), orderedKeys::add);
+                                traces.add(server, orderedKeys);
+                            } else {
+                                String key = response.getEntity(String.class);
+                                if (StringUtils.isNotEmpty(key)) {
+                                    orderedKeys.add(ContentKeyUtil.convertKey(key).get());
+                                }
+                                traces.add(server, key);
                             }
-                            traces.add(server, key);
                         }
                     } catch (ClientHandlerException e) {
                         if (e.getCause() != null && e.getCause() instanceof ConnectException) {
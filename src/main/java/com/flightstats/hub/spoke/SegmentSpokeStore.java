@@ -0,0 +1,336 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.NotFoundException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends items to one segment file per channel per minute, storagePath/channel/yyyy/MM/dd/HH/mm.seg
+ * Keys are answered from the in-memory index of each segment, and ttl drops entire segments.
+ */
+public class SegmentSpokeStore implements SpokeStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(SegmentSpokeStore.class);
+    private static final String SUFFIX = ".seg";
+    private static final int HOUR_LENGTH = "yyyy/MM/dd/HH".length();
+    private static final int MINUTE_LENGTH = "yyyy/MM/dd/HH/mm".length();
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final String storagePath;
+    private final ConcurrentMap<String, ConcurrentSkipListMap<String, SpokeSegment>> channels = new ConcurrentHashMap<>();
+
+    public SegmentSpokeStore() {
+        this(HubProperties.getSpokePath());
+    }
+
+    public SegmentSpokeStore(String storagePath) {
+        this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
+        logger.info("starting with storage path " + this.storagePath);
+        String startupPath = "hub-startup/" + new ContentKey().toUrl();
+        if (!insert(startupPath, ("" + System.currentTimeMillis()).getBytes())) {
+            throw new RuntimeException("unable to create startup segment");
+        }
+    }
+
+    @Override
+    public boolean insert(String path, byte[] payload) {
+        String channel = StringUtils.substringBefore(path, "/");
+        String key = StringUtils.substringAfter(path, "/");
+        if (key.length() <= MINUTE_LENGTH + 1) {
+            logger.info("unable to insert invalid path {}", path);
+            return false;
+        }
+        String minutePath = key.substring(0, MINUTE_LENGTH);
+        SpokeSegment segment = getSegment(channel, minutePath, true);
+        if (segment.write(key.substring(MINUTE_LENGTH + 1), payload)) {
+            return true;
+        }
+        if (segment.isDropped()) {
+            logger.debug("segment {} was dropped during write of {}", minutePath, path);
+            return getSegment(channel, minutePath, true).write(key.substring(MINUTE_LENGTH + 1), payload);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean insert(String path, InputStream input) {
+        try {
+            return insert(path, ByteStreams.toByteArray(input));
+        } catch (IOException e) {
+            logger.info("unable to read input for " + path, e);
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] read(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        read(path, baos);
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void read(String path, OutputStream output) {
+        String channel = StringUtils.substringBefore(path, "/");
+        String key = StringUtils.substringAfter(path, "/");
+        if (key.length() <= MINUTE_LENGTH + 1) {
+            throw new NotFoundException("not found " + path);
+        }
+        SpokeSegment segment = getSegment(channel, key.substring(0, MINUTE_LENGTH), false);
+        try {
+            if (segment == null || !segment.read(key.substring(MINUTE_LENGTH + 1), output)) {
+                throw new NotFoundException("not found " + path);
+            }
+        } catch (IOException e) {
+            logger.info("unable to read from " + path, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer readBuffer(String path) throws IOException {
+        String channel = StringUtils.substringBefore(path, "/");
+        String key = StringUtils.substringAfter(path, "/");
+        if (key.length() <= MINUTE_LENGTH + 1) {
+            throw new NotFoundException("not found " + path);
+        }
+        SpokeSegment segment = getSegment(channel, key.substring(0, MINUTE_LENGTH), false);
+        ByteBuffer buffer = segment == null ? null : segment.readBuffer(key.substring(MINUTE_LENGTH + 1));
+        if (buffer == null) {
+            throw new NotFoundException("not found " + path);
+        }
+        return buffer;
+    }
+
+    @Override
+    public String readKeysInBucket(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        readKeysInBucket(path, SpokeKeyOutput.text(baos));
+        return baos.toString();
+    }
+
+    @Override
+    public void readKeysInBucket(String path, SpokeKeyOutput output) {
+        String channel = StringUtils.substringBefore(path, "/");
+        String timePath = StringUtils.removeEnd(StringUtils.substringAfter(path, "/"), "/");
+        String minutePrefix = StringUtils.left(timePath, MINUTE_LENGTH);
+        String secondPrefix = timePath.length() > MINUTE_LENGTH ? timePath.substring(MINUTE_LENGTH + 1) + "/" : "";
+        logger.trace("keys in bucket {} {} {}", channel, minutePrefix, secondPrefix);
+        try {
+            for (SpokeSegment segment : getSegments(channel).tailMap(minutePrefix).values()) {
+                if (!segment.getMinutePath().startsWith(minutePrefix)) {
+                    break;
+                }
+                for (String key : segment.keys().tailSet(secondPrefix)) {
+                    if (!key.startsWith(secondPrefix)) {
+                        break;
+                    }
+                    writeKey(output, channel, segment, key);
+                }
+            }
+        } catch (IOException e) {
+            logger.info("error with " + path, e);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws Exception {
+        String channel = StringUtils.substringBefore(path, "/");
+        String timePath = StringUtils.substringAfter(path, "/");
+        if (timePath.isEmpty()) {
+            ConcurrentSkipListMap<String, SpokeSegment> segments = channels.remove(channel);
+            if (segments != null) {
+                segments.values().forEach(SpokeSegment::drop);
+            }
+        } else {
+            ConcurrentSkipListMap<String, SpokeSegment> segments = getSegments(channel, false);
+            for (SpokeSegment segment : segments.tailMap(timePath).values()) {
+                if (!segment.getMinutePath().startsWith(timePath)) {
+                    break;
+                }
+                segments.remove(segment.getMinutePath());
+                segment.drop();
+            }
+        }
+        FileUtils.deleteDirectory(new File(storagePath + path));
+        return true;
+    }
+
+    @Override
+    public boolean deleteFile(String path) throws Exception {
+        String channel = StringUtils.substringBefore(path, "/");
+        String key = StringUtils.substringAfter(path, "/");
+        if (key.length() <= MINUTE_LENGTH + 1) {
+            return false;
+        }
+        SpokeSegment segment = getSegment(channel, key.substring(0, MINUTE_LENGTH), false);
+        return segment != null && segment.delete(key.substring(MINUTE_LENGTH + 1));
+    }
+
+    @Override
+    public String getLatest(String channel, String limitPath) {
+        logger.trace("latest {} {}", channel, limitPath);
+        String limitMinute = limitPath.substring(0, MINUTE_LENGTH);
+        String limitKey = limitPath.substring(MINUTE_LENGTH + 1);
+        String limitHour = limitMinute.substring(0, HOUR_LENGTH);
+        String ttlHour = TimeUtil.hours(TimeUtil.now().minusMinutes(HubProperties.getSpokeTtl()));
+        NavigableMap<String, SpokeSegment> segments = getSegments(channel).headMap(limitMinute, true).descendingMap();
+        for (SpokeSegment segment : segments.values()) {
+            String hour = segment.getMinutePath().substring(0, HOUR_LENGTH);
+            if (hour.compareTo(ttlHour) < 0 && !hour.equals(limitHour)) {
+                break;
+            }
+            NavigableSet<String> keys = segment.keys();
+            String key = segment.getMinutePath().equals(limitMinute) ? keys.lower(limitKey) : lastOrNull(keys);
+            if (key != null) {
+                return channel + "/" + segment.getMinutePath() + "/" + key;
+            }
+        }
+        logger.debug("no latest found for {} {} ", channel, limitPath);
+        return null;
+    }
+
+    private String lastOrNull(NavigableSet<String> keys) {
+        Iterator<String> iterator = keys.descendingIterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void getNext(String channel, String startKey, int count, SpokeKeyOutput output) throws IOException {
+        String nowMinute = TimeUtil.minutes(TimeUtil.now());
+        String startMinute = startKey.substring(0, MINUTE_LENGTH);
+        String start = startKey.substring(MINUTE_LENGTH + 1);
+        logger.trace("next {} {} {}", channel, startKey, nowMinute);
+        int found = 0;
+        for (SpokeSegment segment : getSegments(channel).tailMap(startMinute, true).values()) {
+            if (found >= count || segment.getMinutePath().compareTo(nowMinute) > 0) {
+                return;
+            }
+            NavigableSet<String> keys = segment.keys();
+            if (segment.getMinutePath().equals(startMinute)) {
+                keys = keys.tailSet(start, false);
+            }
+            for (String key : keys) {
+                found++;
+                writeKey(output, channel, segment, key);
+            }
+        }
+    }
+
+    @Override
+    public void enforceTtl(ChannelConfig channel, int ttlMinutes) {
+        ConcurrentSkipListMap<String, SpokeSegment> segments = getSegments(channel.getName(), false);
+        if (channel.isLive()) {
+            DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
+            drop(segments, segments.headMap(TimeUtil.minutes(ttlDateTime), true).values());
+        } else {
+            long ttlMillis = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+            for (SpokeSegment segment : segments.values()) {
+                if (segment.getFile().lastModified() < ttlMillis) {
+                    drop(segments, Collections.singletonList(segment));
+                }
+            }
+        }
+        for (SpokeSegment segment : segments.values()) {
+            segment.closeIfIdle(IDLE_MILLIS);
+        }
+    }
+
+    private void drop(ConcurrentSkipListMap<String, SpokeSegment> segments, Collection<SpokeSegment> expired) {
+        for (SpokeSegment segment : expired.toArray(new SpokeSegment[0])) {
+            logger.debug("dropping segment {}", segment.getFile());
+            segments.remove(segment.getMinutePath());
+            segment.drop();
+            deleteEmptyParents(segment.getFile().getParentFile());
+        }
+    }
+
+    private void deleteEmptyParents(File directory) {
+        File root = new File(storagePath);
+        while (directory != null && !directory.equals(root)) {
+            String[] children = directory.list();
+            if (children == null || children.length > 0 || !directory.delete()) {
+                return;
+            }
+            directory = directory.getParentFile();
+        }
+    }
+
+    private SpokeSegment getSegment(String channel, String minutePath, boolean create) {
+        ConcurrentSkipListMap<String, SpokeSegment> segments = getSegments(channel, create);
+        if (!create) {
+            return segments.get(minutePath);
+        }
+        return segments.computeIfAbsent(minutePath,
+                minute -> new SpokeSegment(new File(storagePath + channel + "/" + minute + SUFFIX), minute));
+    }
+
+    private ConcurrentSkipListMap<String, SpokeSegment> getSegments(String channel) {
+        return getSegments(channel, false);
+    }
+
+    /**
+     * Reads only load channels which have a directory, so queries for unknown channels do not add entries.
+     */
+    private ConcurrentSkipListMap<String, SpokeSegment> getSegments(String channel, boolean create) {
+        ConcurrentSkipListMap<String, SpokeSegment> segments = channels.get(channel);
+        if (segments != null) {
+            return segments;
+        }
+        if (!create && !new File(storagePath + channel).isDirectory()) {
+            return new ConcurrentSkipListMap<>();
+        }
+        return channels.computeIfAbsent(channel, this::loadSegments);
+    }
+
+    /**
+     * Forgets a channel whose directory was removed outside of this store, such as by TtlEnforcer.
+     */
+    @Override
+    public void removed(String channel) {
+        ConcurrentSkipListMap<String, SpokeSegment> segments = channels.remove(channel);
+        if (segments != null) {
+            logger.info("removed {} segments for {}", segments.size(), channel);
+            segments.values().forEach(SpokeSegment::drop);
+        }
+    }
+
+    private ConcurrentSkipListMap<String, SpokeSegment> loadSegments(String channel) {
+        ConcurrentSkipListMap<String, SpokeSegment> segments = new ConcurrentSkipListMap<>();
+        File channelDirectory = new File(storagePath + channel);
+        if (channelDirectory.isDirectory()) {
+            String channelPath = channelDirectory.getAbsolutePath() + "/";
+            for (File file : FileUtils.listFiles(channelDirectory, new String[]{SUFFIX.substring(1)}, true)) {
+                String minutePath = StringUtils.removeEnd(StringUtils.removeStart(file.getAbsolutePath(), channelPath), SUFFIX);
+                segments.put(minutePath, new SpokeSegment(file, minutePath));
+            }
+        }
+        logger.debug("loaded {} segments for {}", segments.size(), channel);
+        return segments;
+    }
+
+    /**
+     * @param key ss/SSS/hash within the segment's minute
+     */
+    private void writeKey(SpokeKeyOutput output, String channel, SpokeSegment segment, String key) throws IOException {
+        long millis = segment.getMinuteMillis()
+                + Integer.parseInt(key.substring(0, 2)) * 1000L + Integer.parseInt(key.substring(3, 6));
+        output.write(channel, millis, key.substring(7));
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.flightstats.hub.spoke;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The format used to read many payloads from one Spoke server with a single POST to /internal/spoke/payloads.
+ * <p>
+ * The request is [int items] followed by [int pathLength][path] for each item.
+ * The response is [int items] followed by [int pathLength][path][int payloadLength][payload] for each item,
+ * with a payloadLength of MISSING for items the server does not have.
+ */
+class SpokeBatchReader {
+
+    static final int MISSING = -1;
+
+    static byte[] encodeRequest(Collection<String> paths) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeInt(paths.size());
+        for (String path : paths) {
+            writePath(output, path);
+        }
+        output.flush();
+        return baos.toByteArray();
+    }
+
+    static List<String> decodeRequest(InputStream input) throws IOException {
+        DataInputStream stream = new DataInputStream(input);
+        int items = stream.readInt();
+        List<String> paths = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            paths.add(readPath(stream));
+        }
+        return paths;
+    }
+
+    /**
+     * @param payload null if the item is missing
+     */
+    static void writeItem(DataOutputStream output, String path, ByteBuffer payload) throws IOException {
+        writePath(output, path);
+        if (payload == null) {
+            output.writeInt(MISSING);
+            return;
+        }
+        output.writeInt(payload.remaining());
+        WritableByteChannel channel = Channels.newChannel(output);
+        while (payload.hasRemaining()) {
+            channel.write(payload);
+        }
+    }
+
+    /**
+     * Passes each item to the consumer, with a null payload for missing items.
+     */
+    static void decodeResponse(InputStream input, SpokeBatchWriter.BatchConsumer consumer) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(input));
+        int items = stream.readInt();
+        for (int i = 0; i < items; i++) {
+            String path = readPath(stream);
+            int length = stream.readInt();
+            byte[] payload = null;
+            if (length != MISSING) {
+                payload = new byte[length];
+                stream.readFully(payload);
+            }
+            consumer.accept(path, payload);
+        }
+    }
+
+    private static void writePath(DataOutputStream output, String path) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readPath(DataInputStream stream) throws IOException {
+        byte[] path = new byte[stream.readInt()];
+        stream.readFully(path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,204 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.rest.SizedStreamingOutput;
+import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.PooledBuffer;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent payload writes to one Spoke server into a single PUT to /internal/spoke/batch.
+ * <p>
+ * A sender waits up to spoke.write.lingerMillis for more items, then sends up to spoke.write.maxItems
+ * or spoke.write.maxBytes.  While a batch is in flight, new items queue for the next one.
+ * The server acknowledges each item, so each callback reports the result for its own path.
+ * The batch is streamed from the items' payloads, so they are not copied into a frame for each server.
+ */
+class SpokeBatchWriter {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeBatchWriter.class);
+    static final byte SUCCESS = 1;
+    static final byte FAILURE = 0;
+
+    private static final long lingerMillis = HubProperties.getProperty("spoke.write.lingerMillis", 2);
+    private static final int maxItems = HubProperties.getProperty("spoke.write.maxItems", 100);
+    private static final long maxBytes = HubProperties.getProperty("spoke.write.maxBytes", 4 * 1024 * 1024);
+    private static final int maxSenders = HubProperties.getProperty("spoke.write.senders", 2);
+
+    private final String server;
+    private final Client client;
+    private final ExecutorService executorService;
+    private final BlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger senders = new AtomicInteger();
+
+    SpokeBatchWriter(String server, Client client, ExecutorService executorService) {
+        this.server = server;
+        this.client = client;
+        this.executorService = executorService;
+    }
+
+    void write(String path, PooledBuffer payload, Consumer<Boolean> callback) {
+        queue.add(new Item(path, payload, callback));
+        startSender();
+    }
+
+    private void startSender() {
+        int current = senders.get();
+        while (current < maxSenders) {
+            if (senders.compareAndSet(current, current + 1)) {
+                executorService.submit(this::send);
+                return;
+            }
+            current = senders.get();
+        }
+    }
+
+    private void send() {
+        try {
+            List<Item> batch = drain();
+            while (!batch.isEmpty()) {
+                post(batch);
+                batch = drain();
+            }
+        } catch (InterruptedException e) {
+            logger.info("interrupted sending to {}", server);
+            Thread.currentThread().interrupt();
+        } finally {
+            senders.decrementAndGet();
+            if (!queue.isEmpty()) {
+                startSender();
+            }
+        }
+    }
+
+    private List<Item> drain() throws InterruptedException {
+        List<Item> batch = new ArrayList<>();
+        Item item = queue.poll();
+        long bytes = 0;
+        long end = System.currentTimeMillis() + lingerMillis;
+        while (item != null) {
+            batch.add(item);
+            bytes += item.getPayloadLength();
+            if (batch.size() >= maxItems || bytes >= maxBytes) {
+                break;
+            }
+            item = queue.poll(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        return batch;
+    }
+
+    private void post(List<Item> batch) {
+        boolean[] results = new boolean[batch.size()];
+        ClientResponse response = null;
+        try {
+            String uri = HubHost.getScheme() + server + "/internal/spoke/batch";
+            response = client.resource(uri)
+                    .type(MediaType.APPLICATION_OCTET_STREAM)
+                    .put(ClientResponse.class, new Frame(batch));
+            if (response.getStatus() == 200) {
+                byte[] acks = response.getEntity(byte[].class);
+                for (int i = 0; i < results.length && i < acks.length; i++) {
+                    results[i] = acks[i] == SUCCESS;
+                }
+            } else {
+                logger.info("batch write failed: server {} items {} response {}", server, batch.size(), response);
+            }
+        } catch (Exception e) {
+            logger.warn("batch write failed: " + server + " items " + batch.size(), e);
+        } finally {
+            HubUtils.close(response);
+        }
+        for (int i = 0; i < results.length; i++) {
+            batch.get(i).callback.accept(results[i]);
+        }
+    }
+
+    /**
+     * The batch format is [int items] followed by [int pathLength][path][int payloadLength][payload] for each item.
+     */
+    static class Frame implements SizedStreamingOutput {
+        private final List<Item> batch;
+        private final List<byte[]> paths = new ArrayList<>();
+        private long size = 4;
+
+        Frame(List<Item> batch) {
+            this.batch = batch;
+            for (Item item : batch) {
+                byte[] path = item.path.getBytes(StandardCharsets.UTF_8);
+                paths.add(path);
+                size += 8 + path.length + item.getPayloadLength();
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+            output.writeInt(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                byte[] path = paths.get(i);
+                output.writeInt(path.length);
+                output.write(path);
+                output.writeInt(batch.get(i).getPayloadLength());
+                batch.get(i).writePayload(output);
+            }
+            output.flush();
+        }
+    }
+
+    static void decode(InputStream input, BatchConsumer consumer) throws IOException {
+        DataInputStream stream = new DataInputStream(input);
+        int items = stream.readInt();
+        for (int i = 0; i < items; i++) {
+            byte[] path = new byte[stream.readInt()];
+            stream.readFully(path);
+            byte[] payload = new byte[stream.readInt()];
+            stream.readFully(payload);
+            consumer.accept(new String(path, StandardCharsets.UTF_8), payload);
+        }
+    }
+
+    interface BatchConsumer {
+        void accept(String path, byte[] payload) throws IOException;
+    }
+
+    static class Item {
+        private final String path;
+        private final PooledBuffer payload;
+        private final Consumer<Boolean> callback;
+
+        Item(String path, PooledBuffer payload, Consumer<Boolean> callback) {
+            this.path = path;
+            this.payload = payload;
+            this.callback = callback;
+        }
+
+        int getPayloadLength() {
+            return payload.length();
+        }
+
+        void writePayload(OutputStream output) throws IOException {
+            payload.writeTo(output);
+        }
+    }
+}
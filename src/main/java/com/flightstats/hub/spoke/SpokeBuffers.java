@@ -0,0 +1,69 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads payloads from Spoke files into ByteBuffers.
+ * Payloads of at least spoke.mappedReadKB are memory mapped, so the payload is not held on the heap.
+ * The mapped bytes are still copied to the response through a small buffer, so this saves memory, not the copy.
+ * Smaller payloads are cheaper to read directly than to map.
+ * <p>
+ * spoke.maxMappedReads limits how many mapped reads are in progress at a time, beyond that payloads are read onto
+ * the heap.  Callers end a read with done().  Mappings are not unmapped explicitly, so a finished mapping stays alive
+ * until its buffer is collected; the limit bounds concurrent mapped reads, not live mappings or address space.
+ */
+public class SpokeBuffers {
+
+    private static final long mappedReadBytes = HubProperties.getProperty("spoke.mappedReadKB", 64) * 1024L;
+    private static final Semaphore mappings = new Semaphore(HubProperties.getProperty("spoke.maxMappedReads", 128));
+
+    static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+        if (length >= mappedReadBytes && length <= Integer.MAX_VALUE && mappings.tryAcquire()) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } catch (IOException | RuntimeException e) {
+                mappings.release();
+                throw e;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Ends the mapped read of buffer, so another read may be mapped.  The mapping itself is released when buffer
+     * is collected.
+     */
+    public static void done(ByteBuffer buffer) {
+        if (buffer != null && isMapped(buffer)) {
+            mappings.release();
+        }
+    }
+
+    public static boolean isMapped(ByteBuffer buffer) {
+        return buffer.isDirect();
+    }
+
+    /**
+     * @return the metrics tag for where buffer was read from
+     */
+    public static String getSource(ByteBuffer buffer) {
+        return isMapped(buffer) ? "source:mapped" : "source:heap";
+    }
+
+    static int availableMappings() {
+        return mappings.availablePermits();
+    }
+}
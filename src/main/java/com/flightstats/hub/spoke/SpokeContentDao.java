@@ -10,6 +10,7 @@ import com.flightstats.hub.exception.FailedWriteException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.PooledBuffer;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
@@ -17,7 +18,6 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.util.*;
 
@@ -38,7 +38,7 @@ public class SpokeContentDao implements ContentDao {
     public ContentKey insert(String channelName, Content content) throws Exception {
         ContentKey key = content.getContentKey().get();
         String path = getPath(channelName, key);
-        if (!spokeStore.insert(path, content.getData(), "payload", channelName)) {
+        if (!spokeStore.insert(path, content.getBuffer(), "payload", channelName)) {
             throw new FailedWriteException("unable to write to spoke " + path);
         }
         return key;
@@ -52,25 +52,35 @@ public class SpokeContentDao implements ContentDao {
         try {
             SortedSet<ContentKey> keys = new TreeSet<>();
             List<Content> items = bulkContent.getItems();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream stream = new ObjectOutputStream(baos);
+            long size = 1024;
+            for (Content content : items) {
+                content.packageStream();
+                size += 64 + content.getBuffer().length();
+            }
+            PooledBuffer.Output output = new PooledBuffer.Output((int) Math.min(Integer.MAX_VALUE - 8, size));
+            ObjectOutputStream stream = new ObjectOutputStream(output);
             stream.writeInt(items.size());
             logger.debug("writing {} items to master {}", items.size(), bulkContent.getMasterKey());
             for (Content content : items) {
-                content.packageStream();
                 String itemKey = content.getContentKey().get().toUrl();
                 stream.writeInt(itemKey.length());
                 stream.write(itemKey.getBytes());
-                stream.writeInt(content.getData().length);
-                stream.write(content.getData());
+                PooledBuffer buffer = content.getBuffer();
+                stream.writeInt(buffer.length());
+                buffer.writeTo(stream);
                 keys.add(content.getContentKey().get());
             }
             stream.flush();
             traces.add("SpokeContentDao.writeBulk marshalled");
 
             logger.trace("writing items {} to channel {}", items.size(), channelName);
-            if (!spokeStore.insert(channelName, baos.toByteArray(), "bulkKey", channelName)) {
-                throw new FailedWriteException("unable to write bulk to spoke " + channelName);
+            PooledBuffer bulk = output.toBuffer();
+            try {
+                if (!spokeStore.insert(channelName, bulk, "bulkKey", channelName)) {
+                    throw new FailedWriteException("unable to write bulk to spoke " + channelName);
+                }
+            } finally {
+                bulk.release();
             }
             traces.add("SpokeContentDao.writeBulk completed", keys);
             return keys;
@@ -103,6 +113,20 @@ public class SpokeContentDao implements ContentDao {
         }
     }
 
+    @Override
+    public Map<ContentKey, Content> get(String channelName, Collection<ContentKey> keys) {
+        Traces traces = ActiveTraces.getLocal();
+        traces.add("SpokeContentDao.read", channelName, keys.size());
+        try {
+            return spokeStore.get(channelName, keys);
+        } catch (Exception e) {
+            logger.warn("unable to get data: " + channelName, e);
+            return Collections.emptyMap();
+        } finally {
+            traces.add("SpokeContentDao.read completed");
+        }
+    }
+
     @Override
     public Optional<ContentKey> getLatest(String channel, ContentKey limitKey, Traces traces) {
         String path = getPath(channel, limitKey);
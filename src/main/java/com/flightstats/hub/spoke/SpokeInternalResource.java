@@ -2,6 +2,7 @@ package com.flightstats.hub.spoke;
 
 
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.model.SingleTrace;
 import com.google.common.io.ByteStreams;
 import org.joda.time.DateTime;
@@ -10,19 +11,25 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.List;
 
 @SuppressWarnings("WeakerAccess")
 @Path("/internal/spoke")
 public class SpokeInternalResource {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeInternalResource.class);
-    private static final FileSpokeStore spokeStore = HubProvider.getInstance(FileSpokeStore.class);
+    private static final SpokeStore spokeStore = HubProvider.getInstance(SpokeStore.class);
     private static final RemoteSpokeStore remoteSpokeStore = HubProvider.getInstance(RemoteSpokeStore.class);
+    private static final MetricsService metricsService = HubProvider.getInstance(MetricsService.class);
     @Context
     private UriInfo uriInfo;
 
@@ -31,10 +38,18 @@ public class SpokeInternalResource {
     public Response getPayload(@PathParam("path") String path) {
         try {
             Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
-                try (OutputStream output = new BufferedOutputStream(os)) {
-                    spokeStore.read(path, output);
+                ByteBuffer buffer = null;
+                try {
+                    buffer = spokeStore.readBuffer(path);
+                    metricsService.count("spoke.payload.bytes", buffer.remaining(), SpokeBuffers.getSource(buffer));
+                    WritableByteChannel channel = Channels.newChannel(os);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
                 } catch (NotFoundException e) {
                     logger.debug("not found {}", e.getMessage());
+                } finally {
+                    SpokeBuffers.done(buffer);
                 }
             });
             return builder.build();
@@ -44,6 +59,37 @@ public class SpokeInternalResource {
         }
     }
 
+    @Path("/payloads")
+    @POST
+    public Response getPayloads(InputStream input) {
+        try {
+            List<String> paths = SpokeBatchReader.decodeRequest(input);
+            Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(os));
+                output.writeInt(paths.size());
+                for (String path : paths) {
+                    ByteBuffer buffer = null;
+                    try {
+                        buffer = spokeStore.readBuffer(path);
+                        metricsService.count("spoke.payload.bytes", buffer.remaining(), SpokeBuffers.getSource(buffer));
+                    } catch (NotFoundException e) {
+                        logger.debug("not found {}", e.getMessage());
+                    }
+                    try {
+                        SpokeBatchReader.writeItem(output, path, buffer);
+                    } finally {
+                        SpokeBuffers.done(buffer);
+                    }
+                }
+                output.flush();
+            });
+            return builder.type(MediaType.APPLICATION_OCTET_STREAM).build();
+        } catch (Exception e) {
+            logger.warn("unable to get payloads", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @Path("/payload/{path:.+}")
     @PUT
     public Response putPayload(@PathParam("path") String path, InputStream input) {
@@ -69,6 +115,29 @@ public class SpokeInternalResource {
         }
     }
 
+    @Path("/batch")
+    @PUT
+    public Response putBatch(InputStream input) {
+        long start = System.currentTimeMillis();
+        ByteArrayOutputStream acks = new ByteArrayOutputStream();
+        try {
+            SpokeBatchWriter.decode(input, (path, payload) -> {
+                boolean success = spokeStore.insert(path, payload);
+                if (!success) {
+                    logger.warn("unable to write batch item {}", path);
+                }
+                acks.write(success ? SpokeBatchWriter.SUCCESS : SpokeBatchWriter.FAILURE);
+            });
+        } catch (Exception e) {
+            logger.warn("unable to complete batch write after " + acks.size() + " items", e);
+        }
+        long end = System.currentTimeMillis();
+        if ((end - start) > 4000) {
+            logger.info("slow batch write response {} items {}", new DateTime(start), acks.size());
+        }
+        return Response.ok(acks.toByteArray()).build();
+    }
+
     @Path("/bulkKey/{channel}")
     @PUT
     public Response putBulk(@PathParam("channel") String channel, InputStream input) {
@@ -109,14 +178,27 @@ public class SpokeInternalResource {
         return data;
     }
 
+    private boolean isBinary() {
+        return SpokeKeyCodec.FORMAT.equals(uriInfo.getQueryParameters().getFirst("format"));
+    }
+
+    private SpokeKeyOutput keyOutput(OutputStream os, boolean binary) {
+        OutputStream output = new BufferedOutputStream(os);
+        return binary ? SpokeKeyCodec.binaryOutput(output) : SpokeKeyOutput.text(output);
+    }
+
     private Response getResponse(String path) {
         logger.trace("time {}", path);
         try {
+            boolean binary = isBinary();
             Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
-                BufferedOutputStream output = new BufferedOutputStream(os);
+                SpokeKeyOutput output = keyOutput(os, binary);
                 spokeStore.readKeysInBucket(path, output);
                 output.flush();
             });
+            if (binary) {
+                builder.type(SpokeKeyCodec.MEDIA_TYPE);
+            }
             return builder.build();
         } catch (Exception e) {
             logger.warn("unable to get " + path, e);
@@ -176,6 +258,11 @@ public class SpokeInternalResource {
             if (read == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
+            if (isBinary()) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                SpokeKeyCodec.write(new DataOutputStream(baos), read);
+                return Response.ok(baos.toByteArray(), SpokeKeyCodec.MEDIA_TYPE).build();
+            }
             return Response.ok(read).build();
         } catch (Exception e) {
             logger.warn("unable to get latest " + channel + " " + path, e);
@@ -188,11 +275,15 @@ public class SpokeInternalResource {
     public Response getNext(@PathParam("channel") String channel, @PathParam("count") int count,
                             @PathParam("startKey") String startKey) {
         try {
+            boolean binary = isBinary();
             Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
-                BufferedOutputStream output = new BufferedOutputStream(os);
+                SpokeKeyOutput output = keyOutput(os, binary);
                 spokeStore.getNext(channel, startKey, count, output);
                 output.flush();
             });
+            if (binary) {
+                builder.type(SpokeKeyCodec.MEDIA_TYPE);
+            }
             return builder.build();
         } catch (Exception e) {
             logger.warn("unable to get next " + channel + " " + startKey, e);
@@ -0,0 +1,118 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+
+/**
+ * A compact encoding for the keys returned by the internal Spoke time, next and latest endpoints.
+ * Each key is [long millis][short hashLength][hash], which avoids building and parsing a
+ * comma separated String on the calling hub.
+ * <p>
+ * Callers request it with ?format=binary, and servers which support it respond with MEDIA_TYPE.
+ */
+class SpokeKeyCodec {
+
+    static final String FORMAT = "binary";
+    static final String MEDIA_TYPE = "application/vnd.hub.keys";
+
+    static SpokeKeyOutput binaryOutput(OutputStream output) {
+        return new BinaryKeyOutput(output);
+    }
+
+    static void write(DataOutputStream output, String key) throws IOException {
+        String url = StringUtils.substringAfter(key, "/");
+        write(output, parseMillis(url), url.substring(24));
+    }
+
+    static void write(DataOutputStream output, long millis, String hash) throws IOException {
+        byte[] bytes = hash.getBytes(StandardCharsets.UTF_8);
+        output.writeLong(millis);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    static void read(InputStream input, Consumer<ContentKey> consumer) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(input));
+        while (true) {
+            long millis;
+            try {
+                millis = stream.readLong();
+            } catch (EOFException e) {
+                return;
+            }
+            byte[] hash = new byte[stream.readShort()];
+            stream.readFully(hash);
+            consumer.accept(new ContentKey(new DateTime(millis, DateTimeZone.UTC), new String(hash, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * @param url yyyy/MM/dd/HH/mm/ss/SSS/hash, or just the time part
+     */
+    static long parseMillis(String url) {
+        return LocalDateTime.of(
+                Integer.parseInt(url.substring(0, 4)),
+                Integer.parseInt(url.substring(5, 7)),
+                Integer.parseInt(url.substring(8, 10)),
+                Integer.parseInt(url.substring(11, 13)),
+                Integer.parseInt(url.substring(14, 16)),
+                Integer.parseInt(url.substring(17, 19)),
+                Integer.parseInt(url.substring(20, 23)) * 1000000)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * @return yyyy/MM/dd/HH/mm/ss/SSS/hash
+     */
+    static String toUrl(long millis, String hash) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1000000, ZoneOffset.UTC);
+        StringBuilder builder = new StringBuilder(24 + hash.length());
+        builder.append(dateTime.getYear()).append('/');
+        pad(builder, dateTime.getMonthValue(), 2).append('/');
+        pad(builder, dateTime.getDayOfMonth(), 2).append('/');
+        pad(builder, dateTime.getHour(), 2).append('/');
+        pad(builder, dateTime.getMinute(), 2).append('/');
+        pad(builder, dateTime.getSecond(), 2).append('/');
+        pad(builder, (int) Math.floorMod(millis, 1000), 3).append('/');
+        return builder.append(hash).toString();
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value, int width) {
+        String string = Integer.toString(value);
+        for (int i = string.length(); i < width; i++) {
+            builder.append('0');
+        }
+        return builder.append(string);
+    }
+
+    private static class BinaryKeyOutput extends SpokeKeyOutput {
+        private final DataOutputStream output;
+
+        private BinaryKeyOutput(OutputStream output) {
+            this.output = new DataOutputStream(output);
+        }
+
+        @Override
+        public void write(String key) throws IOException {
+            SpokeKeyCodec.write(output, key);
+        }
+
+        @Override
+        public void write(String channel, long millis, String hash) throws IOException {
+            SpokeKeyCodec.write(output, millis, hash);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.flightstats.hub.spoke;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory index of the keys stored by a FileSpokeStore, so time, next and latest queries
+ * do not need to list directories.
+ * <p>
+ * Each channel holds its keys by minute, in sorted parallel arrays of millis, hash and when the file was written,
+ * so TTL enforcement by modified time can be mirrored.  The index is loaded from disk in the background,
+ * and queries should only use it once isReady() is true.
+ * <p>
+ * Callers remove keys from the index after deleting their files.  The loader only adds a file which still exists,
+ * under the same channel lock as removals, so a file deleted during loading does not come back as a ghost key.
+ */
+class SpokeKeyIndex {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeKeyIndex.class);
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ConcurrentMap<String, ChannelKeys> channels = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    boolean isReady() {
+        return ready;
+    }
+
+    private void setReady() {
+        ready = true;
+    }
+
+    /**
+     * @param path    channel/yyyy/MM/dd/HH/mm/ss/SSS/hash
+     * @param written when the file was written
+     */
+    void add(String path, long written) {
+        String url = StringUtils.substringAfter(path, "/");
+        getKeys(StringUtils.substringBefore(path, "/")).add(SpokeKeyCodec.parseMillis(url), url.substring(24), written);
+    }
+
+    void remove(String path) {
+        ChannelKeys keys = channels.get(StringUtils.substringBefore(path, "/"));
+        if (keys != null) {
+            String url = StringUtils.substringAfter(path, "/");
+            keys.remove(SpokeKeyCodec.parseMillis(url), url.substring(24));
+        }
+    }
+
+    /**
+     * Removes a channel, or every key within a time path of the channel.
+     */
+    void removePath(String path) {
+        String channel = StringUtils.substringBefore(path, "/");
+        String timePath = StringUtils.removeEnd(StringUtils.substringAfter(path, "/"), "/");
+        if (timePath.isEmpty()) {
+            ChannelKeys keys = channels.remove(channel);
+            if (keys != null) {
+                keys.clear();
+            }
+        } else {
+            ChannelKeys keys = channels.get(channel);
+            if (keys != null) {
+                long[] range = getRange(timePath);
+                keys.removeRange(range[0], range[1]);
+            }
+        }
+    }
+
+    /**
+     * Removes keys with a time before millis.
+     */
+    void removeBefore(String channel, long millis) {
+        ChannelKeys keys = channels.get(channel);
+        if (keys != null) {
+            keys.removeRange(Long.MIN_VALUE, millis);
+        }
+    }
+
+    /**
+     * Removes keys written before millis.
+     */
+    void removeWrittenBefore(String channel, long millis) {
+        ChannelKeys keys = channels.get(channel);
+        if (keys != null) {
+            keys.removeWrittenBefore(millis);
+        }
+    }
+
+    /**
+     * Writes the keys within a time path, such as channel/yyyy/MM/dd/HH.
+     */
+    void keysInBucket(String path, SpokeKeyOutput output) throws IOException {
+        String channel = StringUtils.substringBefore(path, "/");
+        ChannelKeys keys = channels.get(channel);
+        if (keys == null) {
+            return;
+        }
+        long[] range = getRange(StringUtils.removeEnd(StringUtils.substringAfter(path, "/"), "/"));
+        keys.range(range[0], range[1]).writeTo(channel, output);
+    }
+
+    /**
+     * Returns the latest key before limitPath, which is not before earliestMillis.
+     */
+    String latest(String channel, String limitPath, long earliestMillis) {
+        ChannelKeys keys = channels.get(channel);
+        if (keys == null) {
+            return null;
+        }
+        Snapshot latest = keys.latest(SpokeKeyCodec.parseMillis(limitPath), limitPath.substring(24), earliestMillis);
+        if (latest.size == 0) {
+            return null;
+        }
+        return channel + "/" + SpokeKeyCodec.toUrl(latest.millis[0], latest.hashes[0]);
+    }
+
+    /**
+     * Writes at least count keys after startPath and before endMillis, if they exist.
+     * Like the directory scan, it finishes the minute of the last key written.
+     */
+    void next(String channel, String startPath, int count, long endMillis, SpokeKeyOutput output) throws IOException {
+        ChannelKeys keys = channels.get(channel);
+        if (keys == null) {
+            return;
+        }
+        keys.next(SpokeKeyCodec.parseMillis(startPath), startPath.substring(24), count, endMillis).writeTo(channel, output);
+    }
+
+    /**
+     * @return the [start, end) millis of a time path, such as yyyy/MM/dd/HH
+     */
+    private static long[] getRange(String timePath) {
+        String[] split = StringUtils.split(timePath, "/");
+        int[] fields = {0, 1, 1, 0, 0, 0};
+        for (int i = 0; i < split.length && i < fields.length; i++) {
+            fields[i] = Integer.parseInt(split[i]);
+        }
+        LocalDateTime start = LocalDateTime.of(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+        LocalDateTime end;
+        switch (Math.min(split.length, fields.length)) {
+            case 1:
+                end = start.plusYears(1);
+                break;
+            case 2:
+                end = start.plusMonths(1);
+                break;
+            case 3:
+                end = start.plusDays(1);
+                break;
+            case 4:
+                end = start.plusHours(1);
+                break;
+            case 5:
+                end = start.plusMinutes(1);
+                break;
+            default:
+                end = start.plusSeconds(1);
+        }
+        return new long[]{toMillis(start), toMillis(end)};
+    }
+
+    private ChannelKeys getKeys(String channel) {
+        return channels.computeIfAbsent(channel, name -> new ChannelKeys());
+    }
+
+    /**
+     * Adds every complete file below the storage path.
+     */
+    void load(FileSpokeStore spokeStore, File root) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        File[] channelDirectories = root.listFiles(File::isDirectory);
+        if (channelDirectories != null) {
+            for (File channelDirectory : channelDirectories) {
+                count += load(spokeStore, channelDirectory, channelDirectory.getName(), 0);
+            }
+        }
+        setReady();
+        logger.info("loaded {} keys in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    private int load(FileSpokeStore spokeStore, File directory, String path, int depth) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File file : files) {
+            String filePath = path + "/" + file.getName();
+            if (depth < 5 && file.isDirectory()) {
+                count += load(spokeStore, file, filePath, depth + 1);
+            } else if (depth == 5) {
+                try {
+                    String keyPath = spokeStore.spokeKeyFromPath(filePath);
+                    String url = StringUtils.substringAfter(keyPath, "/");
+                    if (getKeys(StringUtils.substringBefore(keyPath, "/")).addIfExists(SpokeKeyCodec.parseMillis(url), url.substring(24), file)) {
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    logger.info("unable to index " + filePath, e);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * @return the latest minute which can not hold millis
+     */
+    private static long minuteBefore(long millis) {
+        return Math.max(millis, Long.MIN_VALUE + MINUTE_MILLIS) - MINUTE_MILLIS;
+    }
+
+    private static int compare(long millis, String hash, long otherMillis, String otherHash) {
+        int compare = Long.compare(millis, otherMillis);
+        return compare != 0 ? compare : hash.compareTo(otherHash);
+    }
+
+    /**
+     * The keys of one channel, by minute.  Queries copy what they need under the lock, and write it outside.
+     */
+    private static class ChannelKeys {
+        private final TreeMap<Long, MinuteKeys> minutes = new TreeMap<>();
+
+        synchronized void add(long millis, String hash, long written) {
+            long minute = millis - Math.floorMod(millis, MINUTE_MILLIS);
+            minutes.computeIfAbsent(minute, key -> new MinuteKeys()).add(millis, hash, written);
+        }
+
+        synchronized boolean addIfExists(long millis, String hash, File file) {
+            if (!file.canExecute()) {
+                return false;
+            }
+            add(millis, hash, file.lastModified());
+            return true;
+        }
+
+        synchronized void remove(long millis, String hash) {
+            long minute = millis - Math.floorMod(millis, MINUTE_MILLIS);
+            MinuteKeys keys = minutes.get(minute);
+            if (keys != null && keys.remove(millis, hash) && keys.size == 0) {
+                minutes.remove(minute);
+            }
+        }
+
+        synchronized void clear() {
+            minutes.clear();
+        }
+
+        synchronized void removeRange(long start, long end) {
+            Iterator<MinuteKeys> iterator = minutes.subMap(minuteBefore(start), false, end, false).values().iterator();
+            while (iterator.hasNext()) {
+                MinuteKeys keys = iterator.next();
+                keys.removeIf((millis, written) -> millis >= start && millis < end);
+                if (keys.size == 0) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        synchronized void removeWrittenBefore(long writtenBefore) {
+            Iterator<MinuteKeys> iterator = minutes.values().iterator();
+            while (iterator.hasNext()) {
+                MinuteKeys keys = iterator.next();
+                keys.removeIf((millis, written) -> written < writtenBefore);
+                if (keys.size == 0) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        synchronized Snapshot range(long start, long end) {
+            Snapshot snapshot = new Snapshot();
+            for (MinuteKeys keys : minutes.subMap(minuteBefore(start), false, end, false).values()) {
+                for (int i = 0; i < keys.size; i++) {
+                    if (keys.millis[i] >= start && keys.millis[i] < end) {
+                        snapshot.add(keys.millis[i], keys.hashes[i]);
+                    }
+                }
+            }
+            return snapshot;
+        }
+
+        synchronized Snapshot latest(long limitMillis, String limitHash, long earliestMillis) {
+            Snapshot snapshot = new Snapshot();
+            for (MinuteKeys keys : minutes.headMap(limitMillis, true).descendingMap().values()) {
+                for (int i = keys.size - 1; i >= 0; i--) {
+                    if (keys.millis[i] < earliestMillis) {
+                        return snapshot;
+                    }
+                    if (compare(keys.millis[i], keys.hashes[i], limitMillis, limitHash) < 0) {
+                        snapshot.add(keys.millis[i], keys.hashes[i]);
+                        return snapshot;
+                    }
+                }
+            }
+            return snapshot;
+        }
+
+        synchronized Snapshot next(long startMillis, String startHash, int count, long endMillis) {
+            Snapshot snapshot = new Snapshot();
+            for (Map.Entry<Long, MinuteKeys> entry : minutes.tailMap(minuteBefore(startMillis), false).entrySet()) {
+                if (snapshot.size >= count || entry.getKey() >= endMillis) {
+                    return snapshot;
+                }
+                MinuteKeys keys = entry.getValue();
+                for (int i = 0; i < keys.size; i++) {
+                    if (keys.millis[i] >= endMillis) {
+                        return snapshot;
+                    }
+                    if (compare(keys.millis[i], keys.hashes[i], startMillis, startHash) > 0) {
+                        snapshot.add(keys.millis[i], keys.hashes[i]);
+                    }
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private interface KeyPredicate {
+        boolean test(long millis, long written);
+    }
+
+    /**
+     * The keys within one minute, sorted by millis and then hash.
+     */
+    private static class MinuteKeys {
+        private long[] millis = new long[4];
+        private String[] hashes = new String[4];
+        private long[] written = new long[4];
+        private int size;
+
+        private int find(long key, String hash) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compare = compare(millis[middle], hashes[middle], key, hash);
+                if (compare < 0) {
+                    low = middle + 1;
+                } else if (compare > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void add(long key, String hash, long writtenMillis) {
+            int index = find(key, hash);
+            if (index >= 0) {
+                written[index] = writtenMillis;
+                return;
+            }
+            index = -(index + 1);
+            if (size == millis.length) {
+                millis = Arrays.copyOf(millis, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                written = Arrays.copyOf(written, size * 2);
+            }
+            System.arraycopy(millis, index, millis, index + 1, size - index);
+            System.arraycopy(hashes, index, hashes, index + 1, size - index);
+            System.arraycopy(written, index, written, index + 1, size - index);
+            millis[index] = key;
+            hashes[index] = hash;
+            written[index] = writtenMillis;
+            size++;
+        }
+
+        boolean remove(long key, String hash) {
+            int index = find(key, hash);
+            if (index < 0) {
+                return false;
+            }
+            int moved = size - index - 1;
+            System.arraycopy(millis, index + 1, millis, index, moved);
+            System.arraycopy(hashes, index + 1, hashes, index, moved);
+            System.arraycopy(written, index + 1, written, index, moved);
+            hashes[--size] = null;
+            return true;
+        }
+
+        void removeIf(KeyPredicate predicate) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!predicate.test(millis[i], written[i])) {
+                    millis[kept] = millis[i];
+                    hashes[kept] = hashes[i];
+                    written[kept] = written[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(hashes, kept, size, null);
+            size = kept;
+        }
+    }
+
+    /**
+     * Keys copied out of the index, so they can be written without holding its lock.
+     */
+    private static class Snapshot {
+        private long[] millis = new long[16];
+        private String[] hashes = new String[16];
+        private int size;
+
+        void add(long key, String hash) {
+            if (size == millis.length) {
+                millis = Arrays.copyOf(millis, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            millis[size] = key;
+            hashes[size] = hash;
+            size++;
+        }
+
+        void writeTo(String channel, SpokeKeyOutput output) throws IOException {
+            for (int i = 0; i < size; i++) {
+                output.write(channel, millis[i], hashes[i]);
+            }
+        }
+    }
+}
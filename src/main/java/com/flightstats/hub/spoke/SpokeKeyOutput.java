@@ -0,0 +1,53 @@
+package com.flightstats.hub.spoke;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where a SpokeStore writes the keys for time and next queries.
+ * Stores which hold keys by time write them as millis and hash, so the binary format needs no parsing.
+ */
+public abstract class SpokeKeyOutput {
+
+    /**
+     * @return an output of comma separated keys
+     */
+    public static SpokeKeyOutput text(OutputStream output) {
+        return new TextKeyOutput(output);
+    }
+
+    /**
+     * @param key channel/yyyy/MM/dd/HH/mm/ss/SSS/hash
+     */
+    public abstract void write(String key) throws IOException;
+
+    public abstract void write(String channel, long millis, String hash) throws IOException;
+
+    public abstract void flush() throws IOException;
+
+    private static class TextKeyOutput extends SpokeKeyOutput {
+        private static final byte[] COMMA = ",".getBytes(StandardCharsets.UTF_8);
+        private final OutputStream output;
+
+        private TextKeyOutput(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(String key) throws IOException {
+            output.write(key.getBytes(StandardCharsets.UTF_8));
+            output.write(COMMA);
+        }
+
+        @Override
+        public void write(String channel, long millis, String hash) throws IOException {
+            write(channel + "/" + SpokeKeyCodec.toUrl(millis, hash));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+    }
+}
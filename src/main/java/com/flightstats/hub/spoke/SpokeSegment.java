@@ -0,0 +1,315 @@
+package com.flightstats.hub.spoke;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An append-only file holding all of the items for one channel and one minute.
+ * <p>
+ * Each record is [int keyLength][key][int payloadLength][payload], where key is the ss/SSS/hash
+ * part of the ContentKey.  A payloadLength of -1 marks the key as deleted.
+ * The offsets of the records are held in memory, and rebuilt by scanning the file on first access.
+ * Reads share one FileChannel, which is closed with the writer when the segment is idle.
+ * Once dropped, a segment refuses writes, so a racing insert can not recreate its file.
+ */
+class SpokeSegment {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeSegment.class);
+    private static final int DELETED = -1;
+
+    private final File file;
+    private final String minutePath;
+    private final long minuteMillis;
+    private volatile ConcurrentSkipListMap<String, Location> index;
+    private FileChannel writer;
+    private long lastWrite;
+    private volatile FileChannel reader;
+    private volatile long lastRead;
+    private boolean dropped;
+
+    SpokeSegment(File file, String minutePath) {
+        this.file = file;
+        this.minutePath = minutePath;
+        this.minuteMillis = SpokeKeyCodec.parseMillis(minutePath + "/00/000");
+    }
+
+    String getMinutePath() {
+        return minutePath;
+    }
+
+    long getMinuteMillis() {
+        return minuteMillis;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    NavigableSet<String> keys() {
+        try {
+            return index().keySet();
+        } catch (IOException e) {
+            logger.warn("unable to load index " + file, e);
+            return Collections.emptyNavigableSet();
+        }
+    }
+
+    synchronized boolean write(String key, byte[] payload) {
+        if (dropped) {
+            return false;
+        }
+        try {
+            ConcurrentSkipListMap<String, Location> locations = index();
+            FileChannel channel = getWriter();
+            long position = channel.size();
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(8 + keyBytes.length);
+            header.putInt(keyBytes.length).put(keyBytes).putInt(payload.length).flip();
+            long payloadPosition = position + header.remaining();
+            writeFully(channel, header, position);
+            writeFully(channel, ByteBuffer.wrap(payload), payloadPosition);
+            locations.put(key, new Location(payloadPosition, payload.length));
+            return true;
+        } catch (IOException e) {
+            logger.info("unable to write " + key + " to " + file, e);
+            return false;
+        }
+    }
+
+    synchronized boolean delete(String key) {
+        if (dropped) {
+            return false;
+        }
+        try {
+            ConcurrentSkipListMap<String, Location> locations = index();
+            if (!locations.containsKey(key)) {
+                return false;
+            }
+            FileChannel channel = getWriter();
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer tombstone = ByteBuffer.allocate(8 + keyBytes.length);
+            tombstone.putInt(keyBytes.length).put(keyBytes).putInt(DELETED).flip();
+            writeFully(channel, tombstone, channel.size());
+            locations.remove(key);
+            return true;
+        } catch (IOException e) {
+            logger.info("unable to delete " + key + " from " + file, e);
+            return false;
+        }
+    }
+
+    boolean read(String key, OutputStream output) throws IOException {
+        Location location = index().get(key);
+        if (location == null) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(location.length, 64 * 1024));
+        long position = location.offset;
+        long end = location.offset + location.length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of " + file);
+            }
+            output.write(buffer.array(), 0, read);
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * Retries once if the shared reader was closed underneath this read.
+     */
+    private int read(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        try {
+            return getReader().read(buffer, position);
+        } catch (ClosedChannelException e) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            buffer.position(start);
+            return getReader().read(buffer, position);
+        }
+    }
+
+    ByteBuffer readBuffer(String key) throws IOException {
+        Location location = index().get(key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return SpokeBuffers.read(getReader(), location.offset, location.length);
+        } catch (ClosedChannelException e) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            return SpokeBuffers.read(getReader(), location.offset, location.length);
+        }
+    }
+
+    synchronized void closeIfIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        if (writer != null && now - lastWrite > idleMillis) {
+            closeWriter();
+        }
+        if (reader != null && now - lastRead > idleMillis) {
+            closeReader();
+        }
+    }
+
+    synchronized void close() {
+        closeWriter();
+        closeReader();
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.info("unable to close " + file, e);
+            }
+            writer = null;
+        }
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.info("unable to close reader " + file, e);
+            }
+            reader = null;
+        }
+    }
+
+    synchronized boolean isDropped() {
+        return dropped;
+    }
+
+    synchronized void drop() {
+        dropped = true;
+        close();
+        index = new ConcurrentSkipListMap<>();
+        if (!file.delete() && file.exists()) {
+            logger.warn("unable to delete segment {}", file);
+        }
+    }
+
+    private FileChannel getReader() throws IOException {
+        lastRead = System.currentTimeMillis();
+        FileChannel channel = reader;
+        if (channel == null || !channel.isOpen()) {
+            synchronized (this) {
+                if (reader == null || !reader.isOpen()) {
+                    reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                channel = reader;
+            }
+        }
+        return channel;
+    }
+
+    private FileChannel getWriter() throws IOException {
+        if (writer == null) {
+            file.getParentFile().mkdirs();
+            writer = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        lastWrite = System.currentTimeMillis();
+        return writer;
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private ConcurrentSkipListMap<String, Location> index() throws IOException {
+        ConcurrentSkipListMap<String, Location> locations = index;
+        if (locations == null) {
+            synchronized (this) {
+                if (index == null) {
+                    index = load();
+                }
+                locations = index;
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Scans the segment for records.  A partial record at the end of the file, from an interrupted write,
+     * is truncated so later appends start from a clean position.
+     */
+    private ConcurrentSkipListMap<String, Location> load() throws IOException {
+        ConcurrentSkipListMap<String, Location> locations = new ConcurrentSkipListMap<>();
+        if (!file.exists()) {
+            return locations;
+        }
+        long length = file.length();
+        long position = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (position + 8 <= length) {
+                int keyLength = input.readInt();
+                if (keyLength <= 0 || position + 8 + keyLength > length) {
+                    break;
+                }
+                byte[] keyBytes = new byte[keyLength];
+                input.readFully(keyBytes);
+                int payloadLength = input.readInt();
+                long payloadPosition = position + 8 + keyLength;
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                if (payloadLength == DELETED) {
+                    locations.remove(key);
+                    position = payloadPosition;
+                    continue;
+                }
+                if (payloadLength < 0 || payloadPosition + payloadLength > length) {
+                    break;
+                }
+                long skipped = input.skip(payloadLength);
+                while (skipped < payloadLength) {
+                    input.readByte();
+                    skipped++;
+                }
+                locations.put(key, new Location(payloadPosition, payloadLength));
+                position = payloadPosition + payloadLength;
+            }
+        }
+        if (position < length) {
+            logger.warn("truncating partial record in {} at {} of {}", file, position, length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+        logger.trace("loaded {} keys from {}", locations.size(), file);
+        return locations;
+    }
+
+    private static class Location {
+        private final long offset;
+        private final int length;
+
+        private Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ChannelConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The local storage for a Spoke server.
+ * Paths are in the form channel/yyyy/MM/dd/HH/mm/ss/SSS/hash
+ * The implementation is selected with the property spoke.store, either 'file' (default) or 'segment'.
+ */
+public interface SpokeStore {
+
+    boolean insert(String path, byte[] payload);
+
+    boolean insert(String path, InputStream input);
+
+    byte[] read(String path);
+
+    void read(String path, OutputStream output);
+
+    /**
+     * Large payloads are returned as a read only mapping of the file, smaller payloads are read onto the heap.
+     *
+     * @throws javax.ws.rs.NotFoundException if the path does not exist
+     */
+    ByteBuffer readBuffer(String path) throws IOException;
+
+    String readKeysInBucket(String path);
+
+    void readKeysInBucket(String path, SpokeKeyOutput output);
+
+    boolean delete(String path) throws Exception;
+
+    boolean deleteFile(String path) throws Exception;
+
+    String getLatest(String channel, String limitPath);
+
+    /**
+     * This may return more than the request count, as this does not do any sorting.
+     */
+    void getNext(String channel, String startKey, int count, SpokeKeyOutput output) throws IOException;
+
+    void enforceTtl(ChannelConfig channel, int ttlMinutes);
+
+    /**
+     * Called after the directory for channel has been removed by something other than delete().
+     */
+    void removed(String channel);
+}
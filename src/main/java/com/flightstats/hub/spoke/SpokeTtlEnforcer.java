@@ -5,12 +5,9 @@ import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
 import com.flightstats.hub.model.ChannelConfig;
-import com.flightstats.hub.util.Commander;
-import com.flightstats.hub.util.TimeUtil;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +21,8 @@ public class SpokeTtlEnforcer {
     private final int ttlMinutes = HubProperties.getSpokeTtl() + 1;
     @Inject
     private ChannelService channelService;
+    @Inject
+    private SpokeStore spokeStore;
 
     @Inject
     public SpokeTtlEnforcer() {
@@ -33,18 +32,7 @@ public class SpokeTtlEnforcer {
     }
 
     private Consumer<ChannelConfig> handleCleanup() {
-        return channel -> {
-            String channelPath = storagePath + "/" + channel.getName();
-            if (channel.isLive()) {
-                DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
-                for (int i = 0; i < 2; i++) {
-                    Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i))}, 1);
-                    Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.hours(ttlDateTime.minusHours(i + 1))}, 5);
-                }
-            } else {
-                Commander.run(new String[]{"find", channelPath, "-mmin", "+" + ttlMinutes, "-delete"}, 1);
-            }
-        };
+        return channel -> spokeStore.enforceTtl(channel, ttlMinutes);
     }
 
     private class SpokeTtlEnforcerService extends AbstractScheduledService {
@@ -53,7 +41,7 @@ public class SpokeTtlEnforcer {
             try {
                 long start = System.currentTimeMillis();
                 logger.info("running ttl cleanup");
-                TtlEnforcer.enforce(storagePath, channelService, handleCleanup());
+                TtlEnforcer.enforce(storagePath, channelService, handleCleanup(), spokeStore::removed);
                 logger.info("completed ttl cleanup {}", (System.currentTimeMillis() - start));
             } catch (Exception e) {
                 logger.info("issue cleaning up spoke", e);
@@ -0,0 +1,77 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.app.HubProperties;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses large byte arrays, to keep multi-megabyte payloads out of the garbage collector's way.
+ * <p>
+ * Sizes are rounded up to a quarter of a power of two (5MB, 6MB, 7MB, 8MB, 10MB ...), so an array is
+ * at most 25% larger than asked for.  Arrays smaller than 64KB are not pooled.
+ * At most app.bufferPool.maxMB of idle arrays are kept, anything released beyond that is dropped.
+ */
+public class BufferPool {
+
+    static final int MIN_POOLED = 64 * 1024;
+
+    private static final BufferPool instance = new BufferPool(HubProperties.getProperty("app.bufferPool.maxMB", 256) * 1024L * 1024);
+
+    private final long maxIdleBytes;
+    private final Map<Integer, Queue<byte[]>> idle = new ConcurrentHashMap<>();
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    BufferPool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return an array at least size long, which should be given back with release()
+     */
+    public byte[] acquire(int size) {
+        int rounded = roundSize(size);
+        if (rounded < MIN_POOLED) {
+            return new byte[size];
+        }
+        Queue<byte[]> queue = idle.get(rounded);
+        if (queue != null) {
+            byte[] bytes = queue.poll();
+            if (bytes != null) {
+                idleBytes.addAndGet(-bytes.length);
+                return bytes;
+            }
+        }
+        return new byte[rounded];
+    }
+
+    public void release(byte[] bytes) {
+        if (bytes == null || bytes.length < MIN_POOLED || roundSize(bytes.length) != bytes.length) {
+            return;
+        }
+        if (idleBytes.addAndGet(bytes.length) > maxIdleBytes) {
+            idleBytes.addAndGet(-bytes.length);
+            return;
+        }
+        idle.computeIfAbsent(bytes.length, length -> new ConcurrentLinkedQueue<>()).add(bytes);
+    }
+
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    static int roundSize(int size) {
+        if (size <= MIN_POOLED) {
+            return size;
+        }
+        int step = Integer.highestOneBit(size - 1) / 4;
+        return (int) Math.min(Integer.MAX_VALUE, ((size + (long) step - 1) / step) * step);
+    }
+}
@@ -1,16 +1,25 @@
 package com.flightstats.hub.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 public class Chunk {
 
+    private final BufferPool pool;
     private int count;
     private int chunkSize;
     private byte[] bytes;
     private int index = 0;
 
     Chunk(int count, int chunkSize) {
+        this(count, chunkSize, BufferPool.getInstance());
+    }
+
+    Chunk(int count, int chunkSize, BufferPool pool) {
+        this.pool = pool;
         this.count = count;
         this.chunkSize = chunkSize;
-        bytes = new byte[chunkSize];
+        bytes = pool.acquire(chunkSize);
     }
 
     /**
@@ -26,6 +35,16 @@ public class Chunk {
         return true;
     }
 
+    /**
+     * @return the number of bytes added, which is less than len if the chunk is full.
+     */
+    int add(byte[] b, int off, int len) {
+        int added = Math.min(len, chunkSize - index);
+        System.arraycopy(b, off, bytes, index, added);
+        index += added;
+        return added;
+    }
+
     boolean isFull() {
         return index >= chunkSize;
     }
@@ -35,7 +54,7 @@ public class Chunk {
     }
 
     public byte[] getBytes() {
-        if (isFull()) {
+        if (isFull() && bytes.length == chunkSize) {
             return bytes;
         }
         byte[] partial = new byte[index];
@@ -43,7 +62,26 @@ public class Chunk {
         return partial;
     }
 
+    /**
+     * @return the bytes added, without a copy
+     */
+    public InputStream getStream() {
+        return new ByteArrayInputStream(bytes, 0, index);
+    }
+
+    public int getSize() {
+        return index;
+    }
+
     public int getCount() {
         return count;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gives the buffer back to the pool.  The chunk can not be used afterwards.
+     */
+    void release() {
+        pool.release(bytes);
+        bytes = null;
+    }
+}
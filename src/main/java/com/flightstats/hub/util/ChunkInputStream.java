@@ -0,0 +1,175 @@
+package com.flightstats.hub.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an object of a known length as concurrent ranged reads, and returns the bytes in order.
+ * <p>
+ * Parts are sized by ChunkStrategy, like the parts written by ChunkOutputStream.
+ * Up to readAhead parts are read ahead of the one being returned, so at most readAhead + 1 parts are in memory.
+ * Part buffers come from the BufferPool, and go back as soon as they have been read.
+ */
+public class ChunkInputStream extends InputStream {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkInputStream.class);
+
+    public interface RangeReader {
+        /**
+         * Reads length bytes starting at offset into bytes.
+         */
+        void read(long offset, byte[] bytes, int length) throws IOException;
+    }
+
+    private final long length;
+    private final int readAhead;
+    private final ExecutorService executorService;
+    private final RangeReader reader;
+    private final BufferPool pool;
+    private final Deque<Part> parts = new ArrayDeque<>();
+    private long nextOffset;
+    private int nextCount = 1;
+    private Part current;
+    private int position;
+    private boolean closed;
+
+    public ChunkInputStream(long length, int readAhead, ExecutorService executorService, RangeReader reader) {
+        this(length, readAhead, executorService, reader, BufferPool.getInstance());
+    }
+
+    ChunkInputStream(long length, int readAhead, ExecutorService executorService, RangeReader reader, BufferPool pool) {
+        this.length = length;
+        this.readAhead = Math.max(1, readAhead);
+        this.executorService = executorService;
+        this.reader = reader;
+        this.pool = pool;
+        logger.debug("creating ChunkInputStream for {} bytes with {} read ahead", length, readAhead);
+        submitParts();
+    }
+
+    /**
+     * @return true if an object of length has more than one part
+     */
+    public static boolean isChunked(long length) {
+        return length > ChunkStrategy.getSize(1);
+    }
+
+    private void submitParts() {
+        while (parts.size() < readAhead && nextOffset < length) {
+            int count = nextCount;
+            long offset = nextOffset;
+            int size = (int) Math.min(ChunkStrategy.getSize(count), length - offset);
+            Future<byte[]> future = executorService.submit(() -> {
+                byte[] bytes = pool.acquire(size);
+                try {
+                    reader.read(offset, bytes, size);
+                    return bytes;
+                } catch (Exception e) {
+                    pool.release(bytes);
+                    throw e;
+                }
+            });
+            parts.add(new Part(count, size, future));
+            nextOffset += size;
+            nextCount++;
+        }
+    }
+
+    private boolean nextPart() throws IOException {
+        releaseCurrent();
+        Part part = parts.poll();
+        if (part == null) {
+            return false;
+        }
+        try {
+            part.bytes = part.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted reading part " + part.count);
+        } catch (ExecutionException e) {
+            throw new IOException("unable to read part " + part.count, e.getCause());
+        }
+        submitParts();
+        current = part;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.size) {
+            if (!nextPart()) {
+                return -1;
+            }
+        }
+        int read = Math.min(len, current.size - position);
+        System.arraycopy(current.bytes, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.size - position;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseCurrent();
+        for (Part part : parts) {
+            if (!part.future.cancel(true)) {
+                try {
+                    pool.release(part.future.get());
+                } catch (Exception e) {
+                    logger.trace("part {} failed", part.count);
+                }
+            }
+        }
+        parts.clear();
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            pool.release(current.bytes);
+            current = null;
+        }
+    }
+
+    private static class Part {
+        private final int count;
+        private final int size;
+        private final Future<byte[]> future;
+        private byte[] bytes;
+
+        private Part(int count, int size, Future<byte[]> future) {
+            this.count = count;
+            this.size = size;
+            this.future = future;
+        }
+    }
+}
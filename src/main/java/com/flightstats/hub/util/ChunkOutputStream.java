@@ -13,8 +13,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+/**
+ * Splits a stream into chunks sized by ChunkStrategy, and calls chunkFunction for each on one of threads.
+ * <p>
+ * At most threads chunks are sent at a time; once they are all in flight, writes wait for one to finish,
+ * so memory is bounded to threads + 1 chunks.  Chunk buffers come from the BufferPool, and go back
+ * as soon as chunkFunction returns.  If a chunk fails, further writes fail rather than sending the rest.
+ */
 public class ChunkOutputStream extends OutputStream {
     private static final Logger logger = LoggerFactory.getLogger(ChunkOutputStream.class);
 
@@ -23,30 +32,98 @@ public class ChunkOutputStream extends OutputStream {
     private int count = 1;
     private Chunk chunk = new Chunk(count, ChunkStrategy.getSize(count));
     private Function<Chunk, String> chunkFunction;
+    private final Semaphore inFlight;
+    private volatile Throwable failure;
+    private long waitMillis;
 
     public ChunkOutputStream(int threads, Function<Chunk, String> chunkFunction) {
         this.chunkFunction = chunkFunction;
         service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+        inFlight = new Semaphore(threads);
         logger.info("creating ChunkOutputStream with {} threads", threads);
     }
 
     public void write(int b) throws IOException {
         if (!chunk.add(b)) {
-            sendChunk(chunk);
-            count++;
-            chunk = new Chunk(count, ChunkStrategy.getSize(count));
+            nextChunk();
             chunk.add(b);
         }
     }
 
-    private void sendChunk(Chunk chunk) {
-        futures.add(service.submit(() -> chunkFunction.apply(chunk)));
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (chunk.isFull()) {
+                nextChunk();
+            }
+            int added = chunk.add(b, off, len);
+            off += added;
+            len -= added;
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        sendChunk(chunk);
+        count++;
+        chunk = new Chunk(count, ChunkStrategy.getSize(count));
+    }
+
+    private void sendChunk(Chunk chunk) throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            chunk.release();
+            throw new RuntimeInterruptedException(e);
+        }
+        waitMillis += System.currentTimeMillis() - start;
+        if (failure != null) {
+            inFlight.release();
+            chunk.release();
+            service.shutdown();
+            throw new IOException("unable to send chunk", failure);
+        }
+        futures.add(service.submit(() -> {
+            try {
+                return chunkFunction.apply(chunk);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                chunk.release();
+                inFlight.release();
+            }
+        }));
+    }
+
+    /**
+     * @return how long writes have waited for a chunk to finish
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * Stops sending chunks, for an upload which is abandoned before close().
+     * Returns once chunks in flight have finished, so none are sent after the upload is aborted.
+     */
+    public void abort() {
+        service.shutdownNow();
+        try {
+            if (!service.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("chunks still in flight after abort");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
     public void close() throws IOException {
         if (chunk.hasData()) {
             sendChunk(chunk);
+        } else {
+            chunk.release();
         }
         ListenableFuture<String> allFutures = Futures.whenAllSucceed(futures).call(() -> "ok");
         try {
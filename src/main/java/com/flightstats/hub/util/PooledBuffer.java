@@ -0,0 +1,133 @@
+package com.flightstats.hub.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The first length bytes of an array from the BufferPool, shared by reference counting.
+ * <p>
+ * The buffer starts with one reference, for its creator.  Each concurrent reader calls retain() first and
+ * release() when it is done, and the array goes back to the pool when the last reference is released.
+ * The bytes must not be read after release().
+ */
+public class PooledBuffer {
+
+    private final byte[] bytes;
+    private final int length;
+    private final BufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private PooledBuffer(byte[] bytes, int length, BufferPool pool) {
+        this.bytes = bytes;
+        this.length = length;
+        this.pool = pool;
+    }
+
+    /**
+     * @return a buffer of bytes, which are not returned to the pool
+     */
+    public static PooledBuffer wrap(byte[] bytes) {
+        return new PooledBuffer(bytes, bytes.length, null);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public InputStream getStream() {
+        return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    public PooledBuffer retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0 && pool != null) {
+            pool.release(bytes);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("buffer released too many times");
+        }
+    }
+
+    int getReferences() {
+        return references.get();
+    }
+
+    /**
+     * Writes into arrays from the pool, growing by doubling.
+     * toBuffer() hands the array to a PooledBuffer, otherwise discard() returns it.
+     */
+    public static class Output extends OutputStream {
+
+        private final BufferPool pool;
+        private byte[] bytes;
+        private int count;
+
+        public Output(int initialSize) {
+            this(BufferPool.getInstance(), initialSize);
+        }
+
+        Output(BufferPool pool, int initialSize) {
+            this.pool = pool;
+            this.bytes = pool.acquire(Math.max(256, initialSize));
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int size) {
+            if (bytes == null) {
+                throw new IllegalStateException("output is closed");
+            }
+            if (size > bytes.length) {
+                byte[] larger = pool.acquire((int) Math.min(Integer.MAX_VALUE - 8, Math.max(size, bytes.length * 2L)));
+                System.arraycopy(bytes, 0, larger, 0, count);
+                pool.release(bytes);
+                bytes = larger;
+            }
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public PooledBuffer toBuffer() {
+            PooledBuffer buffer = new PooledBuffer(bytes, count, pool);
+            bytes = null;
+            return buffer;
+        }
+
+        public void discard() {
+            if (bytes != null) {
+                pool.release(bytes);
+                bytes = null;
+            }
+        }
+    }
+}
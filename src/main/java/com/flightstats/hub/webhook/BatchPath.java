@@ -0,0 +1,103 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.ContentPathKeys;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A BatchPath is the ContentKeys delivered in one BATCH webhook call.
+ * It is ordered and stored as its last key, so lastCompleted is a ContentKey, and in ZooKeeper
+ * it is the first and last keys, so an in flight batch can be queried again.
+ */
+class BatchPath implements ContentPathKeys {
+
+    private final List<ContentKey> keys;
+
+    BatchPath(List<ContentKey> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("a batch requires at least one key");
+        }
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+    }
+
+    BatchPath(ContentKey key) {
+        this(Collections.singletonList(key));
+    }
+
+    ContentKey getFirst() {
+        return keys.get(0);
+    }
+
+    ContentKey getLast() {
+        return keys.get(keys.size() - 1);
+    }
+
+    @Override
+    public List<ContentKey> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        return getLast().toBytes();
+    }
+
+    @Override
+    public String toUrl() {
+        return getLast().toUrl();
+    }
+
+    @Override
+    public DateTime getTime() {
+        return getLast().getTime();
+    }
+
+    @Override
+    public String toZk() {
+        if (keys.size() == 1) {
+            return getLast().toZk();
+        }
+        return getFirst().toZk() + "," + getLast().toZk();
+    }
+
+    @Override
+    public BatchPath fromZk(String value) {
+        List<ContentKey> found = new ArrayList<>();
+        for (String key : value.split(",")) {
+            found.add(getFirst().fromZk(key));
+        }
+        return new BatchPath(found);
+    }
+
+    @Override
+    public int compareTo(ContentPath other) {
+        if (other instanceof BatchPath) {
+            return getLast().compareTo(((BatchPath) other).getLast());
+        }
+        return getLast().compareTo(other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof BatchPath)) return false;
+        BatchPath other = (BatchPath) o;
+        return getFirst().equals(other.getFirst()) && getLast().equals(other.getLast());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{getFirst(), getLast()});
+    }
+
+    @Override
+    public String toString() {
+        return getFirst() + "," + getLast() + " (" + keys.size() + ")";
+    }
+}
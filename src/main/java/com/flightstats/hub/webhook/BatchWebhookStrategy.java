@@ -0,0 +1,190 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers up to maxItems URIs per call, sending a batch as soon as it reaches maxItems or maxBytes,
+ * or maxWaitMillis after its first key arrived.
+ * <p>
+ * Keys are found by a SingleWebhookStrategy.  Each batch is a BatchPath, so completing it completes its last key.
+ */
+class BatchWebhookStrategy implements WebhookStrategy {
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchWebhookStrategy.class);
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+
+    private final Webhook webhook;
+    private final ChannelService channelService;
+    private final SingleWebhookStrategy singleStrategy;
+    private final WebhookDelivery webhookDelivery;
+    private final WebhookPipeline<ContentPath> pipeline;
+    private final AtomicBoolean shouldExit = new AtomicBoolean(false);
+    private ExecutorService executorService;
+
+    BatchWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                         WebhookDelivery webhookDelivery) {
+        this.webhook = webhook;
+        this.channelService = channelService;
+        this.singleStrategy = new SingleWebhookStrategy(webhook.withHeartbeat(false), lastContentPath, channelService, webhookDelivery);
+        this.webhookDelivery = webhookDelivery;
+        this.pipeline = new WebhookPipeline<>(webhook, "batches");
+    }
+
+    @Override
+    public ContentPath getStartingPath() {
+        return singleStrategy.getStartingPath();
+    }
+
+    @Override
+    public ContentPath getLastCompleted() {
+        return singleStrategy.getLastCompleted();
+    }
+
+    @Override
+    public void start(Webhook webhook, ContentPath startingPath) {
+        singleStrategy.start(webhook.withHeartbeat(false), startingPath);
+        webhookDelivery.track(pipeline);
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("batch-webhook-" + webhook.getName() + "-%s").build();
+        executorService = Executors.newSingleThreadExecutor(factory);
+        executorService.submit(() -> {
+            try {
+                batch();
+            } catch (InterruptedException | RuntimeInterruptedException e) {
+                logger.info("InterruptedException with " + webhook.getName());
+            } catch (Exception e) {
+                logger.warn("unexpected issue with " + webhook.getName(), e);
+            }
+        });
+    }
+
+    private void batch() throws InterruptedException {
+        List<ContentKey> keys = new ArrayList<>();
+        List<ContentPath> available = new ArrayList<>();
+        int bytes = 0;
+        long sendTime = 0;
+        while (!shouldExit.get()) {
+            long wait = keys.isEmpty() ? TimeUnit.SECONDS.toMillis(1) : sendTime - System.currentTimeMillis();
+            Optional<ContentPath> next = wait > 0 ? singleStrategy.next(wait) : Optional.absent();
+            if (next.isPresent()) {
+                available.add(next.get());
+                singleStrategy.drain(available, webhook.getMaxItems());
+                for (ContentPath path : available) {
+                    if (!(path instanceof ContentKey)) {
+                        continue;
+                    }
+                    ContentKey key = (ContentKey) path;
+                    int size = getSize(key);
+                    if (!keys.isEmpty() && bytes + size > webhook.getMaxBytes()) {
+                        keys = send(keys);
+                        bytes = 0;
+                    }
+                    if (keys.isEmpty()) {
+                        sendTime = System.currentTimeMillis() + webhook.getMaxWaitMillis();
+                    }
+                    keys.add(key);
+                    bytes += size;
+                    if (keys.size() >= webhook.getMaxItems() || bytes >= webhook.getMaxBytes()) {
+                        keys = send(keys);
+                        bytes = 0;
+                    }
+                }
+                available.clear();
+            } else if (!keys.isEmpty() && System.currentTimeMillis() >= sendTime) {
+                keys = send(keys);
+                bytes = 0;
+            }
+        }
+    }
+
+    private List<ContentKey> send(List<ContentKey> keys) throws InterruptedException {
+        BatchPath batchPath = new BatchPath(keys);
+        logger.trace("batch {} {}", webhook.getName(), batchPath);
+        pipeline.put(batchPath);
+        return new ArrayList<>();
+    }
+
+    /**
+     * The bytes each key adds to the response body.
+     */
+    int getSize(ContentKey key) {
+        return webhook.getChannelUrl().length() + key.toUrl().length() + 4;
+    }
+
+    @Override
+    public Optional<ContentPath> next() {
+        try {
+            return Optional.fromNullable(pipeline.poll(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        }
+    }
+
+    @Override
+    public ObjectNode createResponse(ContentPath contentPath) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("name", webhook.getName());
+        response.put("id", contentPath.toUrl());
+        ArrayNode uris = response.putArray("uris");
+        for (ContentKey key : ((BatchPath) contentPath).getKeys()) {
+            uris.add(webhook.getChannelUrl() + "/" + key.toUrl());
+        }
+        response.put("type", "items");
+        return response;
+    }
+
+    /**
+     * In flight batches only keep their first and last keys, so find the keys between them.
+     */
+    @Override
+    public ContentPath inProcess(ContentPath contentPath) {
+        BatchPath batchPath = (BatchPath) contentPath;
+        List<ContentKey> keys = new ArrayList<>();
+        keys.add(batchPath.getFirst());
+        if (!batchPath.getFirst().equals(batchPath.getLast())) {
+            DirectionQuery query = DirectionQuery.builder()
+                    .channelName(webhook.getChannelName())
+                    .startKey(batchPath.getFirst())
+                    .next(true)
+                    .count(webhook.getMaxItems())
+                    .build();
+            SortedSet<ContentKey> found = channelService.query(query);
+            for (ContentKey key : found) {
+                if (key.compareTo(batchPath.getLast()) <= 0) {
+                    keys.add(key);
+                }
+            }
+        }
+        return new BatchPath(keys);
+    }
+
+    @Override
+    public WebhookCatchUp getCatchUp() {
+        return singleStrategy.getCatchUp();
+    }
+
+    @Override
+    public void close() {
+        singleStrategy.close();
+        webhookDelivery.untrack(pipeline);
+        WebhookStrategy.close(shouldExit, executorService, pipeline);
+    }
+}
@@ -0,0 +1,140 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Node local results of stable second and minute queries, shared by every WebhookStrategy on a channel.
+ * <p>
+ * Strategies acquire() their channel when they start and release() it when they close.  While more than one
+ * strategy holds a channel, the first to ask for a query runs it, and the others wait for and share its result.
+ * Results are dropped after webhook.keyCache.ageSeconds, or when the last strategy releases the channel.
+ */
+@Singleton
+class ChannelKeyCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChannelKeyCache.class);
+
+    private final ConcurrentMap<String, ChannelKeys> channels = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final long maxAgeMillis;
+    private final MetricsService metricsService;
+
+    @Inject
+    ChannelKeyCache(MetricsService metricsService) {
+        this(metricsService, TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.keyCache.ageSeconds", 120)));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("channel-key-cache").setDaemon(true).build());
+        scheduler.scheduleAtFixedRate(this::evictAndReport, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @VisibleForTesting
+    ChannelKeyCache(MetricsService metricsService, long maxAgeMillis) {
+        this.metricsService = metricsService;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    void acquire(String channel) {
+        channels.compute(channel, (name, channelKeys) -> {
+            if (channelKeys == null) {
+                channelKeys = new ChannelKeys();
+            }
+            channelKeys.refs++;
+            return channelKeys;
+        });
+    }
+
+    void release(String channel) {
+        channels.computeIfPresent(channel, (name, channelKeys) -> --channelKeys.refs <= 0 ? null : channelKeys);
+    }
+
+    /**
+     * @param query  a stable query, whose results will not change
+     * @param loader runs the query when no other strategy has
+     */
+    Collection<ContentKey> get(TimeQuery query, Supplier<Collection<ContentKey>> loader) {
+        ChannelKeys channelKeys = channels.get(query.getChannelName());
+        if (channelKeys == null || channelKeys.refs < 2) {
+            return load(loader);
+        }
+        String key = query.getUnit() + "|" + query.getLocation() + "|" + query.getEpoch() + "|" + query.getStartTime().getMillis();
+        Entry entry = new Entry();
+        Entry existing = channelKeys.entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            try {
+                Collection<ContentKey> keys = existing.future.get();
+                hits.incrementAndGet();
+                metricsService.count("webhook.keyCache", 1, "result:hit");
+                return keys;
+            } catch (InterruptedException e) {
+                throw new RuntimeInterruptedException(e);
+            } catch (ExecutionException e) {
+                logger.debug("shared query failed {}", key);
+                return load(loader);
+            }
+        }
+        try {
+            Collection<ContentKey> keys = load(loader);
+            entry.future.complete(keys);
+            return keys;
+        } catch (RuntimeException e) {
+            channelKeys.entries.remove(key, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Collection<ContentKey> load(Supplier<Collection<ContentKey>> loader) {
+        queries.incrementAndGet();
+        metricsService.count("webhook.keyCache", 1, "result:query");
+        return Collections.unmodifiableList(new ArrayList<>(loader.get()));
+    }
+
+    @VisibleForTesting
+    void evictAndReport() {
+        try {
+            long oldest = System.currentTimeMillis() - maxAgeMillis;
+            for (ChannelKeys channelKeys : channels.values()) {
+                channelKeys.entries.values().removeIf(entry -> entry.created < oldest);
+            }
+            long hitCount = hits.getAndSet(0);
+            long queryCount = queries.getAndSet(0);
+            metricsService.gauge("webhook.keyCache.sharedRatio", queryCount == 0 ? 0 : (double) hitCount / queryCount);
+        } catch (Exception e) {
+            logger.warn("unable to evict", e);
+        }
+    }
+
+    @VisibleForTesting
+    int size(String channel) {
+        ChannelKeys channelKeys = channels.get(channel);
+        return channelKeys == null ? 0 : channelKeys.entries.size();
+    }
+
+    private static class ChannelKeys {
+        private volatile int refs;
+        private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    }
+
+    private static class Entry {
+        private final long created = System.currentTimeMillis();
+        private final CompletableFuture<Collection<ContentKey>> future = new CompletableFuture<>();
+    }
+}
@@ -4,14 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
 import com.flightstats.hub.model.ContentPath;
 import org.joda.time.DateTime;
 
-import javax.ws.rs.GET;
-import javax.ws.rs.Path;
-import javax.ws.rs.PathParam;
-import javax.ws.rs.Produces;
+import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Map;
@@ -29,6 +28,7 @@ public class InternalWebhookResource {
 
     private final static ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
     private final static WebhookService webhookService = HubProvider.getInstance(WebhookService.class);
+    private final static ChannelKeyNotifier channelKeyNotifier = HubProvider.getInstance(ChannelKeyNotifier.class);
 
     @Context
     private UriInfo uriInfo;
@@ -43,12 +43,14 @@ public class InternalWebhookResource {
         directions.put("configs", "HTTP GET to /internal/webhook/configs to list all webhook configurations");
         directions.put("stale", "HTTP GET to /internal/webhook/stale/{age} to list webhooks that are more than {age} minutes behind.");
         directions.put("errors", "HTTP GET to /internal/webhook/errors to list all webhooks with recent errors.");
+        directions.put("nodes", "HTTP GET to /internal/webhook/nodes to list the number of webhooks each hub leads.");
 
         ObjectNode links = root.putObject("_links");
         addLink(links, "self", uriInfo.getRequestUri().toString());
         addLink(links, "configs", uriInfo.getRequestUri().toString() + "/configs");
         addLink(links, "stale", uriInfo.getRequestUri().toString() + "/stale/" + DEFAULT_STALE_AGE.intValue());
         addLink(links, "errors", uriInfo.getRequestUri().toString() + "/errors");
+        addLink(links, "nodes", uriInfo.getRequestUri().toString() + "/nodes");
 
         return Response.ok(root).build();
     }
@@ -118,6 +120,25 @@ public class InternalWebhookResource {
         return Response.ok(root).build();
     }
 
+    @GET
+    @Path("/nodes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response nodes() {
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode links = root.putObject("_links");
+        addLink(links, "self", uriInfo.getRequestUri().toString());
+        WebhookResource.addNodes(root);
+        return Response.ok(root).build();
+    }
+
+    @POST
+    @Path("/notify")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response receiveNotification(String report) throws IOException {
+        channelKeyNotifier.receive((ObjectNode) mapper.readTree(report));
+        return Response.ok().build();
+    }
+
     private void addLink(ObjectNode node, String key, String value) {
         node.putObject(key).put("href", value);
     }
@@ -3,45 +3,63 @@ package com.flightstats.hub.webhook;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.exception.NoSuchChannelException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
-import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
 
 class SingleWebhookStrategy implements WebhookStrategy {
 
     private final static Logger logger = LoggerFactory.getLogger(SingleWebhookStrategy.class);
     private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final long STABLE_MILLIS = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("app.stable_seconds", 5));
+    private static final long IDLE_MILLIS = HubProperties.getProperty("webhook.push.waitMillis", 10 * 1000);
     private final Webhook webhook;
     private final LastContentPath lastContentPath;
     private final ChannelService channelService;
+    private final ChannelKeyNotifier channelKeyNotifier;
+    private final ChannelKeyCache channelKeyCache;
+    private final WebhookDelivery webhookDelivery;
     private AtomicBoolean shouldExit = new AtomicBoolean(false);
     private AtomicBoolean error = new AtomicBoolean(false);
-    private BlockingQueue<ContentPath> queue;
+    private AtomicBoolean acquired = new AtomicBoolean(false);
+    private final WebhookPipeline<ContentPath> pipeline;
     private String channel;
     private QueryGenerator queryGenerator;
+    private volatile WebhookCatchUp catchUp;
     private ExecutorService executorService;
+    private final Set<Future<?>> prefetching = ConcurrentHashMap.newKeySet();
+    private final Object wake = new Object();
+    private long wakeAt = Long.MAX_VALUE;
+    private final LongConsumer listener = this::onKey;
 
 
-    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                          WebhookDelivery webhookDelivery) {
         this.webhook = webhook;
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
-        this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
+        this.channelKeyNotifier = webhookDelivery.getChannelKeyNotifier();
+        this.channelKeyCache = webhookDelivery.getChannelKeyCache();
+        this.webhookDelivery = webhookDelivery;
+        this.pipeline = new WebhookPipeline<>(webhook, "keys");
     }
 
     @Override
@@ -81,24 +99,69 @@ class SingleWebhookStrategy implements WebhookStrategy {
     }
 
     public Optional<ContentPath> next() {
+        return next(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    Optional<ContentPath> next(long timeoutMillis) {
         if (error.get()) {
             logger.error("unable to determine next");
         }
         try {
-            return Optional.fromNullable(queue.poll(10, TimeUnit.SECONDS));
+            return Optional.fromNullable(pipeline.poll(timeoutMillis, TimeUnit.MILLISECONDS));
         } catch (InterruptedException e) {
             throw new RuntimeInterruptedException(e);
         }
     }
 
+    /**
+     * Moves up to max paths which are already available into target, without waiting.
+     */
+    int drain(Collection<? super ContentPath> target, int max) {
+        return pipeline.drain(target, max);
+    }
+
+    /**
+     * Wakes the strategy once a new key is stable, and can be queried.
+     */
+    private void onKey(long millis) {
+        synchronized (wake) {
+            wakeAt = Math.min(wakeAt, millis - millis % 1000 + 1000 + STABLE_MILLIS + 10);
+            wake.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until untilMillis, or until a new key can be queried.
+     */
+    private void waitForKeys(long untilMillis) throws InterruptedException {
+        synchronized (wake) {
+            long now = System.currentTimeMillis();
+            while (now < untilMillis && now < wakeAt) {
+                wake.wait(Math.min(untilMillis, wakeAt) - now);
+                now = System.currentTimeMillis();
+            }
+            wakeAt = Long.MAX_VALUE;
+        }
+    }
+
     public void start(Webhook webhook, ContentPath startingPath) {
         channel = webhook.getChannelName();
+        channelKeyNotifier.subscribe(channel, listener);
         queryGenerator = new QueryGenerator(startingPath.getTime(), channel);
+        catchUp = new WebhookCatchUp(webhook.getName(), startingPath.getTime());
+        int prefetch = HubProperties.getProperty("webhook.catchup.prefetch", 4);
+        int prefetchKeys = HubProperties.getProperty("webhook.catchup.prefetchKeys", 10 * 1000);
+        int spokeTtlMinutes = HubProperties.getSpokeTtl();
+        channelKeyCache.acquire(channel);
+        acquired.set(true);
+        webhookDelivery.track(pipeline);
         ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("single-webhook-" + webhook.getName() + "-%s").build();
         executorService = Executors.newSingleThreadExecutor(factory);
+        ExecutorService prefetchService = webhookDelivery.getQueryExecutor();
         executorService.submit(new Runnable() {
 
             ContentPath lastAdded = startingPath;
+            Deque<PendingQuery> pending = new ArrayDeque<>();
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
 
             @Override
@@ -106,7 +169,7 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 try {
                     while (!shouldExit.get()) {
                         if (!doWork()) {
-                            Sleeper.sleep(1000);
+                            idle();
                         }
                     }
                 } catch (InterruptedException | RuntimeInterruptedException e) {
@@ -121,34 +184,124 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private boolean doWork() throws InterruptedException {
-                ActiveTraces.start("SingleWebhookStrategy", webhook);
-                try {
-                    DateTime latestStableInChannel = TimeUtil.stable();
-                    if (!channelConfig.isLive()) {
-                        latestStableInChannel = channelService.getLastUpdated(channel, MinutePath.NONE).getTime();
+            /**
+             * Waits for the next second, or when every hub is reporting new keys, until one is stable,
+             * up to webhook.push.waitMillis or the next heartbeat.
+             */
+            private void idle() throws InterruptedException {
+                long now = System.currentTimeMillis();
+                long until = now + 1000 - now % 1000 + 10;
+                if (channelConfig.isLive() && channelKeyNotifier.isReporting()) {
+                    until = now + IDLE_MILLIS;
+                    if (webhook.isHeartbeat()) {
+                        long minute = TimeUnit.MINUTES.toMillis(1);
+                        until = Math.min(until, now - now % minute + minute + STABLE_MILLIS + 1010);
                     }
+                }
+                waitForKeys(until);
+            }
+
+            /**
+             * Queues the keys of the next range.  While catching up, the queries for up to webhook.catchup.prefetch
+             * following ranges run in the background on the shared query workers, so they are ready when the pipeline
+             * drains.  No more are started while the finished ones hold webhook.catchup.prefetchKeys keys.
+             */
+            private boolean doWork() throws InterruptedException {
+                DateTime latestStableInChannel = TimeUtil.stable();
+                if (!channelConfig.isLive()) {
+                    latestStableInChannel = channelService.getLastUpdated(channel, MinutePath.NONE).getTime();
+                }
+                boolean catchingUp = catchUp.update(catchUp.getPosition(), latestStableInChannel);
+                int depth = catchingUp ? prefetch : 1;
+                while (pending.size() < depth && getPrefetchedKeys() < prefetchKeys) {
                     TimeQuery timeQuery = queryGenerator.getQuery(latestStableInChannel);
-                    if (timeQuery != null) {
-                        addKeys(channelService.queryByTime(timeQuery));
-                        if (webhook.isHeartbeat() && queryGenerator.getLastQueryTime().getSecondOfMinute() == 0) {
-                            MinutePath minutePath = new MinutePath(queryGenerator.getLastQueryTime().minusMinutes(1));
-                            logger.debug("sending heartbeat {}", minutePath);
-                            addKey(minutePath);
-                        }
-                        return true;
+                    if (timeQuery == null) {
+                        break;
+                    }
+                    DateTime end = queryGenerator.getLastQueryTime();
+                    if (catchingUp && timeQuery.getLocation().equals(Location.ALL)) {
+                        timeQuery = timeQuery.withLocation(WebhookCatchUp.getLocation(channelConfig, end, spokeTtlMinutes));
                     }
+                    pending.add(new PendingQuery(end, find(timeQuery, end, catchingUp)));
+                }
+                PendingQuery next = pending.poll();
+                if (next == null) {
                     return false;
+                }
+                Collection<ContentKey> keys;
+                try {
+                    keys = next.keys.get();
+                } catch (ExecutionException e) {
+                    Throwables.throwIfUnchecked(e.getCause());
+                    throw new RuntimeException(e.getCause());
                 } finally {
-                    ActiveTraces.end();
+                    prefetching.remove(next.keys);
                 }
+                addKeys(keys);
+                catchUp.queued(keys.size());
+                if (webhook.isHeartbeat() && next.end.getSecondOfMinute() == 0) {
+                    MinutePath minutePath = new MinutePath(next.end.minusMinutes(1));
+                    logger.debug("sending heartbeat {}", minutePath);
+                    addKey(minutePath);
+                }
+                catchUp.update(next.end, latestStableInChannel);
+                return true;
+            }
+
+            private int getPrefetchedKeys() throws InterruptedException {
+                int keys = 0;
+                for (PendingQuery query : pending) {
+                    if (query.keys.isDone() && !query.keys.isCancelled()) {
+                        try {
+                            keys += query.keys.get().size();
+                        } catch (ExecutionException e) {
+                            logger.debug("failed prefetch is thrown when it is next", e);
+                        }
+                    }
+                }
+                return keys;
+            }
+
+            private Future<Collection<ContentKey>> find(TimeQuery timeQuery, DateTime end, boolean background) {
+                Callable<Collection<ContentKey>> callable = () -> {
+                    ActiveTraces.start("SingleWebhookStrategy", webhook, timeQuery);
+                    try {
+                        if (!channelConfig.isLive()
+                                || !channelKeyNotifier.hasNoKeys(channel, timeQuery.getStartTime(), end)) {
+                            Collection<ContentKey> keys = query(timeQuery);
+                            if (logger.isTraceEnabled()) {
+                                ActiveTraces.getLocal().log(logger);
+                            }
+                            return keys;
+                        }
+                        return Collections.emptyList();
+                    } finally {
+                        ActiveTraces.end();
+                    }
+                };
+                if (background) {
+                    Future<Collection<ContentKey>> future = prefetchService.submit(callable);
+                    prefetching.add(future);
+                    return future;
+                }
+                try {
+                    return CompletableFuture.completedFuture(callable.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            private Collection<ContentKey> query(TimeQuery timeQuery) {
+                if (timeQuery.getUnit().lessThanOrEqual(TimeUtil.Unit.MINUTES)) {
+                    return channelKeyCache.get(timeQuery, () -> channelService.queryByTime(timeQuery));
+                }
+                return channelService.queryByTime(timeQuery);
             }
 
             private void addKeys(Collection<ContentKey> keys) throws InterruptedException {
                 logger.debug("channel {} keys {}", channel, keys);
-                if (logger.isTraceEnabled()) {
-                    ActiveTraces.getLocal().log(logger);
-                }
                 for (ContentKey key : keys) {
                     addKey(key);
                 }
@@ -156,7 +309,7 @@ class SingleWebhookStrategy implements WebhookStrategy {
 
             private void addKey(ContentPath key) throws InterruptedException {
                 if (key.compareTo(lastAdded) > 0) {
-                    queue.put(key);
+                    pipeline.put(key);
                     lastAdded = key;
                 }
             }
@@ -166,8 +319,35 @@ class SingleWebhookStrategy implements WebhookStrategy {
     }
 
 
+    @Override
+    public WebhookCatchUp getCatchUp() {
+        WebhookCatchUp current = catchUp;
+        return current != null && current.isActive() ? current : null;
+    }
+
+    private static class PendingQuery {
+        private final DateTime end;
+        private final Future<Collection<ContentKey>> keys;
+
+        private PendingQuery(DateTime end, Future<Collection<ContentKey>> keys) {
+            this.end = end;
+            this.keys = keys;
+        }
+    }
+
     @Override
     public void close() {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+        for (Future<?> future : prefetching) {
+            future.cancel(true);
+        }
+        prefetching.clear();
+        if (acquired.compareAndSet(true, false)) {
+            channelKeyCache.release(channel);
+        }
+        if (channel != null) {
+            channelKeyNotifier.unsubscribe(channel, listener);
+        }
+        webhookDelivery.untrack(pipeline);
+        WebhookStrategy.close(shouldExit, executorService, pipeline);
     }
 }
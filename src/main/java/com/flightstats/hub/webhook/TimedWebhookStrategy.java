@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.metrics.ActiveTraces;
@@ -11,7 +12,6 @@ import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.joda.time.Minutes;
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
@@ -30,6 +31,7 @@ import java.util.stream.Collectors;
 class TimedWebhookStrategy implements WebhookStrategy {
 
     private final static Logger logger = LoggerFactory.getLogger(TimedWebhookStrategy.class);
+    private static final long FULL_MILLIS = 100;
 
     private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
     private final Webhook webhook;
@@ -37,9 +39,16 @@ class TimedWebhookStrategy implements WebhookStrategy {
     private final ChannelService channelService;
     private AtomicBoolean shouldExit = new AtomicBoolean(false);
     private AtomicBoolean error = new AtomicBoolean(false);
-    private BlockingQueue<ContentPathKeys> queue;
+    private AtomicBoolean acquired = new AtomicBoolean(false);
+    private final WebhookPipeline<ContentPathKeys> pipeline;
     private String channel;
-    private ScheduledExecutorService executorService;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService queryExecutor;
+    private final ChannelKeyNotifier channelKeyNotifier;
+    private final ChannelKeyCache channelKeyCache;
+    private final WebhookDelivery webhookDelivery;
+    private volatile ScheduledFuture<?> scheduled;
+    private volatile Future<?> running;
 
     // time unit specific functions
     private TimeUtil.Unit unit;
@@ -52,12 +61,18 @@ class TimedWebhookStrategy implements WebhookStrategy {
     private Function<DateTime, DateTime> getNextTime;
     private Duration duration;
 
-    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                         WebhookDelivery webhookDelivery) {
         this.webhook = webhook;
+        this.scheduler = webhookDelivery.getScheduler();
+        this.queryExecutor = webhookDelivery.getQueryExecutor();
+        this.channelKeyNotifier = webhookDelivery.getChannelKeyNotifier();
+        this.channelKeyCache = webhookDelivery.getChannelKeyCache();
         this.channel = webhook.getChannelName();
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
-        this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
+        this.webhookDelivery = webhookDelivery;
+        this.pipeline = new WebhookPipeline<>(webhook, "keys");
         if (webhook.isSecond()) {
             secondConfig();
         } else {
@@ -141,21 +156,29 @@ class TimedWebhookStrategy implements WebhookStrategy {
         return lastContentPath.getOrNull(webhook.getName(), WebhookLeader.WEBHOOK_LAST_COMPLETED);
     }
 
+    /**
+     * Queries run on the shared query workers, timed by the shared scheduler.
+     * Rather than blocking a shared thread when the pipeline is full, it stops and runs again shortly.
+     */
     @Override
     public void start(Webhook webhook, ContentPath startingPath) {
-        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(webhook.getBatch() + "-webhook-" + webhook.getName() + "-%s").build();
-        executorService = Executors.newSingleThreadScheduledExecutor(factory);
         logger.info("starting {} with starting path {}", webhook, startingPath);
-        executorService.scheduleAtFixedRate(new Runnable() {
+        channelKeyCache.acquire(channel);
+        acquired.set(true);
+        webhookDelivery.track(pipeline);
+        schedule(new Runnable() {
 
             ContentPath lastAdded = startingPath;
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
 
             @Override
             public void run() {
+                String name = Thread.currentThread().getName();
+                Thread.currentThread().setName(name + "|" + webhook.getBatch() + "-webhook-" + webhook.getName());
                 try {
                     if (!shouldExit.get()) {
-                        doWork();
+                        boolean full = doWork();
+                        schedule(this, full ? FULL_MILLIS : TimeUnit.SECONDS.toMillis(getDelaySeconds()));
                     }
                 } catch (InterruptedException | RuntimeInterruptedException e) {
                     error.set(true);
@@ -163,10 +186,15 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 } catch (Exception e) {
                     error.set(true);
                     logger.warn("unexpected issue with " + channel, e);
+                } finally {
+                    Thread.currentThread().setName(name);
                 }
             }
 
-            private void doWork() throws InterruptedException {
+            /**
+             * @return true if the pipeline is full
+             */
+            private boolean doWork() throws InterruptedException {
                 DateTime nextTime = getNextTime.apply(lastAdded.getTime());
                 if (lastAdded instanceof ContentKey) {
                     nextTime = lastAdded.getTime();
@@ -182,16 +210,19 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 }
                 logger.debug("lastAdded {} nextTime {} stable {}", lastAdded, nextTime, stable);
                 while (nextTime.isBefore(stable)) {
+                    if (pipeline.remainingCapacity() == 0) {
+                        return true;
+                    }
                     try {
                         ActiveTraces.start("TimedWebhookStrategy.doWork", webhook);
-                        Collection<ContentKey> keys = queryKeys(nextTime)
+                        Collection<ContentKey> keys = queryKeys(nextTime, channelConfig.isLive())
                                 .stream()
                                 .filter(key -> key.compareTo(lastAdded) > 0)
                                 .collect(Collectors.toCollection(ArrayList::new));
 
                         ContentPathKeys nextPath = newTime.apply(nextTime, keys);
                         logger.trace("results {} {} {}", channel, nextPath, nextPath.getKeys());
-                        queue.put(nextPath);
+                        pipeline.offer(nextPath);
                         lastAdded = nextPath;
                         determineStrategy(lastAdded.getTime());
                         nextTime = getNextTime.apply(lastAdded.getTime());
@@ -199,9 +230,33 @@ class TimedWebhookStrategy implements WebhookStrategy {
                         ActiveTraces.end();
                     }
                 }
+                return false;
             }
 
-        }, getOffsetSeconds.get(), period, TimeUnit.SECONDS);
+        }, TimeUnit.SECONDS.toMillis(getOffsetSeconds.get()));
+    }
+
+    private void schedule(Runnable runnable, long delayMillis) {
+        if (!shouldExit.get()) {
+            scheduled = scheduler.schedule(() -> {
+                running = queryExecutor.submit(runnable);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int getDelaySeconds() {
+        if (period == 1) {
+            return 1;
+        }
+        int offset = getOffsetSeconds.get();
+        return offset == 0 ? period : offset;
+    }
+
+    private Collection<ContentKey> queryKeys(DateTime time, boolean live) {
+        if (live && channelKeyNotifier.hasNoKeys(channel, time, time.plus(unit.getDuration()))) {
+            return Collections.emptyList();
+        }
+        return queryKeys(time);
     }
 
     private Collection<ContentKey> queryKeys(DateTime time) {
@@ -212,7 +267,7 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 .stable(true)
                 .epoch(Epoch.IMMUTABLE)
                 .build();
-        return channelService.queryByTime(timeQuery);
+        return channelKeyCache.get(timeQuery, () -> channelService.queryByTime(timeQuery));
     }
 
     @Override
@@ -221,7 +276,7 @@ class TimedWebhookStrategy implements WebhookStrategy {
             throw new RuntimeException("unable to determine next");
         }
         try {
-            return Optional.fromNullable(queue.poll(10, TimeUnit.MINUTES));
+            return Optional.fromNullable(pipeline.poll(10, TimeUnit.MINUTES));
         } catch (InterruptedException e) {
             throw new RuntimeInterruptedException(e);
         }
@@ -256,7 +311,19 @@ class TimedWebhookStrategy implements WebhookStrategy {
     }
 
     @Override
-    public void close() throws Exception {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+    public void close() {
+        if (acquired.compareAndSet(true, false)) {
+            channelKeyCache.release(channel);
+        }
+        webhookDelivery.untrack(pipeline);
+        WebhookStrategy.close(shouldExit, null, pipeline);
+        ScheduledFuture<?> future = scheduled;
+        if (future != null) {
+            future.cancel(false);
+        }
+        Future<?> work = running;
+        if (work != null) {
+            work.cancel(true);
+        }
     }
 }
@@ -28,6 +28,7 @@ public class Webhook implements Comparable<Webhook>, NamedType {
     public static final String SINGLE = "SINGLE";
     public static final String MINUTE = "MINUTE";
     public static final String SECOND = "SECOND";
+    public static final String BATCH = "BATCH";
     private final static Logger logger = LoggerFactory.getLogger(Webhook.class);
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final Gson gson = new GsonBuilder().create();
@@ -43,9 +44,14 @@ public class Webhook implements Comparable<Webhook>, NamedType {
     private final Integer maxWaitMinutes;
     private final Integer callbackTimeoutSeconds;
     private final boolean fastForwardable;
-
-    @java.beans.ConstructorProperties({"callbackUrl", "channelUrl", "parallelCalls", "name", "startingKey", "batch", "heartbeat", "paused", "ttlMinutes", "maxWaitMinutes", "callbackTimeoutSeconds"})
-    private Webhook(String callbackUrl, String channelUrl, Integer parallelCalls, String name, ContentPath startingKey, String batch, boolean heartbeat, boolean paused, Integer ttlMinutes, Integer maxWaitMinutes, Integer callbackTimeoutSeconds, boolean fastForwardable) {
+    private final Integer maxItems;
+    private final Integer maxBytes;
+    private final Integer maxWaitMillis;
+    private final boolean inlinePayloads;
+
+    @java.beans.ConstructorProperties({"callbackUrl", "channelUrl", "parallelCalls", "name", "startingKey", "batch", "heartbeat", "paused", "ttlMinutes", "maxWaitMinutes", "callbackTimeoutSeconds", "fastForwardable", "maxItems", "maxBytes", "maxWaitMillis", "inlinePayloads"})
+    private Webhook(String callbackUrl, String channelUrl, Integer parallelCalls, String name, ContentPath startingKey, String batch, boolean heartbeat, boolean paused, Integer ttlMinutes, Integer maxWaitMinutes, Integer callbackTimeoutSeconds, boolean fastForwardable,
+                    Integer maxItems, Integer maxBytes, Integer maxWaitMillis, boolean inlinePayloads) {
         this.callbackUrl = callbackUrl;
         this.channelUrl = channelUrl;
         this.parallelCalls = parallelCalls;
@@ -58,6 +64,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         this.maxWaitMinutes = maxWaitMinutes;
         this.callbackTimeoutSeconds = callbackTimeoutSeconds;
         this.fastForwardable = fastForwardable;
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+        this.maxWaitMillis = maxWaitMillis;
+        this.inlinePayloads = inlinePayloads;
     }
 
     public static Webhook fromJson(String json, Optional<Webhook> webhookOptional) {
@@ -75,7 +85,11 @@ public class Webhook implements Comparable<Webhook>, NamedType {
                     .maxWaitMinutes(existing.maxWaitMinutes)
                     .callbackTimeoutSeconds(existing.callbackTimeoutSeconds)
                     .heartbeat(existing.heartbeat)
-                    .fastForwardable(existing.fastForwardable);
+                    .fastForwardable(existing.fastForwardable)
+                    .maxItems(existing.maxItems)
+                    .maxBytes(existing.maxBytes)
+                    .maxWaitMillis(existing.maxWaitMillis)
+                    .inlinePayloads(existing.inlinePayloads);
         }
         try {
             JsonNode root = mapper.readTree(json);
@@ -129,6 +143,18 @@ public class Webhook implements Comparable<Webhook>, NamedType {
             if (root.has("fastForwardable")) {
                 builder.fastForwardable(root.get("fastForwardable").asBoolean());
             }
+            if (root.has("maxItems")) {
+                builder.maxItems(root.get("maxItems").intValue());
+            }
+            if (root.has("maxBytes")) {
+                builder.maxBytes(root.get("maxBytes").intValue());
+            }
+            if (root.has("maxWaitMillis")) {
+                builder.maxWaitMillis(root.get("maxWaitMillis").intValue());
+            }
+            if (root.has("inlinePayloads")) {
+                builder.inlinePayloads(root.get("inlinePayloads").asBoolean());
+            }
         } catch (IOException e) {
             logger.warn("unable to parse json" + json, e);
             throw new InvalidRequestException(e.getMessage());
@@ -207,6 +233,19 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         if (callbackTimeoutSeconds == null) {
             webhook = webhook.withCallbackTimeoutSeconds(HubProperties.getCallbackTimeoutDefault());
         }
+        if (webhook.isBatch() || webhook.isInlinePayloads()) {
+            if (maxBytes == null) {
+                webhook = webhook.withMaxBytes(HubProperties.getProperty("webhook.batch.maxBytes", 1024 * 1024));
+            }
+        }
+        if (webhook.isBatch()) {
+            if (maxItems == null) {
+                webhook = webhook.withMaxItems(HubProperties.getProperty("webhook.batch.maxItems", 100));
+            }
+            if (maxWaitMillis == null) {
+                webhook = webhook.withMaxWaitMillis(HubProperties.getProperty("webhook.batch.maxWaitMillis", 1000));
+            }
+        }
         return webhook;
     }
 
@@ -218,6 +257,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         return SECOND.equalsIgnoreCase(getBatch());
     }
 
+    public boolean isBatch() {
+        return BATCH.equalsIgnoreCase(getBatch());
+    }
+
     public Integer getTtlMinutes() {
         if (ttlMinutes == null) {
             return 0;
@@ -274,6 +317,22 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         return this.fastForwardable;
     }
 
+    public Integer getMaxItems() {
+        return this.maxItems;
+    }
+
+    public Integer getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public Integer getMaxWaitMillis() {
+        return this.maxWaitMillis;
+    }
+
+    public boolean isInlinePayloads() {
+        return this.inlinePayloads;
+    }
+
     public boolean equals(Object o) {
         if (o == this) return true;
         if (!(o instanceof Webhook)) return false;
@@ -311,6 +370,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         final Object other$callbackTimeoutSeconds = other.getCallbackTimeoutSeconds();
         if (this$callbackTimeoutSeconds == null ? other$callbackTimeoutSeconds != null : !this$callbackTimeoutSeconds.equals(other$callbackTimeoutSeconds))
             return false;
+        if (!Objects.equals(this.getMaxItems(), other.getMaxItems())) return false;
+        if (!Objects.equals(this.getMaxBytes(), other.getMaxBytes())) return false;
+        if (!Objects.equals(this.getMaxWaitMillis(), other.getMaxWaitMillis())) return false;
+        if (this.isInlinePayloads() != other.isInlinePayloads()) return false;
         return true;
     }
 
@@ -335,6 +398,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         result = result * PRIME + ($maxWaitMinutes == null ? 43 : $maxWaitMinutes.hashCode());
         final Object $callbackTimeoutSeconds = this.getCallbackTimeoutSeconds();
         result = result * PRIME + ($callbackTimeoutSeconds == null ? 43 : $callbackTimeoutSeconds.hashCode());
+        result = result * PRIME + Objects.hashCode(this.getMaxItems());
+        result = result * PRIME + Objects.hashCode(this.getMaxBytes());
+        result = result * PRIME + Objects.hashCode(this.getMaxWaitMillis());
+        result = result * PRIME + (this.isInlinePayloads() ? 79 : 97);
         return result;
     }
 
@@ -343,47 +410,63 @@ public class Webhook implements Comparable<Webhook>, NamedType {
     }
 
     public String toString() {
-        return "com.flightstats.hub.webhook.Webhook(callbackUrl=" + this.getCallbackUrl() + ", channelUrl=" + this.getChannelUrl() + ", parallelCalls=" + this.getParallelCalls() + ", name=" + this.getName() + ", startingKey=" + this.getStartingKey() + ", batch=" + this.getBatch() + ", heartbeat=" + this.isHeartbeat() + ", paused=" + this.isPaused() + ", ttlMinutes=" + this.getTtlMinutes() + ", maxWaitMinutes=" + this.getMaxWaitMinutes() + ", callbackTimeoutSeconds=" + this.getCallbackTimeoutSeconds() + ")";
+        return "com.flightstats.hub.webhook.Webhook(callbackUrl=" + this.getCallbackUrl() + ", channelUrl=" + this.getChannelUrl() + ", parallelCalls=" + this.getParallelCalls() + ", name=" + this.getName() + ", startingKey=" + this.getStartingKey() + ", batch=" + this.getBatch() + ", heartbeat=" + this.isHeartbeat() + ", paused=" + this.isPaused() + ", ttlMinutes=" + this.getTtlMinutes() + ", maxWaitMinutes=" + this.getMaxWaitMinutes() + ", callbackTimeoutSeconds=" + this.getCallbackTimeoutSeconds() + ", maxItems=" + this.getMaxItems() + ", maxBytes=" + this.getMaxBytes() + ", maxWaitMillis=" + this.getMaxWaitMillis() + ", inlinePayloads=" + this.isInlinePayloads() + ")";
     }
 
     public Webhook withParallelCalls(Integer parallelCalls) {
-        return this.parallelCalls == parallelCalls ? this : new Webhook(this.callbackUrl, this.channelUrl, parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.parallelCalls == parallelCalls ? this : new Webhook(this.callbackUrl, this.channelUrl, parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withName(String name) {
-        return this.name == name ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.name == name ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withStartingKey(ContentPath startingKey) {
-        return this.startingKey == startingKey ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.startingKey == startingKey ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withBatch(String batch) {
-        return this.batch == batch ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.batch == batch ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withHeartbeat(boolean heartbeat) {
-        return this.heartbeat == heartbeat ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.heartbeat == heartbeat ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withPaused(boolean paused) {
-        return this.paused == paused ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.paused == paused ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withTtlMinutes(Integer ttlMinutes) {
-        return this.ttlMinutes == ttlMinutes ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.ttlMinutes == ttlMinutes ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withMaxWaitMinutes(Integer maxWaitMinutes) {
-        return this.maxWaitMinutes == maxWaitMinutes ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable);
+        return this.maxWaitMinutes == maxWaitMinutes ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withCallbackTimeoutSeconds(Integer callbackTimeoutSeconds) {
-        return this.callbackTimeoutSeconds == callbackTimeoutSeconds ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, callbackTimeoutSeconds, this.fastForwardable);
+        return this.callbackTimeoutSeconds == callbackTimeoutSeconds ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
     }
 
     public Webhook withFastForwardable(boolean fastForwardable) {
-        return this.fastForwardable == fastForwardable ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, callbackTimeoutSeconds, this.fastForwardable);
+        return this.fastForwardable == fastForwardable ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
+    }
+
+    public Webhook withMaxItems(Integer maxItems) {
+        return this.maxItems == maxItems ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, maxItems, this.maxBytes, this.maxWaitMillis, this.inlinePayloads);
+    }
+
+    public Webhook withMaxBytes(Integer maxBytes) {
+        return this.maxBytes == maxBytes ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, maxBytes, this.maxWaitMillis, this.inlinePayloads);
+    }
+
+    public Webhook withMaxWaitMillis(Integer maxWaitMillis) {
+        return this.maxWaitMillis == maxWaitMillis ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, maxWaitMillis, this.inlinePayloads);
+    }
+
+    public Webhook withInlinePayloads(boolean inlinePayloads) {
+        return this.inlinePayloads == inlinePayloads ? this : new Webhook(this.callbackUrl, this.channelUrl, this.parallelCalls, this.name, this.startingKey, this.batch, this.heartbeat, this.paused, this.ttlMinutes, this.maxWaitMinutes, this.callbackTimeoutSeconds, this.fastForwardable, this.maxItems, this.maxBytes, this.maxWaitMillis, inlinePayloads);
     }
 
     public static class WebhookBuilder {
@@ -399,6 +482,10 @@ public class Webhook implements Comparable<Webhook>, NamedType {
         private Integer maxWaitMinutes;
         private Integer callbackTimeoutSeconds;
         private boolean fastForwardable;
+        private Integer maxItems;
+        private Integer maxBytes;
+        private Integer maxWaitMillis;
+        private boolean inlinePayloads;
 
         WebhookBuilder() {
         }
@@ -463,12 +550,32 @@ public class Webhook implements Comparable<Webhook>, NamedType {
             return this;
         }
 
+        public Webhook.WebhookBuilder maxItems(Integer maxItems) {
+            this.maxItems = maxItems;
+            return this;
+        }
+
+        public Webhook.WebhookBuilder maxBytes(Integer maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Webhook.WebhookBuilder maxWaitMillis(Integer maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public Webhook.WebhookBuilder inlinePayloads(boolean inlinePayloads) {
+            this.inlinePayloads = inlinePayloads;
+            return this;
+        }
+
         public Webhook build() {
-            return new Webhook(callbackUrl, channelUrl, parallelCalls, name, startingKey, batch, heartbeat, paused, ttlMinutes, maxWaitMinutes, callbackTimeoutSeconds, fastForwardable);
+            return new Webhook(callbackUrl, channelUrl, parallelCalls, name, startingKey, batch, heartbeat, paused, ttlMinutes, maxWaitMinutes, callbackTimeoutSeconds, fastForwardable, maxItems, maxBytes, maxWaitMillis, inlinePayloads);
         }
 
         public String toString() {
-            return "com.flightstats.hub.webhook.Webhook.WebhookBuilder(callbackUrl=" + this.callbackUrl + ", channelUrl=" + this.channelUrl + ", parallelCalls=" + this.parallelCalls + ", name=" + this.name + ", startingKey=" + this.startingKey + ", batch=" + this.batch + ", heartbeat=" + this.heartbeat + ", paused=" + this.paused + ", ttlMinutes=" + this.ttlMinutes + ", maxWaitMinutes=" + this.maxWaitMinutes + ", callbackTimeoutSeconds=" + this.callbackTimeoutSeconds + ")";
+            return "com.flightstats.hub.webhook.Webhook.WebhookBuilder(callbackUrl=" + this.callbackUrl + ", channelUrl=" + this.channelUrl + ", parallelCalls=" + this.parallelCalls + ", name=" + this.name + ", startingKey=" + this.startingKey + ", batch=" + this.batch + ", heartbeat=" + this.heartbeat + ", paused=" + this.paused + ", ttlMinutes=" + this.ttlMinutes + ", maxWaitMinutes=" + this.maxWaitMinutes + ", callbackTimeoutSeconds=" + this.callbackTimeoutSeconds + ", maxItems=" + this.maxItems + ", maxBytes=" + this.maxBytes + ", maxWaitMillis=" + this.maxWaitMillis + ", inlinePayloads=" + this.inlinePayloads + ")";
         }
     }
 }
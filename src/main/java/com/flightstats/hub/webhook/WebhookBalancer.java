@@ -0,0 +1,221 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.MetricsService;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Spreads webhook leadership across the hubs in the cluster.
+ * <p>
+ * Every webhook.balance.intervalSeconds, each hub writes the number of webhooks it leads and their calls per minute
+ * to an ephemeral node under /WebhookNodes, and reads every other hub's.  A hub which leads more than
+ * webhook.balance.ratio above the average, and at least webhook.balance.margin more than the average, releases
+ * enough webhooks (up to webhook.balance.maxRelease) to come back to the average, least busy first.
+ * A hub with a similar number of webhooks, but more than webhook.balance.ratio above the average calls,
+ * releases the busiest webhook which would not make the next leader the busiest hub.
+ * <p>
+ * Released webhooks are requeued, so one of the hubs already waiting takes them.  To avoid flapping, only
+ * webhooks led for webhook.balance.minLeadSeconds are released, and a hub waits webhook.balance.cooldownSeconds
+ * after releasing before it releases any more.
+ */
+@Singleton
+class WebhookBalancer {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookBalancer.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    static final String NODES_PATH = "/WebhookNodes";
+
+    private final CuratorFramework curator;
+    private final MetricsService metricsService;
+    private final String server = HubHost.getLocalNamePort();
+    private final boolean enabled = HubProperties.getProperty("webhook.balance.enabled", true);
+    private final long intervalMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.balance.intervalSeconds", 60));
+    private final long minLeadMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.balance.minLeadSeconds", 300));
+    private final long cooldownMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.balance.cooldownSeconds", 300));
+    private final double ratio = HubProperties.getProperty("webhook.balance.ratio", 0.2);
+    private final int margin = HubProperties.getProperty("webhook.balance.margin", 2);
+    private final int maxRelease = HubProperties.getProperty("webhook.balance.maxRelease", 5);
+
+    private volatile Supplier<Collection<WebhookLeader>> leaders;
+    private volatile List<Node> nodes = Collections.emptyList();
+    private long lastRelease;
+
+    @Inject
+    WebhookBalancer(CuratorFramework curator, MetricsService metricsService) {
+        this.curator = curator;
+        this.metricsService = metricsService;
+    }
+
+    void start(Supplier<Collection<WebhookLeader>> leaders) {
+        this.leaders = leaders;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("webhook-balancer").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        try {
+            Map<WebhookLeader, Long> calls = new HashMap<>();
+            long total = 0;
+            for (WebhookLeader leader : leaders.get()) {
+                long leaderCalls = leader.takeCalls() * TimeUnit.MINUTES.toMillis(1) / intervalMillis;
+                if (leader.isLeader()) {
+                    calls.put(leader, leaderCalls);
+                    total += leaderCalls;
+                }
+            }
+            Node local = new Node(server, calls.size(), total);
+            publish(local);
+            nodes = read();
+            metricsService.gauge("webhook.leaders", calls.size());
+            if (enabled && System.currentTimeMillis() - lastRelease >= cooldownMillis) {
+                release(local, calls);
+            }
+        } catch (Exception e) {
+            logger.warn("unable to balance webhooks", e);
+        }
+    }
+
+    private void release(Node local, Map<WebhookLeader, Long> calls) {
+        Map<String, Long> candidates = new HashMap<>();
+        Map<String, WebhookLeader> byName = new HashMap<>();
+        for (Map.Entry<WebhookLeader, Long> entry : calls.entrySet()) {
+            WebhookLeader leader = entry.getKey();
+            if (leader.getLeaderMillis() >= minLeadMillis) {
+                String name = leader.getWebhook().getName();
+                candidates.put(name, entry.getValue());
+                byName.put(name, leader);
+            }
+        }
+        List<String> toRelease = choose(local, nodes, candidates, ratio, margin, maxRelease);
+        if (toRelease.isEmpty()) {
+            return;
+        }
+        logger.info("releasing {} of {} webhooks {}, nodes {}", toRelease.size(), local.getLeaders(), toRelease, nodes);
+        lastRelease = System.currentTimeMillis();
+        for (String name : toRelease) {
+            byName.get(name).release();
+        }
+        metricsService.count("webhook.balance.released", toRelease.size());
+    }
+
+    /**
+     * @return the webhooks local should release, from candidates and their calls per minute
+     */
+    @VisibleForTesting
+    static List<String> choose(Node local, Collection<Node> nodes, Map<String, Long> candidates,
+                               double ratio, int margin, int maxRelease) {
+        if (nodes.size() < 2 || candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        double averageLeaders = nodes.stream().mapToLong(Node::getLeaders).average().orElse(0);
+        double averageCalls = nodes.stream().mapToLong(Node::getCalls).average().orElse(0);
+        List<String> byCalls = new ArrayList<>(candidates.keySet());
+        byCalls.sort(Comparator.comparing(candidates::get));
+        if (local.getLeaders() > averageLeaders * (1 + ratio) && local.getLeaders() - averageLeaders >= margin) {
+            int count = (int) Math.min(maxRelease, local.getLeaders() - Math.ceil(averageLeaders));
+            return byCalls.subList(0, Math.min(count, byCalls.size()));
+        }
+        if (local.getLeaders() > 1 && local.getCalls() > averageCalls * (1 + ratio)) {
+            long lowest = nodes.stream().mapToLong(Node::getCalls).min().orElse(0);
+            long gap = local.getCalls() - lowest;
+            for (int i = byCalls.size() - 1; i >= 0; i--) {
+                long webhookCalls = candidates.get(byCalls.get(i));
+                if (webhookCalls > 0 && webhookCalls * 2 <= gap) {
+                    return Collections.singletonList(byCalls.get(i));
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private void publish(Node local) throws Exception {
+        byte[] bytes = local.toJson().toString().getBytes();
+        String path = NODES_PATH + "/" + server;
+        try {
+            curator.setData().forPath(path, bytes);
+        } catch (KeeperException.NoNodeException e) {
+            curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, bytes);
+        }
+    }
+
+    private List<Node> read() throws Exception {
+        List<Node> found = new ArrayList<>();
+        for (String child : curator.getChildren().forPath(NODES_PATH)) {
+            try {
+                byte[] bytes = curator.getData().forPath(NODES_PATH + "/" + child);
+                found.add(Node.fromJson(mapper.readTree(bytes)));
+            } catch (KeeperException.NoNodeException e) {
+                logger.debug("node departed {}", child);
+            }
+        }
+        found.sort(Comparator.comparing(Node::getServer));
+        return found;
+    }
+
+    /**
+     * @return the latest leader counts and calls per minute of each hub
+     */
+    List<Node> getNodes() {
+        return nodes;
+    }
+
+    static class Node {
+        private final String server;
+        private final long leaders;
+        private final long calls;
+
+        Node(String server, long leaders, long calls) {
+            this.server = server;
+            this.leaders = leaders;
+            this.calls = calls;
+        }
+
+        String getServer() {
+            return server;
+        }
+
+        long getLeaders() {
+            return leaders;
+        }
+
+        long getCalls() {
+            return calls;
+        }
+
+        ObjectNode toJson() {
+            ObjectNode node = mapper.createObjectNode();
+            node.put("server", server);
+            node.put("leaders", leaders);
+            node.put("callsPerMinute", calls);
+            return node;
+        }
+
+        static Node fromJson(JsonNode node) {
+            return new Node(node.get("server").asText(), node.get("leaders").asLong(), node.get("callsPerMinute").asLong());
+        }
+
+        @Override
+        public String toString() {
+            return server + " " + leaders + " " + calls;
+        }
+    }
+}
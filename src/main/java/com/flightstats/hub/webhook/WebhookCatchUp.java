@@ -0,0 +1,116 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks whether a SINGLE webhook is catching up, and how quickly.
+ * <p>
+ * A webhook is catching up once the keys it has queued are more than webhook.catchup.minutes behind stable time,
+ * and stops when they are within half of that.  While catching up, SingleWebhookStrategy runs
+ * webhook.catchup.prefetch queries ahead of the queue, and reads ranges older than the Spoke TTL from S3 only.
+ */
+class WebhookCatchUp {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookCatchUp.class);
+
+    private final String name;
+    private final long thresholdMillis;
+    private boolean active;
+    private long started;
+    private DateTime startPosition;
+    private DateTime position;
+    private DateTime stable;
+    private long keys;
+
+    WebhookCatchUp(String name, DateTime position) {
+        this(name, position, TimeUnit.MINUTES.toMillis(HubProperties.getProperty("webhook.catchup.minutes", 5)));
+    }
+
+    WebhookCatchUp(String name, DateTime position, long thresholdMillis) {
+        this.name = name;
+        this.position = position;
+        this.stable = position;
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * @param position the end of the last range which has been queued
+     * @param stable   the latest stable time in the channel
+     * @return true if the webhook is catching up
+     */
+    synchronized boolean update(DateTime position, DateTime stable) {
+        this.position = position;
+        this.stable = stable;
+        long behind = stable.getMillis() - position.getMillis();
+        if (!active && behind > thresholdMillis) {
+            logger.info("catching up {} from {} to {}", name, position, stable);
+            active = true;
+            started = System.currentTimeMillis();
+            startPosition = position;
+            keys = 0;
+        } else if (active && behind < thresholdMillis / 2) {
+            logger.info("caught up {} at {} with {} keys in {} ms", name, position, keys, System.currentTimeMillis() - started);
+            active = false;
+        }
+        return active;
+    }
+
+    synchronized void queued(int count) {
+        keys += count;
+    }
+
+    synchronized boolean isActive() {
+        return active;
+    }
+
+    synchronized DateTime getPosition() {
+        return position;
+    }
+
+    synchronized long getBehindMillis() {
+        return Math.max(0, stable.getMillis() - position.getMillis());
+    }
+
+    synchronized long getKeys() {
+        return keys;
+    }
+
+    synchronized double getKeysPerSecond() {
+        long millis = System.currentTimeMillis() - started;
+        return millis <= 0 ? 0 : keys * 1000.0 / millis;
+    }
+
+    /**
+     * @return the fraction of the gap, from where catching up started to stable time, which has been queued
+     */
+    synchronized double getProgress() {
+        long total = stable.getMillis() - startPosition.getMillis();
+        if (total <= 0) {
+            return 1;
+        }
+        return Math.min(1, (position.getMillis() - startPosition.getMillis()) / (double) total);
+    }
+
+    /**
+     * Ranges which end before the Spoke TTL are only in S3, so skip Spoke and read from the channel's storage.
+     */
+    static Location getLocation(ChannelConfig channelConfig, DateTime end, int spokeTtlMinutes) {
+        if (channelConfig.isHistorical() || !end.isBefore(TimeUtil.now().minusMinutes(spokeTtlMinutes))) {
+            return Location.ALL;
+        }
+        if (channelConfig.isSingle()) {
+            return Location.LONG_TERM_SINGLE;
+        } else if (channelConfig.isBatch()) {
+            return Location.LONG_TERM_BATCH;
+        }
+        return Location.LONG_TERM;
+    }
+}
@@ -0,0 +1,149 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a WebhookLeader's progress in memory, and writes it to ZooKeeper every webhook.checkpoint.millis,
+ * or after webhook.checkpoint.items completed calls.
+ * <p>
+ * Each flush writes the highest completed path to WEBHOOK_LAST_COMPLETED, and only the in-flight paths
+ * below it to the in-flight set, as a new leader resends those and queries for everything after it.
+ * In-flight paths are written before the last completed moves past them, so nothing is skipped after a failover;
+ * at most the calls completed since the last flush are delivered again.
+ */
+class WebhookCheckpoint {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookCheckpoint.class);
+
+    private static final long MILLIS = HubProperties.getProperty("webhook.checkpoint.millis", 1000);
+    private static final int ITEMS = HubProperties.getProperty("webhook.checkpoint.items", 1000);
+
+    private final String name;
+    private final LastContentPath lastContentPath;
+    private final WebhookContentPathSet webhookInProcess;
+    private final MetricsService metricsService;
+    private final AtomicBoolean deleted;
+    private final NavigableSet<ContentPath> inFlight = new ConcurrentSkipListSet<>();
+    private final AtomicReference<ContentPath> lastCompleted;
+    private final AtomicInteger completedSinceFlush = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final Set<ContentPath> persistedInFlight;
+    private ContentPath persistedCompleted;
+    private Executor executor;
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * @param persistedInFlight the in-flight paths below lastCompleted which are already in ZooKeeper
+     * @param deleted           when true, nothing more is written
+     */
+    WebhookCheckpoint(String name, ContentPath lastCompleted, Set<ContentPath> persistedInFlight,
+                      LastContentPath lastContentPath, WebhookContentPathSet webhookInProcess,
+                      MetricsService metricsService, AtomicBoolean deleted) {
+        this.name = name;
+        this.lastCompleted = new AtomicReference<>(lastCompleted);
+        this.persistedCompleted = lastCompleted;
+        this.persistedInFlight = new TreeSet<>(persistedInFlight);
+        this.lastContentPath = lastContentPath;
+        this.webhookInProcess = webhookInProcess;
+        this.metricsService = metricsService;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Flushes on executor, using scheduler only to time the flushes.
+     */
+    void start(ScheduledExecutorService scheduler, Executor executor) {
+        this.executor = executor;
+        scheduled = scheduler.scheduleWithFixedDelay(this::queueFlush, MILLIS, MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void queueFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    void add(ContentPath contentPath) {
+        inFlight.add(contentPath);
+    }
+
+    /**
+     * Called when contentPath has been delivered, or will not be delivered.
+     */
+    void complete(ContentPath contentPath) {
+        inFlight.remove(contentPath);
+        lastCompleted.accumulateAndGet(contentPath, (existing, path) -> path.compareTo(existing) > 0 ? path : existing);
+        if (completedSinceFlush.incrementAndGet() >= ITEMS && executor != null) {
+            queueFlush();
+        }
+    }
+
+    ContentPath getLastCompleted() {
+        return lastCompleted.get();
+    }
+
+    List<ContentPath> getInFlight() {
+        return new ArrayList<>(inFlight);
+    }
+
+    synchronized void flush() {
+        flushQueued.set(false);
+        if (deleted.get()) {
+            return;
+        }
+        try {
+            completedSinceFlush.set(0);
+            ContentPath completed = lastCompleted.get();
+            Set<ContentPath> pending = new TreeSet<>(inFlight.headSet(completed, false));
+            int writes = 0;
+            for (ContentPath contentPath : pending) {
+                if (persistedInFlight.add(contentPath)) {
+                    webhookInProcess.add(name, contentPath);
+                    writes++;
+                }
+            }
+            if (completed.compareTo(persistedCompleted) > 0) {
+                lastContentPath.updateIncrease(completed, name, WebhookLeader.WEBHOOK_LAST_COMPLETED);
+                persistedCompleted = completed;
+                writes++;
+            }
+            Iterator<ContentPath> iterator = persistedInFlight.iterator();
+            while (iterator.hasNext()) {
+                ContentPath contentPath = iterator.next();
+                if (!pending.contains(contentPath)) {
+                    webhookInProcess.remove(name, contentPath);
+                    iterator.remove();
+                    writes++;
+                }
+            }
+            metricsService.count("webhook.checkpoint.writes", writes, "name:" + name);
+        } catch (Exception e) {
+            logger.warn("unable to checkpoint " + name, e);
+        }
+    }
+
+    /**
+     * Stops the periodic flush, and flushes anything remaining.
+     */
+    void close() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        flush();
+    }
+}
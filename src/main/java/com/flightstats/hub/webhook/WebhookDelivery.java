@@ -0,0 +1,283 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.rest.RestClient;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sun.jersey.api.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node wide threads and clients for webhook delivery, shared by every WebhookLeader.
+ * <p>
+ * Each webhook has a Lane of pending calls.  Lanes with pending calls take turns on the
+ * webhook.delivery.threads workers.  A lane runs at most parallelCalls calls at once, and no more than its fair
+ * share of the workers, less webhook.delivery.reservedThreads, split evenly between the lanes with work.
+ * Reserved workers only start the first call of a lane, so webhooks with slow or hanging endpoints
+ * can not starve the others.  A call never waits to retry on a worker;
+ * it is delayed on the scheduler, and submitted again when it is due.
+ * Clients are shared by callback timeout, so connections to each callback host are reused across webhooks.
+ * The webhook.delivery.schedulerThreads shared threads only time work.  Queries and checkpoints,
+ * which block on Spoke, S3 and ZooKeeper, run on webhook.delivery.queryThreads shared workers.
+ * Strategies hand paths to their leaders through WebhookPipelines, which are reported with the lanes.
+ * Strategies use the ChannelKeyNotifier to wait for new keys and skip queries for channels with nothing new,
+ * and the ChannelKeyCache to share query results with other webhooks on the same channel.
+ */
+@Singleton
+class WebhookDelivery {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookDelivery.class);
+
+    private final MetricsService metricsService;
+    private final ChannelKeyNotifier channelKeyNotifier;
+    private final ChannelKeyCache channelKeyCache;
+    private final BlockingQueue<Lane> ready = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Client> clients = new ConcurrentHashMap<>();
+    private final Set<WebhookPipeline<?>> pipelines = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService queryExecutor;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final int sharedThreads;
+
+    @Inject
+    WebhookDelivery(MetricsService metricsService, ChannelKeyNotifier channelKeyNotifier, ChannelKeyCache channelKeyCache) {
+        this.metricsService = metricsService;
+        this.channelKeyNotifier = channelKeyNotifier;
+        this.channelKeyCache = channelKeyCache;
+        int threads = HubProperties.getProperty("webhook.delivery.threads", 200);
+        int reserved = HubProperties.getProperty("webhook.delivery.reservedThreads", Math.max(1, threads / 10));
+        sharedThreads = Math.max(1, threads - reserved);
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("webhook-delivery-%d").setDaemon(true).build());
+        for (int i = 0; i < threads; i++) {
+            workers.submit(this::work);
+        }
+        scheduler = Executors.newScheduledThreadPool(HubProperties.getProperty("webhook.delivery.schedulerThreads", 4),
+                new ThreadFactoryBuilder().setNameFormat("webhook-scheduler-%d").setDaemon(true).build());
+        scheduler.scheduleAtFixedRate(this::report, 10, 10, TimeUnit.SECONDS);
+        queryExecutor = Executors.newFixedThreadPool(HubProperties.getProperty("webhook.delivery.queryThreads", 20),
+                new ThreadFactoryBuilder().setNameFormat("webhook-query-%d").setDaemon(true).build());
+    }
+
+    private void work() {
+        while (true) {
+            try {
+                ready.take().runNext();
+            } catch (InterruptedException e) {
+                logger.info("interrupted");
+                return;
+            } catch (Exception e) {
+                logger.warn("unexpected delivery issue", e);
+            }
+        }
+    }
+
+    private void report() {
+        int queued = 0;
+        int inFlight = 0;
+        for (Lane lane : lanes.values()) {
+            int[] counts = lane.getCounts();
+            metricsService.gauge("webhook.delivery.queued", counts[0], "name:" + lane.name);
+            metricsService.gauge("webhook.delivery.inFlight", counts[1], "name:" + lane.name);
+            queued += counts[0];
+            inFlight += counts[1];
+        }
+        metricsService.gauge("webhook.delivery.queued.total", queued);
+        metricsService.gauge("webhook.delivery.inFlight.total", inFlight);
+        for (WebhookPipeline<?> pipeline : pipelines) {
+            pipeline.report(metricsService);
+        }
+    }
+
+    Client getClient(int callbackTimeoutSeconds) {
+        return clients.computeIfAbsent(callbackTimeoutSeconds,
+                timeout -> RestClient.createClient(60, timeout, true, false));
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the shared workers for blocking queries and checkpoints
+     */
+    ExecutorService getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    ChannelKeyNotifier getChannelKeyNotifier() {
+        return channelKeyNotifier;
+    }
+
+    ChannelKeyCache getChannelKeyCache() {
+        return channelKeyCache;
+    }
+
+    <T> WebhookPipeline<T> track(WebhookPipeline<T> pipeline) {
+        pipelines.add(pipeline);
+        return pipeline;
+    }
+
+    void untrack(WebhookPipeline<?> pipeline) {
+        pipelines.remove(pipeline);
+    }
+
+    Lane register(String name) {
+        return register(name, sharedThreads);
+    }
+
+    /**
+     * @param maxThreads the most workers the lane may use at once.  A lane never uses more than the
+     *                   shared workers, and gets less while other lanes have work.
+     */
+    Lane register(String name, int maxThreads) {
+        if (maxThreads > sharedThreads) {
+            logger.warn("{} asks for {} parallel calls, and will use at most {}", name, maxThreads, sharedThreads);
+        }
+        Lane lane = new Lane(name, Math.max(1, Math.min(sharedThreads, maxThreads)));
+        lanes.put(name, lane);
+        return lane;
+    }
+
+    class Lane {
+        private final String name;
+        private final int maxThreads;
+        private final Queue<Callable<?>> calls = new ArrayDeque<>();
+        private final Map<Callable<?>, ScheduledFuture<?>> delayed = new ConcurrentHashMap<>();
+        private int inFlight;
+        private boolean working;
+        private boolean scheduled;
+        private boolean shutdown;
+
+        private Lane(String name, int maxThreads) {
+            this.name = name;
+            this.maxThreads = maxThreads;
+        }
+
+        synchronized void submit(Callable<?> call) {
+            if (shutdown) {
+                throw new RejectedExecutionException(name + " is shutdown");
+            }
+            calls.add(call);
+            updateWorking();
+            scheduleIfReady();
+        }
+
+        /**
+         * Submits call after delayMillis, without holding a worker while it waits.
+         */
+        synchronized void submit(Callable<?> call, long delayMillis) {
+            if (shutdown) {
+                throw new RejectedExecutionException(name + " is shutdown");
+            }
+            delayed.put(call, scheduler.schedule(() -> {
+                if (delayed.remove(call) != null) {
+                    submit(call);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS));
+        }
+
+        private void updateWorking() {
+            boolean now = !calls.isEmpty() || inFlight > 0;
+            if (now != working) {
+                working = now;
+                active.addAndGet(now ? 1 : -1);
+            }
+        }
+
+        /**
+         * A lane with nothing in flight may always start a call.  Otherwise it is limited to its share of the
+         * shared workers.  A lane which is refused has calls in flight, and checks again as each completes.
+         */
+        private boolean canStart() {
+            if (inFlight == 0) {
+                return true;
+            }
+            int share = Math.max(1, sharedThreads / Math.max(1, active.get()));
+            return inFlight < maxThreads && inFlight < share && busy.get() < sharedThreads;
+        }
+
+        private void scheduleIfReady() {
+            if (!scheduled && !calls.isEmpty() && canStart()) {
+                scheduled = true;
+                ready.add(this);
+            }
+        }
+
+        private void runNext() {
+            Callable<?> call;
+            synchronized (this) {
+                scheduled = false;
+                if (!canStart()) {
+                    return;
+                }
+                call = calls.poll();
+                if (call == null) {
+                    return;
+                }
+                inFlight++;
+                busy.incrementAndGet();
+                scheduleIfReady();
+            }
+            try {
+                call.call();
+            } catch (Exception e) {
+                logger.warn("unexpected call issue " + name, e);
+            } finally {
+                synchronized (this) {
+                    inFlight--;
+                    busy.decrementAndGet();
+                    updateWorking();
+                    scheduleIfReady();
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized int[] getCounts() {
+            return new int[]{calls.size() + delayed.size(), inFlight};
+        }
+
+        /**
+         * Stops accepting calls, drops delayed calls, and waits up to timeoutMillis for pending calls to complete.
+         */
+        void shutdown(long timeoutMillis) throws InterruptedException {
+            try {
+                synchronized (this) {
+                    shutdown = true;
+                    for (ScheduledFuture<?> future : delayed.values()) {
+                        future.cancel(false);
+                    }
+                    if (!delayed.isEmpty()) {
+                        logger.info("dropping {} delayed calls for {}", delayed.size(), name);
+                        delayed.clear();
+                    }
+                    long end = System.currentTimeMillis() + timeoutMillis;
+                    while (!calls.isEmpty() || inFlight > 0) {
+                        long wait = end - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            logger.warn("calls still pending for {}", name);
+                            return;
+                        }
+                        wait(wait);
+                    }
+                }
+            } finally {
+                lanes.remove(name, this);
+            }
+        }
+    }
+}
@@ -12,12 +12,9 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.RecurringTrace;
-import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
-import com.github.rholder.retry.RetryException;
-import com.github.rholder.retry.Retryer;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.newrelic.api.agent.Trace;
@@ -37,13 +34,14 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 class WebhookLeader implements Leader {
     private final static Logger logger = LoggerFactory.getLogger(WebhookLeader.class);
     static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
 
     private final AtomicBoolean deleteOnExit = new AtomicBoolean();
+    private final AtomicLong calls = new AtomicLong();
 
     @Inject
     private CuratorFramework curator;
@@ -59,17 +57,20 @@ class WebhookLeader implements Leader {
     private WebhookContentPathSet webhookInProcess;
     @Inject
     private WebhookError webhookError;
+    @Inject
+    private WebhookDelivery webhookDelivery;
 
     private Webhook webhook;
     private CuratorLeader curatorLeader;
-    private ExecutorService executorService;
-    private Semaphore semaphore;
+    private WebhookDelivery.Lane lane;
+    private volatile WebhookLimiter limiter;
     private Leadership leadership;
-    private Retryer<ClientResponse> retryer;
+    private WebhookRetryer retryer;
     private Client client;
 
     private WebhookStrategy webhookStrategy;
-    private AtomicReference<ContentPath> lastUpdated = new AtomicReference<>();
+    private volatile WebhookCheckpoint checkpoint;
+    private volatile long leaderSince;
     private String id = RandomStringUtils.randomAlphanumeric(4);
     private String channelName;
 
@@ -101,17 +102,18 @@ class WebhookLeader implements Leader {
         }
         this.webhook = foundWebhook.get();
         logger.info("taking leadership {} {}", webhook, leadership.hasLeadership());
-        client = RestClient.createClient(60, webhook.getCallbackTimeoutSeconds(), true, false);
-        executorService = Executors.newCachedThreadPool();
-        semaphore = new Semaphore(webhook.getParallelCalls());
-        retryer = WebhookRetryer.buildRetryer(webhook, webhookError, leadership);
-        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService);
+        client = webhookDelivery.getClient(webhook.getCallbackTimeoutSeconds());
+        lane = webhookDelivery.register(webhook.getName(), webhook.getParallelCalls());
+        limiter = new WebhookLimiter(webhook);
+        retryer = new WebhookRetryer(webhook, leadership, limiter);
+        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService, webhookDelivery);
         try {
             ContentPath lastCompletedPath = webhookStrategy.getStartingPath();
-            lastUpdated.set(lastCompletedPath);
             logger.info("last completed at {} {}", lastCompletedPath, webhook.getName());
             if (leadership.hasLeadership()) {
+                leaderSince = System.currentTimeMillis();
                 sendInProcess(lastCompletedPath);
+                checkpoint.start(webhookDelivery.getScheduler(), webhookDelivery.getQueryExecutor());
                 webhookStrategy.start(webhook, lastCompletedPath);
                 while (leadership.hasLeadership()) {
                     Optional<ContentPath> nextOptional = webhookStrategy.next();
@@ -130,9 +132,10 @@ class WebhookLeader implements Leader {
                 delete();
             }
             stopExecutor();
+            closeCheckpoint();
             logger.info("stopped last completed at {} {}", webhookStrategy.getLastCompleted(), webhook.getName());
             webhookStrategy = null;
-            executorService = null;
+            lane = null;
             client = null;
         }
     }
@@ -143,100 +146,161 @@ class WebhookLeader implements Leader {
     }
 
     private void sendInProcess(ContentPath lastCompletedPath) throws InterruptedException {
-        Set<ContentPath> inProcessSet = webhookInProcess.getSet(webhook.getName(), lastCompletedPath);
+        ContentPath type = webhook.isBatch() ? WebhookStrategy.createContentPath(webhook) : lastCompletedPath;
+        Set<ContentPath> inProcessSet = webhookInProcess.getSet(webhook.getName(), type);
         logger.debug("sending in process {} to {}", inProcessSet, webhook.getName());
+        Set<ContentPath> toResend = new TreeSet<>();
         for (ContentPath toSend : inProcessSet) {
             if (toSend.compareTo(lastCompletedPath) < 0) {
-                ActiveTraces.start("WebhookLeader inProcess", webhook);
-                ContentPath contentPath;
-                try {
-                    contentPath = webhookStrategy.inProcess(toSend);
-                } finally {
-                    ActiveTraces.end();
-                }
-                send(contentPath);
+                toResend.add(toSend);
             } else {
                 webhookInProcess.remove(webhook.getName(), toSend);
             }
         }
+        checkpoint = new WebhookCheckpoint(webhook.getName(), lastCompletedPath, toResend,
+                lastContentPath, webhookInProcess, metricsService, deleteOnExit);
+        for (ContentPath toSend : toResend) {
+            ActiveTraces.start("WebhookLeader inProcess", webhook);
+            ContentPath contentPath;
+            try {
+                contentPath = webhookStrategy.inProcess(toSend);
+            } finally {
+                ActiveTraces.end();
+            }
+            send(contentPath);
+        }
     }
 
     private void send(ContentPath contentPath) throws InterruptedException {
-        semaphore.acquire();
+        limiter.acquire();
+        calls.incrementAndGet();
         logger.trace("sending {} to {}", contentPath, webhook.getName());
-        String parentName = Thread.currentThread().getName();
-        executorService.submit(new Callable<Object>() {
-            @Trace(metricName = "WebhookCaller", dispatcher = true)
-            @Override
-            public Object call() throws Exception {
-                String workerName = Thread.currentThread().getName();
-                Thread.currentThread().setName(workerName + "|" + parentName);
-                ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
-                webhookInProcess.add(webhook.getName(), contentPath);
-                try {
+        checkpoint.add(contentPath);
+        lane.submit(new Delivery(contentPath, Thread.currentThread().getName()));
+    }
+
+    /**
+     * Delivers one path, making one attempt each time it is called.
+     * After a failed attempt it resubmits itself to the lane after the retry wait, rather than holding the worker.
+     */
+    private class Delivery implements Callable<Object> {
+        private final ContentPath contentPath;
+        private final String parentName;
+        private final long start = System.currentTimeMillis();
+        private Traces traces;
+        private RecurringTrace recurringTrace;
+        private Object entity;
+        private String type;
+        private int attempt;
+
+        private Delivery(ContentPath contentPath, String parentName) {
+            this.contentPath = contentPath;
+            this.parentName = parentName;
+        }
+
+        @Trace(metricName = "WebhookCaller", dispatcher = true)
+        @Override
+        public Object call() throws Exception {
+            String workerName = Thread.currentThread().getName();
+            Thread.currentThread().setName(workerName + "|" + parentName);
+            boolean done = true;
+            try {
+                if (traces == null) {
+                    ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
+                    traces = ActiveTraces.getLocal();
                     metricsService.time("webhook.delta", contentPath.getTime().getMillis(), "name:" + webhook.getName());
-                    makeTimedCall(contentPath, webhookStrategy.createResponse(contentPath));
-                    completeCall(contentPath);
-                    logger.trace("completed {} call to {} ", contentPath, webhook.getName());
-                } catch (RetryException e) {
-                    logger.info("exception sending {} to {} {} ", contentPath, webhook.getName(), e.getMessage());
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof ItemExpiredException) {
-                        logger.info("stopped trying {} to {} {} ", contentPath, webhook.getName(), cause.getMessage());
-                        completeCall(contentPath);
-                    }
-                } catch (Exception e) {
-                    logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
-                } finally {
-                    semaphore.release();
+                    prepare();
+                } else {
+                    ActiveTraces.setLocal(traces);
+                }
+                done = attempt();
+            } catch (Exception e) {
+                logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
+            } finally {
+                if (done) {
+                    limiter.release();
                     ActiveTraces.end();
-                    Thread.currentThread().setName(workerName);
+                } else {
+                    ActiveTraces.setLocal(null);
                 }
-                return null;
+                Thread.currentThread().setName(workerName);
             }
-        });
-    }
+            return null;
+        }
 
-    private boolean increaseLastUpdated(ContentPath newPath) {
-        AtomicBoolean changed = new AtomicBoolean(false);
-        lastUpdated.getAndUpdate(existingPath -> {
-            if (newPath.compareTo(existingPath) > 0) {
-                changed.set(true);
-                return newPath;
+        private void prepare() {
+            ObjectNode body = webhookStrategy.createResponse(contentPath);
+            traces.add("WebhookLeader.makeCall start");
+            recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
+            traces.add(recurringTrace);
+            if (webhook.isInlinePayloads()) {
+                byte[] bytes = WebhookPayloads.build(webhook, contentPath, body, channelService);
+                traces.add("WebhookLeader.makeCall inlined", bytes.length);
+                entity = bytes;
+                type = WebhookPayloads.TYPE;
+            } else {
+                entity = body.toString();
+                type = MediaType.APPLICATION_JSON;
             }
-            changed.set(false);
-            return existingPath;
-        });
-        return changed.get();
-    }
+        }
 
-    private void completeCall(ContentPath contentPath) {
-        if (increaseLastUpdated(contentPath)) {
-            if (!deleteOnExit.get()) {
-                lastContentPath.updateIncrease(contentPath, webhook.getName(), WEBHOOK_LAST_COMPLETED);
+        /**
+         * @return true if the delivery is finished
+         */
+        private boolean attempt() {
+            WebhookLimiter.Permit permit = limiter.tryAttempt();
+            if (permit == WebhookLimiter.Permit.REFUSED) {
+                logger.trace("circuit is not allowing {} to {}", contentPath, webhook.getName());
+                return retryAfter(retryer.getBlockedMillis());
+            }
+            attempt++;
+            try {
+                if (!retryer.isFailure(getClientResponse(contentPath, entity, type, traces, recurringTrace))) {
+                    complete();
+                    return true;
+                }
+            } catch (ItemExpiredException e) {
+                logger.info("stopped trying {} to {} {} ", contentPath, webhook.getName(), e.getMessage());
+                completeCall(contentPath);
+                return true;
+            } catch (Exception e) {
+                retryer.isFailure(e);
+            } finally {
+                limiter.attemptDone(permit);
+            }
+            return retryAfter(retryer.getWaitMillis(attempt));
+        }
+
+        /**
+         * @return true if the delivery is finished
+         */
+        private boolean retryAfter(long waitMillis) {
+            if (retryer.shouldStop()) {
+                logger.info("stopped sending {} to {} after {} attempts", contentPath, webhook.getName(), attempt);
+                return true;
+            }
+            try {
+                lane.submit(this, waitMillis);
+                return false;
+            } catch (RejectedExecutionException e) {
+                logger.info("unable to retry {} to {} {}", contentPath, webhook.getName(), e.getMessage());
+                return true;
             }
         }
-        webhookInProcess.remove(webhook.getName(), contentPath);
-    }
 
-    private void makeTimedCall(ContentPath contentPath, ObjectNode body) throws Exception {
-        metricsService.time("webhook", webhook.getName(),
-                () -> {
-                    makeCall(contentPath, body);
-                    return null;
-                });
+        private void complete() {
+            metricsService.time("webhook", start, "name:" + webhook.getName());
+            completeCall(contentPath);
+            logger.trace("completed {} call to {} ", contentPath, webhook.getName());
+        }
     }
 
-    private void makeCall(ContentPath contentPath, ObjectNode body) throws ExecutionException, RetryException {
-        Traces traces = ActiveTraces.getLocal();
-        traces.add("WebhookLeader.makeCall start");
-        RecurringTrace recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
-        traces.add(recurringTrace);
-        retryer.call(() -> getClientResponse(contentPath, body, traces, recurringTrace));
+    private void completeCall(ContentPath contentPath) {
+        checkpoint.complete(contentPath);
     }
 
-    private ClientResponse getClientResponse(ContentPath contentPath, ObjectNode body, Traces traces, RecurringTrace recurringTrace) {
+    private ClientResponse getClientResponse(ContentPath contentPath, Object entity, String type,
+                                             Traces traces, RecurringTrace recurringTrace) {
         try {
             ActiveTraces.setLocal(traces);
             ChannelConfig channelConfig = channelService.getCachedChannelConfig(channelName);
@@ -245,14 +309,22 @@ class WebhookLeader implements Leader {
                 logger.debug("not leader {} {} {}", webhook.getCallbackUrl(), webhook.getName(), contentPath);
                 return null;
             }
-            String entity = body.toString();
-            logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, entity);
-            ClientResponse clientResponse = client.resource(webhook.getCallbackUrl())
-                    .type(MediaType.APPLICATION_JSON_TYPE)
-                    .post(ClientResponse.class, entity);
+            logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, type);
+            long start = System.currentTimeMillis();
+            ClientResponse clientResponse;
+            try {
+                clientResponse = client.resource(webhook.getCallbackUrl())
+                        .type(type)
+                        .post(ClientResponse.class, entity);
+            } catch (Exception e) {
+                limiter.onFailure();
+                throw e;
+            }
             if (clientResponse.getStatus() < 400) {
+                limiter.onSuccess(System.currentTimeMillis() - start);
                 recurringTrace.update("WebhookLeader.makeCall completed", clientResponse);
             } else {
+                limiter.onFailure();
                 webhookError.add(webhook.getName(), new DateTime() + " " + contentPath + " " + clientResponse);
             }
             return clientResponse;
@@ -280,25 +352,44 @@ class WebhookLeader implements Leader {
         deleteOnExit.set(delete);
         closeStrategy();
         stopExecutor();
+        closeCheckpoint();
         curatorLeader.close();
         logger.info("exited webhook " + name + " deleting " + delete);
     }
 
+    /**
+     * Gives up leadership, so another hub can take this webhook.
+     */
+    void release() {
+        Leadership current = leadership;
+        if (current != null && current.hasLeadership()) {
+            logger.info("releasing leadership of {}", webhook.getName());
+            current.setLeadership(false);
+        }
+    }
+
     private void stopExecutor() {
-        if (executorService == null) {
+        WebhookDelivery.Lane current = lane;
+        if (current == null) {
             return;
         }
         String name = webhook.getName();
         try {
-            executorService.shutdown();
             logger.debug("awating termination " + name);
-            executorService.awaitTermination(webhook.getCallbackTimeoutSeconds() + 10, TimeUnit.SECONDS);
+            current.shutdown(TimeUnit.SECONDS.toMillis(webhook.getCallbackTimeoutSeconds() + 10));
             logger.debug("stopped Executor " + name);
         } catch (InterruptedException e) {
             logger.warn("unable to stop?" + name, e);
         }
     }
 
+    private void closeCheckpoint() {
+        WebhookCheckpoint current = checkpoint;
+        if (current != null) {
+            current.close();
+        }
+    }
+
     private void closeStrategy() {
         try {
             if (webhookStrategy != null) {
@@ -373,9 +464,53 @@ class WebhookLeader implements Leader {
     }
 
     List<ContentPath> getInFlight(Webhook webhook) {
+        WebhookCheckpoint current = checkpoint;
+        if (current != null && leadership != null && leadership.hasLeadership()) {
+            return new ArrayList<>(new TreeSet<>(current.getInFlight()));
+        }
         return new ArrayList<>(new TreeSet<>(webhookInProcess.getSet(this.webhook.getName(), WebhookStrategy.createContentPath(webhook))));
     }
 
+    /**
+     * @return the concurrency and circuit state, or null if this hub is not the leader
+     */
+    WebhookLimiter getLimiter() {
+        WebhookLimiter current = limiter;
+        if (current != null && leadership != null && leadership.hasLeadership()) {
+            return current;
+        }
+        return null;
+    }
+
+    boolean isLeader() {
+        return leadership != null && leadership.hasLeadership();
+    }
+
+    /**
+     * @return how long this hub has been the leader
+     */
+    long getLeaderMillis() {
+        return isLeader() ? System.currentTimeMillis() - leaderSince : 0;
+    }
+
+    /**
+     * @return the calls started since the last call to takeCalls
+     */
+    long takeCalls() {
+        return calls.getAndSet(0);
+    }
+
+    /**
+     * @return the catch up progress, or null if this hub is not the leader or the webhook is not catching up
+     */
+    WebhookCatchUp getCatchUp() {
+        WebhookStrategy current = webhookStrategy;
+        if (current != null && isLeader()) {
+            return current.getCatchUp();
+        }
+        return null;
+    }
+
     public Webhook getWebhook() {
         return webhook;
     }
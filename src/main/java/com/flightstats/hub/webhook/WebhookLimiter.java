@@ -0,0 +1,186 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts a webhook's concurrent calls between 1 and parallelCalls, and stops calling a failing endpoint.
+ * <p>
+ * The limit grows by one after each limit's worth of calls which succeed within the target latency,
+ * and halves, at most once per target latency, when a call is slow or fails.
+ * After webhook.circuit.failures consecutive failures the circuit opens, and no new calls start until it has been
+ * open for webhook.circuit.openMillis.  Then one call is allowed to test the endpoint, closing the circuit if it
+ * succeeds, or reopening it for twice as long (up to maxWaitMinutes) if it fails.
+ * <p>
+ * acquire() limits the calls in progress, including those waiting to retry.  Every attempt, first or retry,
+ * also asks tryAttempt(), which refuses while the circuit is open, and allows a single probe while it is half open.
+ */
+class WebhookLimiter {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookLimiter.class);
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    enum Permit {REFUSED, CALL, PROBE}
+
+    private final String name;
+    private final int maxCalls;
+    private final long targetMillis;
+    private final int failureThreshold;
+    private final long initialOpenMillis;
+    private final long maxOpenMillis;
+
+    private int limit;
+    private int inFlight;
+    private int successes;
+    private int consecutiveFailures;
+    private boolean probing;
+    private long lastDecrease;
+    private State state = State.CLOSED;
+    private long openMillis;
+    private long openUntil;
+
+    WebhookLimiter(Webhook webhook) {
+        this(webhook.getName(), webhook.getParallelCalls(),
+                Math.min(HubProperties.getProperty("webhook.adaptive.targetMillis", 5000),
+                        TimeUnit.SECONDS.toMillis(webhook.getCallbackTimeoutSeconds()) / 2),
+                HubProperties.getProperty("webhook.circuit.failures", 5),
+                HubProperties.getProperty("webhook.circuit.openMillis", 10 * 1000),
+                TimeUnit.MINUTES.toMillis(webhook.getMaxWaitMinutes()));
+    }
+
+    WebhookLimiter(String name, int maxCalls, long targetMillis, int failureThreshold,
+                   long openMillis, long maxOpenMillis) {
+        this.name = name;
+        this.maxCalls = maxCalls;
+        this.limit = maxCalls;
+        this.targetMillis = targetMillis;
+        this.failureThreshold = failureThreshold;
+        this.initialOpenMillis = openMillis;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = Math.max(openMillis, maxOpenMillis);
+    }
+
+    /**
+     * Waits until another call is allowed.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getAllowed()) {
+            if (state == State.OPEN) {
+                wait(Math.max(1, openUntil - System.currentTimeMillis()));
+            } else {
+                wait();
+            }
+        }
+        inFlight++;
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Unless it is REFUSED, the permit must be given back with attemptDone().
+     *
+     * @return whether an attempt may call the endpoint now
+     */
+    synchronized Permit tryAttempt() {
+        switch (getState()) {
+            case OPEN:
+                return Permit.REFUSED;
+            case HALF_OPEN:
+                if (probing) {
+                    return Permit.REFUSED;
+                }
+                probing = true;
+                return Permit.PROBE;
+            default:
+                return Permit.CALL;
+        }
+    }
+
+    synchronized void attemptDone(Permit permit) {
+        if (permit == Permit.PROBE) {
+            probing = false;
+        }
+    }
+
+    synchronized void onSuccess(long latencyMillis) {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            logger.info("closing circuit for {}", name);
+            state = State.CLOSED;
+            openMillis = initialOpenMillis;
+        }
+        if (latencyMillis > targetMillis) {
+            decrease();
+        } else if (++successes >= limit) {
+            successes = 0;
+            limit = Math.min(maxCalls, limit + 1);
+        }
+        notifyAll();
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        decrease();
+        long now = System.currentTimeMillis();
+        if (getState() == State.HALF_OPEN) {
+            openMillis = Math.min(maxOpenMillis, openMillis * 2);
+            open(now);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        logger.info("opening circuit for {} for {} ms", name, openMillis);
+        state = State.OPEN;
+        openUntil = now + openMillis;
+    }
+
+    private void decrease() {
+        long now = System.currentTimeMillis();
+        successes = 0;
+        if (now - lastDecrease >= targetMillis) {
+            lastDecrease = now;
+            limit = Math.max(1, limit / 2);
+        }
+    }
+
+    private int getAllowed() {
+        switch (getState()) {
+            case OPEN:
+                return 0;
+            case HALF_OPEN:
+                return 1;
+            default:
+                return limit;
+        }
+    }
+
+    /**
+     * @return how long a retry should wait for the circuit to allow calls
+     */
+    synchronized long getOpenMillis() {
+        if (getState() == State.OPEN) {
+            return Math.max(0, openUntil - System.currentTimeMillis());
+        }
+        return 0;
+    }
+
+    synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+}
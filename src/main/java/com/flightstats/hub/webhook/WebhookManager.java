@@ -33,15 +33,18 @@ public class WebhookManager {
     private final Dao<Webhook> webhookDao;
     private final Provider<WebhookLeader> leaderProvider;
     private LastContentPath lastContentPath;
+    private final WebhookBalancer webhookBalancer;
     private final Map<String, WebhookLeader> activeWebhooks = new HashMap<>();
 
     @Inject
     public WebhookManager(WatchManager watchManager, @Named("Webhook") Dao<Webhook> webhookDao,
-                          Provider<WebhookLeader> leaderProvider, LastContentPath lastContentPath) {
+                          Provider<WebhookLeader> leaderProvider, LastContentPath lastContentPath,
+                          WebhookBalancer webhookBalancer) {
         this.watchManager = watchManager;
         this.webhookDao = webhookDao;
         this.leaderProvider = leaderProvider;
         this.lastContentPath = lastContentPath;
+        this.webhookBalancer = webhookBalancer;
         register(new WebhookIdleService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
     }
 
@@ -60,6 +63,18 @@ public class WebhookManager {
 
         });
         manageWebhooks();
+        webhookBalancer.start(this::getLeaders);
+    }
+
+    private synchronized Collection<WebhookLeader> getLeaders() {
+        return new ArrayList<>(activeWebhooks.values());
+    }
+
+    /**
+     * @return the number of webhooks each hub leads, and their calls per minute
+     */
+    List<WebhookBalancer.Node> getNodes() {
+        return webhookBalancer.getNodes();
     }
 
     private synchronized void manageWebhooks() {
@@ -141,6 +156,12 @@ public class WebhookManager {
         if (webhookLeader != null) {
             statusBuilder.errors(webhookLeader.getErrors());
             statusBuilder.inFlight(webhookLeader.getInFlight(webhook));
+            WebhookLimiter limiter = webhookLeader.getLimiter();
+            if (limiter != null) {
+                statusBuilder.circuitState(limiter.getState().toString());
+                statusBuilder.callLimit(limiter.getLimit());
+            }
+            statusBuilder.catchUp(webhookLeader.getCatchUp());
         } else {
             statusBuilder.errors(Collections.emptyList());
             statusBuilder.inFlight(Collections.emptyList());
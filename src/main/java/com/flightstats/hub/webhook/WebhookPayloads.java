@@ -0,0 +1,104 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.channel.MultiPartBulkBuilder;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.ContentPathKeys;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Callback bodies for webhooks with inlinePayloads.
+ * <p>
+ * The body is multipart/mixed, in the same format as the bulk endpoints.  The first part is the usual json,
+ * followed by a part for each item, read with the same multi-get as bulk, webhook.inline.batchItems keys at a time.
+ * Items are included in order until the next would exceed the webhook's maxBytes, and the uris of the others
+ * are listed in the json as "notInlined".  Those are not read, and neither are large items, which are never inlined.
+ */
+class WebhookPayloads {
+
+    static final String TYPE = MultiPartBulkBuilder.MULTIPART;
+    private static final int BATCH_ITEMS = HubProperties.getProperty("webhook.inline.batchItems", 10);
+
+    static byte[] build(Webhook webhook, ContentPath contentPath, ObjectNode body, ChannelService channelService) {
+        List<Content> inlined = select(webhook, contentPath, body, channelService);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            MultiPartBulkBuilder.writePart(output, MediaType.APPLICATION_JSON, body.toString().getBytes());
+            URI channelUri = URI.create(webhook.getChannelUrl());
+            for (Content content : inlined) {
+                MultiPartBulkBuilder.writeContent(content, output, channelUri, webhook.getName());
+            }
+            MultiPartBulkBuilder.writeEnd(output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the items which fit within maxBytes, adding the others to body
+     */
+    static List<Content> select(Webhook webhook, ContentPath contentPath, ObjectNode body, ChannelService channelService) {
+        SortedSet<ContentKey> keys = getKeys(contentPath);
+        List<Content> inlined = new ArrayList<>();
+        Set<ContentKey> inlinedKeys = new HashSet<>();
+        long[] remaining = {webhook.getMaxBytes()};
+        boolean[] full = {false};
+        Iterator<ContentKey> iterator = keys.iterator();
+        while (!full[0] && iterator.hasNext()) {
+            SortedSet<ContentKey> batch = new TreeSet<>();
+            while (batch.size() < BATCH_ITEMS && iterator.hasNext()) {
+                batch.add(iterator.next());
+            }
+            channelService.get(webhook.getChannelName(), batch, content -> {
+                if (full[0]) {
+                    return;
+                }
+                if (content.isLarge() || content.getContentLength() > remaining[0]) {
+                    full[0] = true;
+                    return;
+                }
+                byte[] data = content.getData();
+                if (data == null) {
+                    return;
+                }
+                if (data.length > remaining[0]) {
+                    full[0] = true;
+                    return;
+                }
+                remaining[0] -= data.length;
+                inlined.add(content);
+                inlinedKeys.add(content.getContentKey().get());
+            });
+        }
+        if (inlined.size() < keys.size()) {
+            ArrayNode notInlined = body.putArray("notInlined");
+            for (ContentKey key : keys) {
+                if (!inlinedKeys.contains(key)) {
+                    notInlined.add(webhook.getChannelUrl() + "/" + key.toUrl());
+                }
+            }
+        }
+        return inlined;
+    }
+
+    private static SortedSet<ContentKey> getKeys(ContentPath contentPath) {
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        if (contentPath instanceof ContentKey) {
+            keys.add((ContentKey) contentPath);
+        } else if (contentPath instanceof ContentPathKeys) {
+            keys.addAll(((ContentPathKeys) contentPath).getKeys());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,206 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.MetricsService;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands paths from a webhook strategy to its consumer, through a bounded ring buffer.
+ * <p>
+ * There must be one producer and one consumer at a time, although each may move between threads.
+ * Putting and taking are lock free, and a thread is only woken when the other side is waiting on it.
+ * A waiting side publishes itself before checking again, and the other side unparks it after moving,
+ * so a wake up is never lost, and neither side needs to wake itself to check.
+ * The capacity is parallelCalls * webhook.pipeline.prefetch, rounded up to a power of two.
+ * <p>
+ * report() writes the occupancy, the age of the oldest path (lag), and how often each side waited.
+ * A full pipeline with a high lag means the consumer is behind; an empty one with consumer waits means the
+ * queries are behind.
+ */
+class WebhookPipeline<T> {
+
+    private final String name;
+    private final String stage;
+    private final Object[] items;
+    private final long[] times;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong producerWaits = new AtomicLong();
+    private final AtomicLong consumerWaits = new AtomicLong();
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    WebhookPipeline(Webhook webhook, String stage) {
+        this(webhook.getName(), stage, webhook.getParallelCalls() * HubProperties.getProperty("webhook.pipeline.prefetch", 4));
+    }
+
+    WebhookPipeline(String name, String stage, int capacity) {
+        this.name = name;
+        this.stage = stage;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.items = new Object[size];
+        this.times = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds item, waiting while the pipeline is full.  Items put after close() are dropped.
+     */
+    void put(T item) throws InterruptedException {
+        long current = tail.get();
+        while (current - head.get() >= items.length) {
+            if (closed) {
+                return;
+            }
+            producerWaits.incrementAndGet();
+            waitingProducer = Thread.currentThread();
+            if (current - head.get() >= items.length && !closed) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        publish(current, item);
+    }
+
+    /**
+     * @return false if the pipeline is full
+     */
+    boolean offer(T item) {
+        long current = tail.get();
+        if (closed || current - head.get() >= items.length) {
+            return false;
+        }
+        publish(current, item);
+        return true;
+    }
+
+    private void publish(long current, T item) {
+        int index = (int) current & mask;
+        items[index] = item;
+        times[index] = System.currentTimeMillis();
+        tail.set(current + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return the next item, or null if none arrived within the timeout or the pipeline is closed
+     */
+    T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long current = head.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean waited = false;
+        while (current >= tail.get()) {
+            long remaining = deadline - System.nanoTime();
+            if (closed || remaining <= 0) {
+                return null;
+            }
+            if (!waited) {
+                waited = true;
+                consumerWaits.incrementAndGet();
+            }
+            waitingConsumer = Thread.currentThread();
+            if (current >= tail.get() && !closed) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waitingConsumer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        T item = take(current);
+        release(current + 1);
+        return item;
+    }
+
+    /**
+     * Moves up to max available items into target, without waiting.
+     *
+     * @return the number of items moved
+     */
+    int drain(Collection<? super T> target, int max) {
+        long current = head.get();
+        long available = Math.min(max, tail.get() - current);
+        if (closed || available <= 0) {
+            return 0;
+        }
+        for (long i = 0; i < available; i++) {
+            target.add(take(current + i));
+        }
+        release(current + available);
+        return (int) available;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T take(long position) {
+        int index = (int) position & mask;
+        T item = (T) items[index];
+        items[index] = null;
+        return item;
+    }
+
+    private void release(long next) {
+        head.set(next);
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * Wakes both sides, which then stop waiting, and ignores any further items.
+     */
+    void close() {
+        closed = true;
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    /**
+     * @return how long the oldest item has been waiting, or 0 if empty
+     */
+    long getLagMillis() {
+        long current = head.get();
+        if (current >= tail.get()) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - times[(int) current & mask]);
+    }
+
+    void report(MetricsService metricsService) {
+        String[] tags = {"name:" + name, "stage:" + stage};
+        metricsService.gauge("webhook.pipeline.occupancy", size() / (double) capacity(), tags);
+        metricsService.gauge("webhook.pipeline.lag", getLagMillis(), tags);
+        metricsService.count("webhook.pipeline.waits", producerWaits.getAndSet(0), "name:" + name, "stage:" + stage, "side:producer");
+        metricsService.count("webhook.pipeline.waits", consumerWaits.getAndSet(0), "name:" + name, "stage:" + stage, "side:consumer");
+    }
+}
@@ -52,6 +52,7 @@ public class WebhookResource {
                 objectNode.put("name", webhook.getName());
                 objectNode.put("href", uriInfo.getRequestUri() + "/" + webhook.getName());
             }
+            addNodes(root);
             return Response.ok(root).build();
         } catch (Exception e) {
             logger.warn("wtf?", e);
@@ -59,6 +60,13 @@ public class WebhookResource {
         }
     }
 
+    static void addNodes(ObjectNode root) {
+        ArrayNode nodes = root.putArray("nodes");
+        for (WebhookBalancer.Node node : webhookService.getNodes()) {
+            nodes.add(node.toJson());
+        }
+    }
+
     private static ObjectNode addSelfLink(ObjectNode root, UriInfo uriInfo) {
         ObjectNode links = root.putObject("_links");
         ObjectNode self = links.putObject("self");
@@ -95,12 +103,33 @@ public class WebhookResource {
         root.put("ttlMinutes", webhook.getTtlMinutes());
         root.put("maxWaitMinutes", webhook.getMaxWaitMinutes());
         root.put("callbackTimeoutSeconds", webhook.getCallbackTimeoutSeconds());
+        root.put("inlinePayloads", webhook.isInlinePayloads());
+        if (webhook.isBatch()) {
+            root.put("maxItems", webhook.getMaxItems());
+            root.put("maxWaitMillis", webhook.getMaxWaitMillis());
+        }
+        if (webhook.getMaxBytes() != null) {
+            root.put("maxBytes", webhook.getMaxBytes());
+        }
         addLatest(webhook, status, root, true);
         TimeLinkUtil.addTime(root, stable, "stableTime");
         ArrayNode inFlight = root.putArray("inFlight");
         for (ContentPath contentPath : status.getInFlight()) {
             inFlight.add(webhook.getChannelUrl() + "/" + contentPath.toUrl());
         }
+        if (status.getCircuitState() != null) {
+            root.put("circuitState", status.getCircuitState());
+            root.put("callLimit", status.getCallLimit());
+        }
+        WebhookCatchUp catchUp = status.getCatchUp();
+        if (catchUp != null) {
+            ObjectNode catchUpNode = root.putObject("catchUp");
+            catchUpNode.put("position", TimeUtil.millis(catchUp.getPosition()));
+            catchUpNode.put("behindMillis", catchUp.getBehindMillis());
+            catchUpNode.put("progress", catchUp.getProgress());
+            catchUpNode.put("keys", catchUp.getKeys());
+            catchUpNode.put("keysPerSecond", catchUp.getKeysPerSecond());
+        }
         addErrors(status, root);
         return Response.ok(root).build();
     }
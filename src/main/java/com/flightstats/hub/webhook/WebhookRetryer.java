@@ -2,68 +2,97 @@ package com.flightstats.hub.webhook;
 
 import com.flightstats.hub.cluster.Leadership;
 import com.flightstats.hub.metrics.DataDog;
-import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.WaitStrategies;
-import com.google.common.base.Predicate;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Decides whether a webhook call is retried, and how long to wait first.
+ * WebhookLeader makes each attempt on a delivery worker, and delays retries on the scheduler,
+ * so no thread is held while waiting.
+ */
 class WebhookRetryer {
 
     private final static Logger logger = LoggerFactory.getLogger(WebhookRetryer.class);
     private final static StatsDClient statsd = DataDog.statsd;
 
-    static Retryer<ClientResponse> buildRetryer(Webhook webhook, WebhookError webhookError, final Leadership leadership) {
+    private final Webhook webhook;
+    private final Leadership leadership;
+    private final WebhookLimiter limiter;
+    private final long maxWaitMillis;
 
-        return RetryerBuilder.<ClientResponse>newBuilder()
-                .retryIfException(throwable -> {
-                    if (throwable != null) {
-                        if (throwable.getClass().isAssignableFrom(ClientHandlerException.class)) {
-                            logger.info("got ClientHandlerException trying to call client back " + throwable.getMessage());
-                        } else {
-                            logger.info("got throwable trying to call client back ", throwable);
-                        }
-                        if (throwable instanceof ItemExpiredException) {
-                            return false;
-                        }
-                    }
-                    emitErrorToDataDog(webhook.getName(), 500);
-                    return throwable != null;
-                })
-                .retryIfResult(new Predicate<ClientResponse>() {
-                    @Override
-                    public boolean apply(@Nullable ClientResponse response) {
-                        if (response == null) return true;
-                        try {
-                            boolean failure = response.getStatus() >= 400;
-                            if (failure) {
-                                emitErrorToDataDog(webhook.getName(), response.getStatus());
-                                logger.info("unable to send to " + response);
-                            }
-                            return failure;
-                        } finally {
-                            close(response);
-                        }
-                    }
+    WebhookRetryer(Webhook webhook, Leadership leadership, WebhookLimiter limiter) {
+        this.webhook = webhook;
+        this.leadership = leadership;
+        this.limiter = limiter;
+        this.maxWaitMillis = TimeUnit.MINUTES.toMillis(webhook.getMaxWaitMinutes());
+    }
+
+    /**
+     * Closes the response.
+     *
+     * @return true if the call should be retried
+     */
+    boolean isFailure(ClientResponse response) {
+        if (response == null) {
+            return true;
+        }
+        try {
+            boolean failure = response.getStatus() >= 400;
+            if (failure) {
+                emitErrorToDataDog(webhook.getName(), response.getStatus());
+                logger.info("unable to send to " + response);
+            }
+            return failure;
+        } finally {
+            try {
+                response.close();
+            } catch (ClientHandlerException e) {
+                logger.info("exception closing response", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the call should be retried
+     */
+    boolean isFailure(Throwable throwable) {
+        if (throwable.getClass().isAssignableFrom(ClientHandlerException.class)) {
+            logger.info("got ClientHandlerException trying to call client back " + throwable.getMessage());
+        } else {
+            logger.info("got throwable trying to call client back ", throwable);
+        }
+        if (throwable instanceof ItemExpiredException) {
+            return false;
+        }
+        emitErrorToDataDog(webhook.getName(), 500);
+        return true;
+    }
+
+    boolean shouldStop() {
+        return !leadership.hasLeadership() || webhook.isPaused();
+    }
+
+    /**
+     * Waits twice as long after each attempt, starting at two seconds, up to maxWaitMinutes,
+     * or until the circuit allows calls.
+     *
+     * @param attempt the number of attempts made, starting at 1
+     */
+    long getWaitMillis(int attempt) {
+        long exponential = Math.min(maxWaitMillis, Math.round(1000 * Math.pow(2, Math.min(attempt, 40))));
+        return Math.max(exponential, limiter.getOpenMillis());
+    }
 
-                    private void close(ClientResponse response) {
-                        try {
-                            response.close();
-                        } catch (ClientHandlerException e) {
-                            logger.info("exception closing response", e);
-                        }
-                    }
-                })
-                .withWaitStrategy(WaitStrategies.exponentialWait(1000, webhook.getMaxWaitMinutes(), TimeUnit.MINUTES))
-                .withStopStrategy(failedAttempt -> !leadership.hasLeadership() || webhook.isPaused())
-                .build();
+    /**
+     * @return how long to wait before asking the limiter again, when it did not allow an attempt
+     */
+    long getBlockedMillis() {
+        return Math.max(1000, limiter.getOpenMillis());
     }
 
     private static void emitErrorToDataDog(String name, int status) {
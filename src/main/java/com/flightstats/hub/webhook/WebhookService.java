@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.List;
 
 import static com.flightstats.hub.webhook.WebhookLeader.WEBHOOK_LAST_COMPLETED;
 
@@ -92,6 +93,10 @@ public class WebhookService {
         return builder.build();
     }
 
+    List<WebhookBalancer.Node> getNodes() {
+        return webhookManager.getNodes();
+    }
+
     public void delete(String name) {
         logger.info("deleting webhook " + name);
         webhookDao.delete(name);
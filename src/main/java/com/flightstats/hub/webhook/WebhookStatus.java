@@ -12,14 +12,21 @@ public class WebhookStatus {
     private Webhook webhook;
     private List<String> errors;
     private List<ContentPath> inFlight;
+    private String circuitState;
+    private Integer callLimit;
+    private WebhookCatchUp catchUp;
 
-    @java.beans.ConstructorProperties({"lastCompleted", "channelLatest", "webhook", "errors", "inFlight"})
-    WebhookStatus(ContentPath lastCompleted, ContentKey channelLatest, Webhook webhook, List<String> errors, List<ContentPath> inFlight) {
+    @java.beans.ConstructorProperties({"lastCompleted", "channelLatest", "webhook", "errors", "inFlight", "circuitState", "callLimit", "catchUp"})
+    WebhookStatus(ContentPath lastCompleted, ContentKey channelLatest, Webhook webhook, List<String> errors, List<ContentPath> inFlight,
+                  String circuitState, Integer callLimit, WebhookCatchUp catchUp) {
         this.lastCompleted = lastCompleted;
         this.channelLatest = channelLatest;
         this.webhook = webhook;
         this.errors = errors;
         this.inFlight = inFlight;
+        this.circuitState = circuitState;
+        this.callLimit = callLimit;
+        this.catchUp = catchUp;
     }
 
     public static WebhookStatusBuilder builder() {
@@ -51,12 +58,37 @@ public class WebhookStatus {
         return this.inFlight;
     }
 
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN, or null if this hub is not the leader
+     */
+    public String getCircuitState() {
+        return this.circuitState;
+    }
+
+    /**
+     * @return the current limit on concurrent calls, or null if this hub is not the leader
+     */
+    public Integer getCallLimit() {
+        return this.callLimit;
+    }
+
+    /**
+     * @return the catch up progress, or null if this hub is not the leader or the webhook is not catching up
+     */
+    @JsonIgnore
+    WebhookCatchUp getCatchUp() {
+        return this.catchUp;
+    }
+
     public static class WebhookStatusBuilder {
         private ContentPath lastCompleted;
         private ContentKey channelLatest;
         private Webhook webhook;
         private List<String> errors;
         private List<ContentPath> inFlight;
+        private String circuitState;
+        private Integer callLimit;
+        private WebhookCatchUp catchUp;
 
         WebhookStatusBuilder() {
         }
@@ -86,12 +118,27 @@ public class WebhookStatus {
             return this;
         }
 
+        public WebhookStatus.WebhookStatusBuilder circuitState(String circuitState) {
+            this.circuitState = circuitState;
+            return this;
+        }
+
+        public WebhookStatus.WebhookStatusBuilder callLimit(Integer callLimit) {
+            this.callLimit = callLimit;
+            return this;
+        }
+
+        WebhookStatus.WebhookStatusBuilder catchUp(WebhookCatchUp catchUp) {
+            this.catchUp = catchUp;
+            return this;
+        }
+
         public WebhookStatus build() {
-            return new WebhookStatus(lastCompleted, channelLatest, webhook, errors, inFlight);
+            return new WebhookStatus(lastCompleted, channelLatest, webhook, errors, inFlight, circuitState, callLimit, catchUp);
         }
 
         public String toString() {
-            return "com.flightstats.hub.webhook.WebhookStatus.WebhookStatusBuilder(lastCompleted=" + this.lastCompleted + ", channelLatest=" + this.channelLatest + ", webhook=" + this.webhook + ", errors=" + this.errors + ", inFlight=" + this.inFlight + ")";
+            return "com.flightstats.hub.webhook.WebhookStatus.WebhookStatusBuilder(lastCompleted=" + this.lastCompleted + ", channelLatest=" + this.channelLatest + ", webhook=" + this.webhook + ", errors=" + this.errors + ", inFlight=" + this.inFlight + ", circuitState=" + this.circuitState + ", callLimit=" + this.callLimit + ", catchUp=" + this.catchUp + ")";
         }
     }
 }
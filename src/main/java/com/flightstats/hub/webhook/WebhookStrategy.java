@@ -10,7 +10,6 @@ import com.flightstats.hub.model.SecondPath;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -28,6 +27,19 @@ interface WebhookStrategy extends AutoCloseable {
 
     ContentPath inProcess(ContentPath contentPath);
 
+    /**
+     * @return the catch up progress, or null if the webhook is not catching up
+     */
+    default WebhookCatchUp getCatchUp() {
+        return null;
+    }
+
+    /**
+     * Stops the strategy, without waiting for work in progress.
+     */
+    @Override
+    void close();
+
     static ContentPath createContentPath(Webhook webhook) {
         if (webhook.isSecond()) {
             return new SecondPath();
@@ -35,25 +47,32 @@ interface WebhookStrategy extends AutoCloseable {
         if (webhook.isMinute()) {
             return new MinutePath();
         }
+        if (webhook.isBatch()) {
+            return new BatchPath(new ContentKey(TimeUtil.now(), "initial"));
+        }
         return new ContentKey(TimeUtil.now(), "initial");
     }
 
-    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                                       WebhookDelivery webhookDelivery) {
         if (webhook.isMinute() || webhook.isSecond()) {
-            return new TimedWebhookStrategy(webhook, lastContentPath, channelService);
+            return new TimedWebhookStrategy(webhook, lastContentPath, channelService, webhookDelivery);
+        }
+        if (webhook.isBatch()) {
+            return new BatchWebhookStrategy(webhook, lastContentPath, channelService, webhookDelivery);
         }
-        return new SingleWebhookStrategy(webhook, lastContentPath, channelService);
+        return new SingleWebhookStrategy(webhook, lastContentPath, channelService, webhookDelivery);
     }
 
-    static void close(AtomicBoolean shouldExit, ExecutorService executorService, BlockingQueue queue) {
+    static void close(AtomicBoolean shouldExit, ExecutorService executorService, WebhookPipeline<?> pipeline) {
         if (!shouldExit.get()) {
             shouldExit.set(true);
         }
         if (executorService != null) {
             executorService.shutdownNow();
         }
-        if (queue != null) {
-            queue.clear();
+        if (pipeline != null) {
+            pipeline.close();
         }
     }
 }
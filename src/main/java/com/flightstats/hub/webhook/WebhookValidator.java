@@ -36,8 +36,17 @@ public class WebhookValidator {
         webhook = webhook.withBatch(StringUtils.upperCase(webhook.getBatch()));
         if (!Webhook.MINUTE.equals(webhook.getBatch())
                 && !Webhook.SECOND.equals(webhook.getBatch())
-                && !Webhook.SINGLE.equals(webhook.getBatch())) {
-            throw new InvalidRequestException("{\"error\": \"Allowed values for batch are 'SINGLE', 'SECOND' and 'MINUTE'\"}");
+                && !Webhook.SINGLE.equals(webhook.getBatch())
+                && !Webhook.BATCH.equals(webhook.getBatch())) {
+            throw new InvalidRequestException("{\"error\": \"Allowed values for batch are 'SINGLE', 'SECOND', 'MINUTE' and 'BATCH'\"}");
+        }
+        if (webhook.isBatch()) {
+            if (webhook.getMaxItems() <= 0 || webhook.getMaxBytes() <= 0 || webhook.getMaxWaitMillis() < 0) {
+                throw new InvalidRequestException("{\"error\": \"Webhook maxItems and maxBytes must be greater than zero, and maxWaitMillis can not be negative\"}");
+            }
+        }
+        if (webhook.isInlinePayloads() && webhook.getMaxBytes() <= 0) {
+            throw new InvalidRequestException("{\"error\": \"Webhook maxBytes must be greater than zero\"}");
         }
         isValidCallbackTimeoutSeconds(webhook.getCallbackTimeoutSeconds());
     }
@@ -0,0 +1,136 @@
+package com.flightstats.hub.cluster;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentKey;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ChannelKeyNotifierTest {
+
+    private final Set<String> servers = new HashSet<>(Arrays.asList("a:80", "b:80"));
+    private final ChannelKeyNotifier notifierA = create("a:80");
+    private final ChannelKeyNotifier notifierB = create("b:80");
+
+    private ChannelKeyNotifier create(String self) {
+        return new ChannelKeyNotifier(() -> servers, self, 0, mock(MetricsService.class));
+    }
+
+    @Test
+    public void testUnknownPeer() throws Exception {
+        DateTime start = new DateTime();
+        Thread.sleep(20);
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+    }
+
+    @Test
+    public void testReportedPeer() throws Exception {
+        DateTime start = new DateTime();
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis()));
+        Thread.sleep(20);
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis() + 20));
+        assertTrue(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+        assertFalse(notifierA.hasNoKeys("channel", start.minusMillis(1), start.plusMillis(10)));
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusSeconds(10)));
+    }
+
+    @Test
+    public void testReportedKeys() throws Exception {
+        DateTime start = new DateTime();
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis()));
+        notifierB.notifyInsert("channel", new ContentKey(start.plusMillis(5), "A"));
+        Thread.sleep(20);
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis() + 20));
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+        assertTrue(notifierA.hasNoKeys("other", start, start.plusMillis(10)));
+    }
+
+    @Test
+    public void testLocalKeys() throws Exception {
+        DateTime start = new DateTime();
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis()));
+        notifierA.notifyInsert("channel", new ContentKey(start.plusMillis(5), "A"));
+        Thread.sleep(20);
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis() + 20));
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+    }
+
+    @Test
+    public void testRestartedPeer() throws Exception {
+        DateTime start = new DateTime();
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis()));
+        Thread.sleep(20);
+        notifierA.receive(create("b:80").createReport("a:80", start.getMillis() + 20));
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+    }
+
+    @Test
+    public void testUnheardPeer() throws Exception {
+        DateTime start = new DateTime();
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis()));
+        notifierB.notifyInsert("channel", new ContentKey(start.plusMillis(5), "A"));
+        Thread.sleep(20);
+        long later = start.getMillis() + TimeUnit.MINUTES.toMillis(11);
+        ObjectNode report = notifierB.createReport("a:80", later);
+        assertFalse(report.get("channels").has("channel"));
+        notifierA.receive(report);
+        assertFalse(notifierA.hasNoKeys("channel", start, start.plusMillis(10)));
+    }
+
+    @Test
+    public void testDeliveredReports() throws Exception {
+        long now = System.currentTimeMillis();
+        notifierB.notifyInsert("channel", new ContentKey(new DateTime(now), "A"));
+        ObjectNode first = notifierB.createReport("a:80", now);
+        assertTrue(first.get("channels").has("channel"));
+        notifierB.delivered("a:80", now + 5000);
+        ObjectNode second = notifierB.createReport("a:80", now + 5000);
+        assertFalse(second.get("channels").has("channel"));
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        List<Long> woken = new ArrayList<>();
+        LongConsumer listener = woken::add;
+        notifierA.subscribe("channel", listener);
+        DateTime start = new DateTime();
+        notifierA.notifyInsert("channel", new ContentKey(start, "A"));
+        notifierA.notifyInsert("other", new ContentKey(start, "B"));
+        notifierB.notifyInsert("channel", new ContentKey(start.plusMillis(5), "C"));
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis() + 10));
+        notifierA.receive(notifierB.createReport("a:80", start.getMillis() + 20));
+        assertEquals(Arrays.asList(start.getMillis(), start.getMillis() + 5), woken);
+
+        notifierA.unsubscribe("channel", listener);
+        notifierA.notifyInsert("channel", new ContentKey(start.plusMillis(10), "D"));
+        assertEquals(2, woken.size());
+    }
+
+    @Test
+    public void testReporting() throws Exception {
+        assertFalse(notifierA.isReporting());
+        notifierA.receive(notifierB.createReport("a:80", System.currentTimeMillis()));
+        assertTrue(notifierA.isReporting());
+    }
+
+    @Test
+    public void testIdleBackoff() throws Exception {
+        long now = System.currentTimeMillis();
+        notifierB.delivered("a:80", now);
+        assertTrue(notifierB.isDue("a:80", now));
+        assertFalse(notifierB.isDue("a:80", now + 100));
+        assertTrue(notifierB.isDue("a:80", now + 400));
+        assertFalse(notifierB.isDue("a:80", now + 700));
+        assertTrue(notifierB.isDue("a:80", now + 1200));
+        notifierB.notifyInsert("channel", new ContentKey(new DateTime(now), "A"));
+        assertTrue(notifierB.isDue("a:80", now + 1300));
+        assertTrue(notifierB.isDue("a:80", now + 1400));
+    }
+}
@@ -0,0 +1,33 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryResultTest {
+
+    @Test
+    public void testMergeSorted() {
+        ContentKey a = new ContentKey(2016, 2, 29, 23, 59, 59, 1, "A");
+        ContentKey b = new ContentKey(2016, 2, 29, 23, 59, 59, 1, "B");
+        ContentKey c = new ContentKey(2016, 2, 29, 23, 59, 59, 2, "A");
+        ContentKey d = new ContentKey(2016, 3, 1, 0, 0, 0, 0, "A");
+        QueryResult queryResult = new QueryResult(3);
+        queryResult.addSortedKeys(new ArrayList<>(Arrays.asList(a, c, d)));
+        queryResult.addSortedKeys(new ArrayList<>(Arrays.asList(a, b, c)));
+        queryResult.addSortedKeys(new ArrayList<>(Arrays.asList(d, b)));
+        queryResult.addSortedKeys(new ArrayList<>());
+        assertTrue(queryResult.hadSuccess());
+        List<ContentKey> expected = Arrays.asList(a, b, c, d);
+        assertEquals(expected, new ArrayList<>(queryResult.getContentKeys()));
+
+        queryResult.addKeys(Arrays.asList(c, d));
+        assertEquals(expected, new ArrayList<>(queryResult.getContentKeys()));
+    }
+}
@@ -0,0 +1,123 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.dao.PayloadCodec;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ContentCacheTest {
+
+    private MetricsService metricsService;
+
+    @Before
+    public void setUp() throws Exception {
+        metricsService = mock(MetricsService.class);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        ContentCache cache = new ContentCache(1024 * 1024, 1024, true, 100, metricsService);
+        ContentKey key = new ContentKey();
+        assertFalse(cache.get("testHitAndMiss", key).isPresent());
+        cache.put("testHitAndMiss", content(key, new byte[]{1, 2, 3}));
+
+        Optional<Content> cached = cache.get("testHitAndMiss", key);
+        assertTrue(cached.isPresent());
+        assertArrayEquals(new byte[]{1, 2, 3}, cached.get().getData());
+        assertEquals("text/plain", cached.get().getContentType().get());
+        assertEquals(key, cached.get().getContentKey().get());
+        assertFalse(cache.get("otherChannel", key).isPresent());
+        verify(metricsService).count("content.cache", 1, "result:hit");
+        verify(metricsService, times(2)).count("content.cache", 1, "result:miss");
+    }
+
+    @Test
+    public void testInvalidate() {
+        ContentCache cache = new ContentCache(1024 * 1024, 1024, false, 100, metricsService);
+        ContentKey keyA = new ContentKey();
+        ContentKey keyB = new ContentKey();
+        cache.put("testInvalidate", content(keyA, new byte[]{1}));
+        cache.put("testInvalidate", content(keyB, new byte[]{2}));
+        cache.put("testInvalidateOther", content(keyA, new byte[]{3}));
+
+        cache.invalidate("testInvalidate", keyA);
+        assertFalse(cache.get("testInvalidate", keyA).isPresent());
+        assertTrue(cache.get("testInvalidate", keyB).isPresent());
+
+        cache.invalidate("testInvalidate");
+        assertFalse(cache.get("testInvalidate", keyB).isPresent());
+        assertTrue(cache.get("testInvalidateOther", keyA).isPresent());
+    }
+
+    @Test
+    public void testBounds() {
+        ContentCache cache = new ContentCache(1000, 100, true, 100, metricsService);
+        ContentKey large = new ContentKey();
+        cache.put("testBounds", content(large, new byte[101]));
+        assertFalse(cache.get("testBounds", large).isPresent());
+        for (int i = 0; i < 20; i++) {
+            cache.put("testBounds", content(new ContentKey(), new byte[100]));
+        }
+        verify(metricsService, atLeastOnce()).count("content.cache", 1, "result:evicted");
+        ArgumentCaptor<Double> bytes = ArgumentCaptor.forClass(Double.class);
+        verify(metricsService, atLeastOnce()).gauge(eq("content.cache.bytes"), bytes.capture());
+        for (Double value : bytes.getAllValues()) {
+            assertTrue(value <= 1100);
+        }
+    }
+
+    @Test
+    public void testPages() {
+        ContentCache cache = new ContentCache(1024 * 1024, 1024, true, 100, metricsService);
+        ContentKey key = new ContentKey();
+        byte[] data = new byte[250];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        cache.put("testPages", content(key, data));
+        assertArrayEquals(data, cache.get("testPages", key).get().getData());
+        long free = cache.getFreePages();
+
+        cache.invalidate("testPages", key);
+        assertEquals(free + 3, cache.getFreePages());
+        cache.put("testPages", content(new ContentKey(), new byte[300]));
+        assertEquals(free, cache.getFreePages());
+    }
+
+    @Test
+    public void testCodec() {
+        ContentCache cache = new ContentCache(1024 * 1024, 1024, true, 100, metricsService);
+        ContentKey key = new ContentKey();
+        Content content = content(key, new byte[]{1});
+        content.setCodec(PayloadCodec.forName(PayloadCodec.FAST));
+        cache.put("testCodec", content);
+        assertEquals(PayloadCodec.forName(PayloadCodec.FAST), cache.get("testCodec", key).get().getCodec());
+    }
+
+    @Test
+    public void testDisabled() {
+        ContentCache cache = new ContentCache(0, 100, true, 100, metricsService);
+        ContentKey key = new ContentKey();
+        cache.put("testDisabled", content(key, new byte[]{1}));
+        assertFalse(cache.get("testDisabled", key).isPresent());
+        verify(metricsService, never()).count(anyString(), anyLong());
+    }
+
+    private Content content(ContentKey key, byte[] data) {
+        return Content.builder()
+                .withContentKey(key)
+                .withContentType("text/plain")
+                .withData(data)
+                .build();
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -186,4 +188,70 @@ public class MultiPartParserTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSplitReads() throws IOException {
+        StringBuilder builder = new StringBuilder("preamble\r\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String item = StringUtils.repeat("item" + i + "\r\n--boundar", i * 1000 + 1);
+            expected.add(item);
+            builder.append("--boundary\r\n")
+                    .append("Content-Type: text/item").append(i).append("\r\n")
+                    .append("\r\n")
+                    .append(item).append("\r\n");
+        }
+        builder.append("--boundary--\r\nepilogue");
+        byte[] bytes = builder.toString().getBytes();
+        for (int maxRead : new int[]{1, 7, 4096, bytes.length}) {
+            BulkContent bulkContent = BulkContent.builder()
+                    .stream(new LimitedReadStream(bytes, maxRead))
+                    .contentType("multipart/mixed; boundary=boundary")
+                    .build();
+            List<Content> listened = new ArrayList<>();
+            new MultiPartParser(bulkContent).parse(listened::add);
+            assertEquals(expected.size(), bulkContent.getItems().size());
+            assertEquals(bulkContent.getItems(), listened);
+            for (int i = 0; i < expected.size(); i++) {
+                Content item = bulkContent.getItems().get(i);
+                assertEquals(expected.get(i), new String(item.getData()));
+                assertEquals("text/item" + i, item.getContentType().get());
+            }
+        }
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testUnterminated() throws IOException {
+        String data = "--boundary\r\n" +
+                "\r\n" +
+                "There is some message here.\r\n";
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(new ByteArrayInputStream(data.getBytes()))
+                .contentType("multipart/mixed; boundary=boundary")
+                .build();
+        new MultiPartParser(bulkContent).parse();
+    }
+
+    @Test
+    public void testPattern() {
+        MultiPartParser.Pattern pattern = new MultiPartParser.Pattern("\r\n--abc".getBytes());
+        byte[] bytes = "xx\r\n--ab\r\n--abc--".getBytes();
+        assertEquals(8, pattern.indexOf(bytes, 0, bytes.length));
+        assertEquals(-1, pattern.indexOf(bytes, 0, 14));
+        assertEquals(-1, pattern.indexOf(bytes, 9, bytes.length));
+    }
+
+    private static class LimitedReadStream extends ByteArrayInputStream {
+        private final int maxRead;
+
+        LimitedReadStream(byte[] bytes, int maxRead) {
+            super(bytes);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, maxRead));
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class S3BatchZipTest {
+
+    @Test
+    public void testRanges() throws Exception {
+        List<Content> contents = new ArrayList<>();
+        byte[] random = new byte[100 * 1024];
+        new Random().nextBytes(random);
+        contents.add(content(new ContentKey(2016, 1, 1, 0, 0, 1, 1, "A"), "text/plain", "first".getBytes()));
+        contents.add(content(new ContentKey(2016, 1, 1, 0, 0, 2, 2, "B"), null, random));
+        contents.add(content(new ContentKey(2016, 1, 1, 0, 0, 3, 3, "C"), "application/json", new byte[0]));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream output = new ZipOutputStream(baos);
+        for (Content content : contents) {
+            ZipBulkBuilder.createZipEntry(output, content);
+        }
+        output.close();
+        byte[] zip = baos.toByteArray();
+
+        Map<String, long[]> ranges = S3BatchZip.getRanges(zip);
+        assertEquals(3, ranges.size());
+        for (Content expected : contents) {
+            ContentKey key = expected.getContentKey().get();
+            long[] range = ranges.get(key.toUrl());
+            byte[] slice = Arrays.copyOfRange(zip, (int) range[0], (int) (range[0] + range[1]));
+            Content read = S3BatchZip.readEntry(key, slice, 0, slice.length);
+            assertEquals(key, read.getContentKey().get());
+            assertEquals(expected.getContentType(), read.getContentType());
+            assertArrayEquals(expected.getData(), read.getData());
+        }
+    }
+
+    private Content content(ContentKey key, String contentType, byte[] data) {
+        Content content = Content.builder()
+                .withContentKey(key)
+                .withContentType(contentType)
+                .withData(data)
+                .build();
+        content.getData();
+        return content;
+    }
+}
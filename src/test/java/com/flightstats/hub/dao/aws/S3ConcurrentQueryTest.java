@@ -0,0 +1,78 @@
+package com.flightstats.hub.dao.aws;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3ConcurrentQueryTest {
+
+    @Test
+    public void testHourPrefixes() {
+        DateTime start = new DateTime(2016, 1, 1, 22, 0, DateTimeZone.UTC);
+        List<String> prefixes = S3ConcurrentQuery.getPrefixes(start, start.plusHours(3).minusMillis(1));
+        assertEquals(Arrays.asList("2016/01/02/00", "2016/01/01/23", "2016/01/01/22"), prefixes);
+    }
+
+    @Test
+    public void testDayPrefixes() {
+        DateTime start = new DateTime(2016, 2, 27, 0, 0, DateTimeZone.UTC);
+        List<String> prefixes = S3ConcurrentQuery.getPrefixes(start, start.plusDays(4).minusMillis(1));
+        assertEquals(Arrays.asList("2016/03/01", "2016/02/29", "2016/02/28", "2016/02/27"), prefixes);
+    }
+
+    @Test
+    public void testMonthPrefixes() {
+        DateTime start = new DateTime(2015, 11, 15, 0, 0, DateTimeZone.UTC);
+        List<String> prefixes = S3ConcurrentQuery.getPrefixes(start, new DateTime(2016, 2, 1, 0, 0, DateTimeZone.UTC));
+        assertEquals(Arrays.asList("2016/02", "2016/01", "2015/12", "2015/11"), prefixes);
+    }
+
+    @Test
+    public void testOrderedResults() {
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            parts.add(i);
+        }
+        List<Integer> results = new ArrayList<>();
+        S3ConcurrentQuery.run(parts, part -> {
+            sleep(50 - part);
+            return part * 2;
+        }, results::add, () -> false);
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i * 2, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testStopsEarly() {
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            parts.add(i);
+        }
+        AtomicInteger applied = new AtomicInteger();
+        List<Integer> results = new ArrayList<>();
+        S3ConcurrentQuery.run(parts, part -> {
+            applied.incrementAndGet();
+            return part;
+        }, results::add, () -> results.size() >= 5);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), results);
+        assertTrue(applied.get() < 100);
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class S3WriteJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testAppendAndAck() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 1024);
+        List<ChannelContentKey> keys = createKeys(100);
+        for (ChannelContentKey key : keys) {
+            journal.append(key);
+        }
+        assertEquals(100, journal.getDepth());
+        assertTrue(directory.listFiles().length > 1);
+        for (ChannelContentKey key : keys) {
+            S3WriteJournal.Record record = journal.next(100);
+            assertEquals(key, record.getKey());
+            journal.ack(record);
+        }
+        assertNull(journal.next(10));
+        assertEquals(0, journal.getDepth());
+        assertEquals(1, directory.listFiles().length);
+        journal.close();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 1024);
+        List<ChannelContentKey> keys = createKeys(50);
+        for (ChannelContentKey key : keys) {
+            journal.append(key);
+        }
+        for (int i = 0; i < 10; i++) {
+            journal.next(100);
+        }
+        journal.close();
+
+        S3WriteJournal replayed = new S3WriteJournal(directory, 1024);
+        assertEquals(50, replayed.getDepth());
+        for (ChannelContentKey key : keys) {
+            S3WriteJournal.Record record = replayed.next(100);
+            assertEquals(key, record.getKey());
+            replayed.ack(record);
+        }
+        assertEquals(0, replayed.getDepth());
+        replayed.close();
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 1024);
+        List<ChannelContentKey> keys = createKeys(4);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(journal.append(keys.get(i), 3, 10));
+        }
+        assertFalse(journal.append(keys.get(3), 3, 10));
+        assertEquals(4, journal.getDepth());
+        journal.ack(journal.next(100));
+        journal.ack(journal.next(100));
+        assertTrue(journal.append(keys.get(0), 3, 10));
+        assertEquals(3, journal.getDepth());
+        journal.close();
+    }
+
+    @Test
+    public void testOldestAge() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 1024);
+        assertEquals(0, journal.getOldestAge());
+        for (ChannelContentKey key : createKeys(2)) {
+            journal.append(key);
+        }
+        Thread.sleep(20);
+        assertTrue(journal.getOldestAge() >= 20);
+        S3WriteJournal.Record first = journal.next(100);
+        S3WriteJournal.Record second = journal.next(100);
+        journal.ack(second);
+        assertTrue(journal.getOldestAge() >= 20);
+        journal.ack(first);
+        assertEquals(0, journal.getOldestAge());
+        journal.close();
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 1024 * 1024);
+        List<ChannelContentKey> keys = createKeys(10);
+        for (ChannelContentKey key : keys) {
+            journal.append(key);
+        }
+        journal.sync();
+        S3WriteJournal replayed = new S3WriteJournal(directory, 1024 * 1024);
+        assertEquals(10, replayed.getDepth());
+        assertTrue(replayed.getOldestAge() >= 0);
+        for (ChannelContentKey key : keys) {
+            assertEquals(key, replayed.next(100).getKey());
+        }
+        replayed.close();
+        journal.close();
+    }
+
+    private List<ChannelContentKey> createKeys(int count) {
+        List<ChannelContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(new ChannelContentKey("channel" + i % 3, new ContentKey(2016, 1, 1, 0, 0, i / 60, i % 1000, "A" + i)));
+        }
+        return keys;
+    }
+}
@@ -41,6 +41,7 @@ public class ChannelConfigTest {
         assertEquals(null, config.getGlobal());
         assertEquals(null, config.getMutableTime());
         assertTrue(config.isAllowZeroBytes());
+        assertEquals("", config.getCodec());
     }
 
     @Test
@@ -192,4 +193,13 @@ public class ChannelConfigTest {
         assertFalse(testZeroBytes.isAllowZeroBytes());
     }
 
+    @Test
+    public void testCodec() {
+        ChannelConfig config = ChannelConfig.builder().name("testCodec").codec(" deflate:3 ").build();
+        assertEquals("DEFLATE:3", config.getCodec());
+        ChannelConfig updated = ChannelConfig.updateFromJson(config, "{\"codec\": \"fast\"}");
+        assertEquals("FAST", updated.getCodec());
+        assertEquals("NONE", ChannelConfig.createFromJson("{\"name\": \"testCodec\", \"codec\": \"NONE\"}").getCodec());
+    }
+
 }
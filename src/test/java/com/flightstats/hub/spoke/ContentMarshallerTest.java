@@ -1,15 +1,17 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.PayloadCodec;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.PooledBuffer;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class ContentMarshallerTest {
 
@@ -33,6 +35,72 @@ public class ContentMarshallerTest {
         verify(content, 1024);
     }
 
+    @Test
+    public void testZip() throws Exception {
+        byte[] payload = payload(100);
+        byte[] bytes = ContentMarshaller.toBytes(content(payload), PayloadCodec.forName(PayloadCodec.ZIP));
+        assertEquals('P', bytes[0]);
+        assertEquals('K', bytes[1]);
+        assertRead(bytes, payload, PayloadCodec.ZIP);
+    }
+
+    @Test
+    public void testEnvelopes() throws Exception {
+        byte[] payload = payload(100);
+        for (String name : Arrays.asList("NONE", "FAST", "DEFLATE", "DEFLATE:9")) {
+            Content content = content(payload);
+            byte[] bytes = ContentMarshaller.toBytes(content, PayloadCodec.forName(name));
+            assertEquals(payload.length, (long) content.getSize());
+            assertEquals('H', bytes[0]);
+            assertRead(bytes, payload, name);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        for (String name : Arrays.asList("ZIP", "NONE", "FAST")) {
+            assertRead(ContentMarshaller.toBytes(content(new byte[0]), PayloadCodec.forName(name)), new byte[0], name);
+        }
+    }
+
+    @Test
+    public void testBuffer() throws Exception {
+        byte[] payload = payload(1000);
+        for (String name : Arrays.asList("NONE", "FAST")) {
+            Content content = content(payload);
+            content.packageBuffer(PayloadCodec.forName(name));
+            PooledBuffer buffer = content.getBuffer();
+            assertArrayEquals(ContentMarshaller.toBytes(content(payload), PayloadCodec.forName(name)), buffer.toByteArray());
+            assertRead(content.getData(), payload, name);
+            content.releaseBuffer();
+            assertEquals(payload.length, (long) content.getSize());
+        }
+    }
+
+    @Test
+    public void testCodecNames() {
+        assertTrue(PayloadCodec.isValid("zip"));
+        assertTrue(PayloadCodec.isValid("deflate:1"));
+        assertFalse(PayloadCodec.isValid("DEFLATE:0"));
+        assertFalse(PayloadCodec.isValid("LZ4"));
+        assertFalse(PayloadCodec.isValid(null));
+        assertEquals(PayloadCodec.ZIP, PayloadCodec.forName("LZ4").getName());
+        assertEquals(PayloadCodec.FAST, PayloadCodec.forName(" fast").getName());
+    }
+
+    /**
+     * Every codec should at least halve a json payload.  PayloadCodecComparison compares their speed.
+     */
+    @Test
+    public void testCompare() throws Exception {
+        byte[] payload = payload(1000);
+        int noneSize = ContentMarshaller.toBytes(content(payload), PayloadCodec.forName("NONE")).length;
+        for (String name : Arrays.asList("FAST", "DEFLATE", "ZIP")) {
+            int size = ContentMarshaller.toBytes(content(payload), PayloadCodec.forName(name)).length;
+            assertTrue(name + " " + size, size < noneSize / 2);
+        }
+    }
+
     private void verify(Content content, int size) throws IOException {
         Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content), content.getContentKey().get());
         assertTrue(content.equals(cycled));
@@ -47,4 +115,28 @@ public class ContentMarshallerTest {
                 .withContentKey(new ContentKey())
                 .build();
     }
+
+    private void assertRead(byte[] bytes, byte[] payload, String name) throws Exception {
+        ContentKey key = new ContentKey();
+        Content read = ContentMarshaller.toContent(bytes, key);
+        assertEquals(key, read.getContentKey().get());
+        assertEquals("application/json", read.getContentType().get());
+        assertEquals(name, read.getCodec().getName());
+        assertArrayEquals(payload, read.getData());
+    }
+
+    private Content content(byte[] payload) {
+        return Content.builder()
+                .withContentType("application/json")
+                .withData(payload)
+                .build();
+    }
+
+    private byte[] payload(int items) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            builder.append("{\"id\":").append(i).append(",\"airport\":\"PDX\",\"status\":\"departed\"},");
+        }
+        return builder.append("{}]").toString().getBytes();
+    }
 }
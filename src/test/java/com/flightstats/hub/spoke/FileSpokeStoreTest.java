@@ -15,25 +15,31 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
 public class FileSpokeStoreTest {
     public static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStoreTest.class);
-    private String tempDir;
-    private FileSpokeStore spokeStore;
+    String tempDir;
+    FileSpokeStore spokeStore;
     private static final int ttlMinutes = HubProperties.getProperty("spoke.ttlMinutes", 60);
 
     @Before
     public void setUp() throws Exception {
         tempDir = Files.createTempDir().getPath();
         HubProperties.setProperty("spoke.path", tempDir);
-        spokeStore = new FileSpokeStore();
+        spokeStore = createSpokeStore(tempDir);
+    }
+
+    FileSpokeStore createSpokeStore(String path) throws Exception {
+        return new FileSpokeStore(path);
     }
 
     @Test
@@ -44,6 +50,33 @@ public class FileSpokeStoreTest {
         assertArrayEquals(BYTES, read);
     }
 
+    @Test
+    public void testReadBuffer() throws Exception {
+        String path = "channelReadBuffer/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        ByteBuffer buffer = spokeStore.readBuffer(path);
+        assertFalse(SpokeBuffers.isMapped(buffer));
+        assertArrayEquals(BYTES, toBytes(buffer));
+
+        byte[] large = new byte[256 * 1024];
+        new Random().nextBytes(large);
+        String largePath = "channelReadBuffer/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(largePath, large));
+        int available = SpokeBuffers.availableMappings();
+        ByteBuffer mapped = spokeStore.readBuffer(largePath);
+        assertTrue(SpokeBuffers.isMapped(mapped));
+        assertEquals(available - 1, SpokeBuffers.availableMappings());
+        assertArrayEquals(large, toBytes(mapped));
+        SpokeBuffers.done(mapped);
+        assertEquals(available, SpokeBuffers.availableMappings());
+    }
+
+    private byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
     @Test
     public void testPathTranslation() throws Exception {
         String incoming = "/test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5";
@@ -229,7 +262,7 @@ public class FileSpokeStoreTest {
 
     List<String> getNextTesting(String channel, String startKey, int count) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        spokeStore.getNext(channel, startKey, count, baos);
+        spokeStore.getNext(channel, startKey, count, SpokeKeyOutput.text(baos));
         String[] split = baos.toString().split(",");
         return Arrays.asList(split);
     }
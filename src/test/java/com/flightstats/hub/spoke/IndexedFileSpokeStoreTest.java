@@ -0,0 +1,83 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the FileSpokeStore tests with key queries answered from the SpokeKeyIndex.
+ */
+public class IndexedFileSpokeStoreTest extends FileSpokeStoreTest {
+
+    @Override
+    FileSpokeStore createSpokeStore(String path) throws Exception {
+        FileSpokeStore store = new FileSpokeStore(path, true);
+        waitForIndex(store);
+        return store;
+    }
+
+    private void waitForIndex(FileSpokeStore store) throws InterruptedException {
+        for (int i = 0; i < 100 && !store.isKeyIndexReady(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(store.isKeyIndexReady());
+    }
+
+    @Test
+    public void testLoadFromDisk() throws Exception {
+        String path1 = "testLoadFromDisk/2014/11/18/00/57/24/015/1";
+        String path2 = "testLoadFromDisk/2014/11/18/00/58/01/002/2";
+        FileSpokeStore diskStore = new FileSpokeStore(tempDir);
+        assertTrue(diskStore.insert(path1, BYTES));
+        assertTrue(diskStore.insert(path2, BYTES));
+
+        FileSpokeStore indexedStore = createSpokeStore(tempDir);
+        Collection<String> keys = indexedStore.keysInBucket("testLoadFromDisk/2014/11/18/00");
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains(path1));
+        assertTrue(keys.contains(path2));
+        assertEquals(path1, indexedStore.getLatest("testLoadFromDisk", "2014/11/18/00/58/01/002/1"));
+    }
+
+    @Test
+    public void testDeleteFile() throws Exception {
+        String path = "testIndexDeleteFile/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertTrue(spokeStore.readKeysInBucket(path.substring(0, path.length() - 14)).contains(path));
+        assertTrue(spokeStore.deleteFile(path));
+        assertFalse(spokeStore.readKeysInBucket(path.substring(0, path.length() - 14)).contains(path));
+    }
+
+    @Test
+    public void testDeleteChannel() throws Exception {
+        String path = "testIndexDeleteChannel/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertTrue(spokeStore.delete("testIndexDeleteChannel"));
+        assertNull(spokeStore.getLatest("testIndexDeleteChannel", ContentKey.lastKey(new ContentKey().getTime().plusMinutes(1)).toUrl()));
+    }
+
+    @Test
+    public void testRemovedDirectory() throws Exception {
+        String path = "testIndexRemovedDirectory/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        FileUtils.deleteDirectory(new File(tempDir + "/testIndexRemovedDirectory"));
+        spokeStore.removed("testIndexRemovedDirectory");
+        assertNull(spokeStore.getLatest("testIndexRemovedDirectory", ContentKey.lastKey(new ContentKey().getTime().plusMinutes(1)).toUrl()));
+    }
+
+    @Test
+    public void testLoadSkipsDeleted() throws Exception {
+        String path = "testLoadSkipsDeleted/2014/11/18/00/57/24/015/1";
+        FileSpokeStore diskStore = new FileSpokeStore(tempDir);
+        assertTrue(diskStore.insert(path, BYTES));
+        assertTrue(diskStore.deleteFile(path));
+
+        FileSpokeStore indexedStore = createSpokeStore(tempDir);
+        assertEquals(0, indexedStore.readKeysInBucket("testLoadSkipsDeleted/2014/11/18/00").length());
+    }
+}
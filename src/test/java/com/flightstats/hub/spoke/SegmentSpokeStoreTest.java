@@ -0,0 +1,202 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.dao.ContentKeyUtil;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentSpokeStoreTest {
+    private static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
+    private String tempDir;
+    private SegmentSpokeStore spokeStore;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath();
+        spokeStore = new SegmentSpokeStore(tempDir);
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        String path = "channelWR/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertArrayEquals(BYTES, spokeStore.read(path));
+        String minute = path.substring(0, "channelWR/yyyy/MM/dd/HH/mm".length());
+        assertTrue(new File(tempDir + "/" + minute + ".seg").exists());
+    }
+
+    @Test(expected = javax.ws.rs.NotFoundException.class)
+    public void testReadMissing() throws Exception {
+        spokeStore.read("channelMissing/" + new ContentKey().toUrl());
+    }
+
+    @Test
+    public void testAdjacentPaths() throws Exception {
+        String previousSecond = "testAdjacentPaths/2014/11/18/00/57/23/015/1";
+        String path1 = "testAdjacentPaths/2014/11/18/00/57/24/015/1";
+        String path2 = "testAdjacentPaths/2014/11/18/00/57/24/015/2";
+        String path3 = "testAdjacentPaths/2014/11/18/00/57/24/015/3";
+        String nextSecond = "testAdjacentPaths/2014/11/18/00/57/25/015/1";
+        String nextMinute = "testAdjacentPaths/2014/11/18/00/58/01/015/1";
+        for (String path : new String[]{path1, path2, path3, previousSecond, nextSecond, nextMinute}) {
+            assertTrue(spokeStore.insert(path, BYTES));
+        }
+
+        verify("testAdjacentPaths/2014/11/18/00/57", 5);
+        verify("testAdjacentPaths/2014/11/18/00/57/24", 3);
+        verify("testAdjacentPaths/2014/11/18/00", 6);
+        verify("testAdjacentPaths/2014/11/18", 6);
+        verify("testAdjacentPaths/2014/11/17", 0);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        String path1 = "testReload/2014/11/18/00/57/24/015/1";
+        String path2 = "testReload/2014/11/18/00/57/24/015/2";
+        assertTrue(spokeStore.insert(path1, BYTES));
+        assertTrue(spokeStore.insert(path2, new byte[]{9}));
+        assertTrue(spokeStore.deleteFile(path1));
+
+        SegmentSpokeStore reloaded = new SegmentSpokeStore(tempDir);
+        assertArrayEquals(new byte[]{9}, reloaded.read(path2));
+        List<ContentKey> keys = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(reloaded.readKeysInBucket("testReload/2014/11/18/00/57"), keys);
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testPartialRecord() throws Exception {
+        String path1 = "testPartialRecord/2014/11/18/00/57/24/015/1";
+        String path2 = "testPartialRecord/2014/11/18/00/57/25/015/2";
+        assertTrue(spokeStore.insert(path1, BYTES));
+        assertTrue(spokeStore.insert(path2, BYTES));
+        File segment = new File(tempDir + "/testPartialRecord/2014/11/18/00/57.seg");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        SegmentSpokeStore reloaded = new SegmentSpokeStore(tempDir);
+        assertArrayEquals(BYTES, reloaded.read(path1));
+        String path3 = "testPartialRecord/2014/11/18/00/57/26/015/3";
+        assertTrue(reloaded.insert(path3, BYTES));
+        assertArrayEquals(BYTES, new SegmentSpokeStore(tempDir).read(path3));
+        verify("testPartialRecord/2014/11/18/00/57", 2);
+    }
+
+    @Test
+    public void testLastFile() {
+        DateTime time = new DateTime(2014, 12, 31, 23, 30, 1, 2, DateTimeZone.UTC);
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(2);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "A").toUrl(), BYTES);
+            time = time.plusSeconds(1);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "B").toUrl(), BYTES);
+            time = time.plusMillis(1);
+            spokeStore.insert("testLastFile/" + new ContentKey(time, "C").toUrl(), BYTES);
+        }
+        ContentKey limitKey = new ContentKey(time.minusMinutes(1), "A");
+        String found = spokeStore.getLatest("testLastFile", limitKey.toUrl());
+        assertEquals("testLastFile/2015/01/01/00/28/30/031/C", found);
+
+        limitKey = new ContentKey(time, "B");
+        found = spokeStore.getLatest("testLastFile", limitKey.toUrl());
+        assertEquals("testLastFile/2015/01/01/00/30/31/031/B", found);
+
+        limitKey = new ContentKey(time.plusMinutes(1), "D");
+        found = spokeStore.getLatest("testLastFile", limitKey.toUrl());
+        assertEquals("testLastFile/2015/01/01/00/30/31/032/C", found);
+    }
+
+    @Test
+    public void testLatestCycle() {
+        DateTime now = TimeUtil.now();
+        assertNull(spokeStore.getLatest("testLatestCycle", ContentKey.lastKey(now).toUrl()));
+        String key = new ContentKey(now, "0").toUrl();
+        assertTrue(spokeStore.insert("testLatestCycle/" + key, BYTES));
+        assertNull(spokeStore.getLatest("testLatestCycle", key));
+        assertEquals("testLatestCycle/" + key,
+                spokeStore.getLatest("testLatestCycle", ContentKey.lastKey(now.plusMinutes(1)).toUrl()));
+    }
+
+    @Test
+    public void testNext() throws Exception {
+        String channel = "testNext";
+        DateTime startTime = TimeUtil.now().minusMinutes(10);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String key = new ContentKey(startTime.plusMinutes(i), "A").toUrl();
+            keys.add(channel + "/" + key);
+            spokeStore.insert(channel + "/" + key, BYTES);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.getNext(channel, keys.get(0).substring(channel.length() + 1), 3, SpokeKeyOutput.text(baos));
+        String[] found = baos.toString().split(",");
+        assertEquals(3, found.length);
+        assertEquals(keys.get(1), found[0]);
+        assertEquals(keys.get(3), found[2]);
+    }
+
+    @Test
+    public void testEnforceTtl() throws Exception {
+        String channel = "testEnforceTtl";
+        DateTime now = TimeUtil.now();
+        String oldKey = channel + "/" + new ContentKey(now.minusMinutes(90), "A").toUrl();
+        String newKey = channel + "/" + new ContentKey(now.minusMinutes(5), "B").toUrl();
+        spokeStore.insert(oldKey, BYTES);
+        spokeStore.insert(newKey, BYTES);
+
+        spokeStore.enforceTtl(ChannelConfig.builder().name(channel).build(), 60);
+
+        assertArrayEquals(BYTES, spokeStore.read(newKey));
+        try {
+            spokeStore.read(oldKey);
+            fail("expected " + oldKey + " to be removed");
+        } catch (javax.ws.rs.NotFoundException e) {
+            //expected
+        }
+        String oldMinute = oldKey.substring(0, "testEnforceTtl/yyyy/MM/dd/HH/mm".length());
+        assertFalse(new File(tempDir + "/" + oldMinute + ".seg").exists());
+    }
+
+    @Test
+    public void testRemoved() throws Exception {
+        String path = "testRemoved/2014/11/18/00/57/24/015/1";
+        assertTrue(spokeStore.insert(path, BYTES));
+        FileUtils.deleteDirectory(new File(tempDir + "/testRemoved"));
+        spokeStore.removed("testRemoved");
+        verify("testRemoved/2014/11/18/00/57", 0);
+        assertFalse(new File(tempDir + "/testRemoved").exists());
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertArrayEquals(BYTES, spokeStore.read(path));
+    }
+
+    @Test
+    public void testDroppedSegment() throws Exception {
+        File file = new File(tempDir + "/testDroppedSegment/2014/11/18/00/57.seg");
+        SpokeSegment segment = new SpokeSegment(file, "2014/11/18/00/57");
+        assertTrue(segment.write("24/015/1", BYTES));
+        segment.drop();
+        assertFalse(segment.write("24/015/2", BYTES));
+        assertFalse(file.exists());
+    }
+
+    private void verify(String path, int expected) {
+        ArrayList<ContentKey> keys = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(spokeStore.readKeysInBucket(path), keys);
+        assertEquals(expected, keys.size());
+    }
+}
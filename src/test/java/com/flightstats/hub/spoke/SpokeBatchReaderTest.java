@@ -0,0 +1,46 @@
+package com.flightstats.hub.spoke;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpokeBatchReaderTest {
+
+    @Test
+    public void testRequest() throws Exception {
+        List<String> paths = Arrays.asList("channel/2014/11/18/00/57/24/015/A", "channel/2014/11/18/00/57/24/016/B");
+        byte[] bytes = SpokeBatchReader.encodeRequest(paths);
+        assertEquals(paths, SpokeBatchReader.decodeRequest(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeInt(3);
+        SpokeBatchReader.writeItem(output, "channel/2014/11/18/00/57/24/015/A", ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        SpokeBatchReader.writeItem(output, "channel/2014/11/18/00/57/24/016/B", null);
+        SpokeBatchReader.writeItem(output, "channel/2014/11/18/00/57/24/017/C", ByteBuffer.wrap(new byte[0]));
+        output.flush();
+
+        List<String> paths = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        SpokeBatchReader.decodeResponse(new ByteArrayInputStream(baos.toByteArray()), (path, payload) -> {
+            paths.add(path);
+            payloads.add(payload);
+        });
+        assertEquals(Arrays.asList("channel/2014/11/18/00/57/24/015/A", "channel/2014/11/18/00/57/24/016/B",
+                "channel/2014/11/18/00/57/24/017/C"), paths);
+        assertArrayEquals(new byte[]{1, 2, 3}, payloads.get(0));
+        assertNull(payloads.get(1));
+        assertArrayEquals(new byte[0], payloads.get(2));
+    }
+}
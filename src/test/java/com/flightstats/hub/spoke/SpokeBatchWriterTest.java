@@ -0,0 +1,44 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.util.PooledBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SpokeBatchWriterTest {
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        List<SpokeBatchWriter.Item> batch = Arrays.asList(
+                new SpokeBatchWriter.Item("channel/2014/11/18/00/57/24/015/A", PooledBuffer.wrap(new byte[]{1, 2, 3}), success -> {
+                }),
+                new SpokeBatchWriter.Item("channel/2014/11/18/00/57/24/015/B", PooledBuffer.wrap(new byte[0]), success -> {
+                }),
+                new SpokeBatchWriter.Item("other/2014/11/18/00/57/24/016/C", PooledBuffer.wrap(new byte[]{4}), success -> {
+                }));
+        SpokeBatchWriter.Frame frame = new SpokeBatchWriter.Frame(batch);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.write(out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(frame.getSize(), bytes.length);
+
+        List<String> paths = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        SpokeBatchWriter.decode(new ByteArrayInputStream(bytes), (path, payload) -> {
+            paths.add(path);
+            payloads.add(payload);
+        });
+        assertEquals(Arrays.asList("channel/2014/11/18/00/57/24/015/A",
+                "channel/2014/11/18/00/57/24/015/B", "other/2014/11/18/00/57/24/016/C"), paths);
+        assertArrayEquals(new byte[]{1, 2, 3}, payloads.get(0));
+        assertArrayEquals(new byte[0], payloads.get(1));
+        assertArrayEquals(new byte[]{4}, payloads.get(2));
+    }
+}
@@ -0,0 +1,56 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.dao.ContentKeyUtil;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpokeKeyCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ContentKey master = new ContentKey(2014, 11, 18, 0, 57, 24, 15, "NV2cl5");
+        String keys = "channel/" + master.toUrl() + ","
+                + "channel/" + ContentKey.bulkKey(master, 12).toUrl() + ","
+                + "channel/" + new ContentKey(2016, 2, 29, 23, 59, 59, 999, "Z").toUrl() + ",";
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SpokeKeyOutput output = SpokeKeyCodec.binaryOutput(baos);
+        for (String key : keys.split(",")) {
+            output.write(key);
+        }
+        output.flush();
+
+        List<ContentKey> decoded = new ArrayList<>();
+        SpokeKeyCodec.read(new ByteArrayInputStream(baos.toByteArray()), decoded::add);
+        List<ContentKey> expected = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(keys, expected);
+        assertEquals(expected, decoded);
+    }
+
+    @Test
+    public void testMillis() throws Exception {
+        ContentKey key = new ContentKey(2016, 2, 29, 23, 59, 59, 999, "Z");
+        String url = key.toUrl();
+        long millis = SpokeKeyCodec.parseMillis(url);
+        assertEquals(key.getMillis(), millis);
+        assertEquals(url, SpokeKeyCodec.toUrl(millis, "Z"));
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        SpokeKeyOutput.text(text).write("channel", millis, "Z");
+        assertEquals("channel/" + url + ",", text.toString());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        List<ContentKey> decoded = new ArrayList<>();
+        SpokeKeyCodec.read(new ByteArrayInputStream(new byte[0]), decoded::add);
+        assertEquals(0, decoded.size());
+    }
+}
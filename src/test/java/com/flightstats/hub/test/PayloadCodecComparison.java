@@ -0,0 +1,51 @@
+package com.flightstats.hub.test;
+
+import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.PayloadCodec;
+import com.flightstats.hub.model.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Compares the size and marshalling time of each PayloadCodec for a json payload.
+ * This is run by hand, not as part of the unit tests.
+ */
+public class PayloadCodecComparison {
+    private final static Logger logger = LoggerFactory.getLogger(PayloadCodecComparison.class);
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 10 * 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        byte[] payload = payload(items);
+        for (String name : Arrays.asList("NONE", "FAST", "DEFLATE", "ZIP")) {
+            PayloadCodec codec = PayloadCodec.forName(name);
+            int size = 0;
+            for (int i = 0; i < iterations; i++) {
+                size = ContentMarshaller.toBytes(content(payload), codec).length;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                size = ContentMarshaller.toBytes(content(payload), codec).length;
+            }
+            logger.info("{} {} bytes to {} bytes in {} us", name, payload.length, size,
+                    (System.nanoTime() - start) / iterations / 1000);
+        }
+    }
+
+    private static Content content(byte[] payload) {
+        return Content.builder()
+                .withContentType("application/json")
+                .withData(payload)
+                .build();
+    }
+
+    private static byte[] payload(int items) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            builder.append("{\"id\":").append(i).append(",\"airport\":\"PDX\",\"status\":\"departed\"},");
+        }
+        return builder.append("{}]").toString().getBytes();
+    }
+}
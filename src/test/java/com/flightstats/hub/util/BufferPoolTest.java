@@ -0,0 +1,46 @@
+package com.flightstats.hub.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testRoundSize() {
+        assertEquals(100, BufferPool.roundSize(100));
+        assertEquals(64 * 1024, BufferPool.roundSize(64 * 1024));
+        assertEquals(80 * 1024, BufferPool.roundSize(64 * 1024 + 1));
+        assertEquals(5 * MB, BufferPool.roundSize(5 * MB));
+        assertEquals(6 * MB, BufferPool.roundSize(5 * MB + 1));
+        assertEquals(10 * MB, BufferPool.roundSize(10 * MB));
+        assertEquals(16 * MB, BufferPool.roundSize(15 * MB));
+    }
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(10 * MB);
+        byte[] bytes = pool.acquire(5 * MB - 10);
+        assertEquals(5 * MB, bytes.length);
+        pool.release(bytes);
+        assertEquals(5 * MB, pool.getIdleBytes());
+        assertSame(bytes, pool.acquire(5 * MB));
+        assertEquals(0, pool.getIdleBytes());
+        assertNotSame(bytes, pool.acquire(5 * MB));
+    }
+
+    @Test
+    public void testLimits() {
+        BufferPool pool = new BufferPool(8 * MB);
+        byte[] small = pool.acquire(100);
+        assertEquals(100, small.length);
+        pool.release(small);
+        pool.release(new byte[100 * 1024 + 1]);
+        assertEquals(0, pool.getIdleBytes());
+        pool.release(pool.acquire(5 * MB));
+        pool.release(pool.acquire(5 * MB));
+        assertEquals(5 * MB, pool.getIdleBytes());
+    }
+}
@@ -0,0 +1,89 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkInputStreamTest {
+
+    private static final int MEGABYTES = 1024 * 1024;
+
+    private ExecutorService executorService;
+    private byte[] source;
+
+    @Before
+    public void setUp() {
+        HubProperties.setProperty("s3.maxChunkMB", "40");
+        executorService = Executors.newFixedThreadPool(4);
+        source = new byte[17 * MEGABYTES + 3];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (byte) (i * 31);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testInOrder() throws Exception {
+        List<Long> offsets = new CopyOnWriteArrayList<>();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        BufferPool pool = new BufferPool(100 * MEGABYTES);
+        InputStream stream = new ChunkInputStream(source.length, 2, executorService, (offset, bytes, length) -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            offsets.add(offset);
+            System.arraycopy(source, (int) offset, bytes, 0, length);
+            active.decrementAndGet();
+        }, pool);
+        assertArrayEquals(source, ByteStreams.toByteArray(stream));
+        assertEquals(-1, stream.read());
+        stream.close();
+        assertEquals(3, offsets.size());
+        assertTrue(offsets.containsAll(Arrays.asList(0L, 5L * MEGABYTES, 10L * MEGABYTES)));
+        assertTrue(maxActive.get() <= 2);
+        assertTrue(pool.getIdleBytes() > 0);
+    }
+
+    @Test
+    public void testSingleBytes() throws Exception {
+        InputStream stream = new ChunkInputStream(source.length, 3, executorService,
+                (offset, bytes, length) -> System.arraycopy(source, (int) offset, bytes, 0, length));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(source[i] & 0xff, stream.read());
+        }
+        stream.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailure() throws Exception {
+        InputStream stream = new ChunkInputStream(source.length, 2, executorService, (offset, bytes, length) -> {
+            if (offset > 0) {
+                throw new IOException("failed " + offset);
+            }
+            System.arraycopy(source, (int) offset, bytes, 0, length);
+        });
+        ByteStreams.toByteArray(stream);
+    }
+
+    @Test
+    public void testIsChunked() {
+        assertFalse(ChunkInputStream.isChunked(5 * MEGABYTES));
+        assertTrue(ChunkInputStream.isChunked(5 * MEGABYTES + 1));
+    }
+}
@@ -0,0 +1,71 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkOutputStreamTest {
+
+    private static final int MEGABYTES = 1024 * 1024;
+
+    @Before
+    public void setUp() {
+        HubProperties.setProperty("s3.maxChunkMB", "40");
+    }
+
+    @Test
+    public void testArrayWrites() throws Exception {
+        byte[] source = new byte[12 * MEGABYTES + 5];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (byte) (i * 7);
+        }
+        Map<Integer, byte[]> chunks = new ConcurrentSkipListMap<>();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ChunkOutputStream outputStream = new ChunkOutputStream(2, chunk -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                chunks.put(chunk.getCount(), ByteStreams.toByteArray(chunk.getStream()));
+                Thread.sleep(20);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+            return "ok";
+        });
+        for (int offset = 0; offset < source.length; offset += 100 * 1024) {
+            outputStream.write(source, offset, Math.min(100 * 1024, source.length - offset));
+        }
+        outputStream.close();
+        assertEquals(3, chunks.size());
+        assertEquals(5 * MEGABYTES, chunks.get(1).length);
+        assertEquals(2 * MEGABYTES + 5, chunks.get(3).length);
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        for (byte[] bytes : chunks.values()) {
+            combined.write(bytes);
+        }
+        assertArrayEquals(source, combined.toByteArray());
+        assertTrue(maxActive.get() <= 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailure() throws Exception {
+        ChunkOutputStream outputStream = new ChunkOutputStream(1, chunk -> {
+            throw new RuntimeException("failed " + chunk.getCount());
+        });
+        byte[] bytes = new byte[MEGABYTES];
+        for (int i = 0; i < 20; i++) {
+            outputStream.write(bytes);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.flightstats.hub.util;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -28,4 +29,15 @@ public class ChunkTest {
         assertFalse(chunk.add(5));
         assertArrayEquals(expected, chunk.getBytes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testArray() throws Exception {
+        Chunk chunk = new Chunk(1, 4);
+        assertEquals(3, chunk.add(new byte[]{9, 1, 2, 3}, 1, 3));
+        assertEquals(1, chunk.add(new byte[]{4, 5}, 0, 2));
+        assertTrue(chunk.isFull());
+        assertEquals(0, chunk.add(new byte[]{6}, 0, 1));
+        assertEquals(4, chunk.getSize());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, ByteStreams.toByteArray(chunk.getStream()));
+    }
+}
@@ -0,0 +1,61 @@
+package com.flightstats.hub.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PooledBufferTest {
+
+    @Test
+    public void testOutput() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        PooledBuffer.Output output = new PooledBuffer.Output(pool, 10);
+        byte[] expected = new byte[200 * 1024];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        output.write(expected[0]);
+        output.write(expected, 1, expected.length - 1);
+        assertEquals(expected.length, output.size());
+        PooledBuffer buffer = output.toBuffer();
+        assertEquals(expected.length, buffer.length());
+        assertArrayEquals(expected, buffer.toByteArray());
+        assertArrayEquals(expected, ByteStreams.toByteArray(buffer.getStream()));
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        buffer.writeTo(written);
+        assertArrayEquals(expected, written.toByteArray());
+    }
+
+    @Test
+    public void testReferences() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        PooledBuffer.Output output = new PooledBuffer.Output(pool, 100 * 1024);
+        output.write(1);
+        PooledBuffer buffer = output.toBuffer();
+        buffer.retain().retain();
+        buffer.release();
+        buffer.release();
+        assertEquals(1, buffer.getReferences());
+        assertEquals(0, pool.getIdleBytes());
+        buffer.release();
+        assertEquals(112 * 1024, pool.getIdleBytes());
+        try {
+            buffer.release();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        PooledBuffer.Output output = new PooledBuffer.Output(pool, 64 * 1024);
+        output.write(new byte[10], 0, 10);
+        output.discard();
+        assertEquals(64 * 1024, pool.getIdleBytes());
+    }
+}
@@ -0,0 +1,48 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPathTest {
+
+    private final DateTime start = new DateTime(2016, 1, 1, 0, 0, 0, DateTimeZone.UTC);
+    private final ContentKey first = new ContentKey(start, "first");
+    private final ContentKey second = new ContentKey(start.plusMillis(1), "second");
+    private final ContentKey third = new ContentKey(start.plusMillis(2), "third");
+
+    @Test
+    public void testZk() {
+        BatchPath batchPath = new BatchPath(Arrays.asList(first, second, third));
+        BatchPath fromZk = batchPath.fromZk(batchPath.toZk());
+        assertEquals(batchPath, fromZk);
+        assertEquals(Arrays.asList(first, third), fromZk.getKeys());
+        BatchPath single = new BatchPath(first);
+        assertEquals(single, single.fromZk(single.toZk()));
+    }
+
+    @Test
+    public void testCompare() {
+        BatchPath batchPath = new BatchPath(Arrays.asList(first, second));
+        assertEquals(0, batchPath.compareTo(second));
+        assertTrue(batchPath.compareTo(third) < 0);
+        assertTrue(third.compareTo(batchPath) > 0);
+        assertTrue(first.compareTo(batchPath) < 0);
+        TreeSet<ContentPath> paths = new TreeSet<>(Arrays.asList(new BatchPath(third), batchPath));
+        assertEquals(batchPath, paths.headSet(third).first());
+    }
+
+    @Test
+    public void testBytes() {
+        BatchPath batchPath = new BatchPath(Arrays.asList(first, second));
+        assertEquals(second, ContentPath.fromUrl(new String(batchPath.toBytes())).get());
+    }
+}
@@ -0,0 +1,73 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class ChannelKeyCacheTest {
+
+    private final DateTime start = new DateTime(2016, 1, 1, 0, 0, 0);
+    private final ChannelKeyCache cache = new ChannelKeyCache(mock(MetricsService.class), 60 * 1000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testSingleReference() {
+        cache.acquire("channel");
+        query(start);
+        query(start);
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size("channel"));
+    }
+
+    @Test
+    public void testSharedReferences() {
+        cache.acquire("channel");
+        cache.acquire("channel");
+        Collection<ContentKey> first = query(start);
+        Collection<ContentKey> second = query(start);
+        assertEquals(1, loads.get());
+        assertEquals(first, second);
+        query(start.plusSeconds(1));
+        assertEquals(2, loads.get());
+        cache.release("channel");
+        cache.release("channel");
+        assertEquals(0, cache.size("channel"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ChannelKeyCache shortCache = new ChannelKeyCache(mock(MetricsService.class), 1);
+        shortCache.acquire("channel");
+        shortCache.acquire("channel");
+        shortCache.get(createQuery(start), Collections::emptyList);
+        assertEquals(1, shortCache.size("channel"));
+        Thread.sleep(5);
+        shortCache.evictAndReport();
+        assertEquals(0, shortCache.size("channel"));
+    }
+
+    private Collection<ContentKey> query(DateTime time) {
+        return cache.get(createQuery(time), () -> {
+            loads.incrementAndGet();
+            return Collections.singletonList(new ContentKey(time, "A"));
+        });
+    }
+
+    private TimeQuery createQuery(DateTime time) {
+        return TimeQuery.builder()
+                .channelName("channel")
+                .startTime(time)
+                .unit(TimeUtil.Unit.SECONDS)
+                .build();
+    }
+}
@@ -0,0 +1,72 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.webhook.WebhookBalancer.Node;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookBalancerTest {
+
+    private Map<String, Long> candidates(int count, long calls) {
+        Map<String, Long> candidates = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            candidates.put("webhook" + i, calls + i);
+        }
+        return candidates;
+    }
+
+    @Test
+    public void testReleasesToAverage() {
+        Node local = new Node("a", 10, 100);
+        List<Node> nodes = Arrays.asList(local, new Node("b", 1, 100), new Node("c", 1, 100));
+        List<String> released = WebhookBalancer.choose(local, nodes, candidates(10, 10), 0.2, 2, 20);
+        assertEquals(Arrays.asList("webhook0", "webhook1", "webhook2", "webhook3", "webhook4", "webhook5"), released);
+    }
+
+    @Test
+    public void testMaxRelease() {
+        Node local = new Node("a", 10, 100);
+        List<Node> nodes = Arrays.asList(local, new Node("b", 0, 0));
+        assertEquals(2, WebhookBalancer.choose(local, nodes, candidates(10, 10), 0.2, 2, 2).size());
+    }
+
+    @Test
+    public void testHysteresis() {
+        Node local = new Node("a", 6, 100);
+        List<Node> nodes = Arrays.asList(local, new Node("b", 5, 100), new Node("c", 4, 100));
+        assertTrue(WebhookBalancer.choose(local, nodes, candidates(6, 10), 0.2, 2, 5).isEmpty());
+        Node few = new Node("a", 3, 90);
+        nodes = Arrays.asList(few, new Node("b", 1, 90), new Node("c", 1, 90));
+        assertTrue(WebhookBalancer.choose(few, nodes, candidates(3, 10), 0.2, 2, 5).isEmpty());
+    }
+
+    @Test
+    public void testSingleNode() {
+        Node local = new Node("a", 10, 100);
+        assertTrue(WebhookBalancer.choose(local, Collections.singletonList(local), candidates(10, 10), 0.2, 2, 5).isEmpty());
+    }
+
+    @Test
+    public void testReleasesBusiestThatFits() {
+        Node local = new Node("a", 3, 1000);
+        List<Node> nodes = Arrays.asList(local, new Node("b", 3, 100), new Node("c", 3, 100));
+        Map<String, Long> candidates = new HashMap<>();
+        candidates.put("hot", 800L);
+        candidates.put("warm", 150L);
+        candidates.put("cool", 50L);
+        assertEquals(Collections.singletonList("warm"), WebhookBalancer.choose(local, nodes, candidates, 0.2, 2, 5));
+    }
+
+    @Test
+    public void testKeepsOnlyBusyWebhook() {
+        Node local = new Node("a", 2, 1000);
+        List<Node> nodes = Arrays.asList(local, new Node("b", 2, 100));
+        Map<String, Long> candidates = new HashMap<>();
+        candidates.put("hot", 990L);
+        candidates.put("idle", 0L);
+        assertTrue(WebhookBalancer.choose(local, nodes, candidates, 0.2, 2, 5).isEmpty());
+    }
+}
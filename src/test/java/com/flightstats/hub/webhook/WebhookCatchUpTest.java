@@ -0,0 +1,51 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WebhookCatchUpTest {
+
+    private final DateTime start = new DateTime(2016, 1, 1, 0, 0, 0);
+
+    @Test
+    public void testHysteresis() {
+        WebhookCatchUp catchUp = new WebhookCatchUp("name", start, 10 * 60 * 1000);
+        assertFalse(catchUp.update(start, start.plusMinutes(5)));
+        assertTrue(catchUp.update(start, start.plusMinutes(20)));
+        assertEquals(0, catchUp.getProgress(), 0.001);
+        assertTrue(catchUp.update(start.plusMinutes(14), start.plusMinutes(20)));
+        assertEquals(0.7, catchUp.getProgress(), 0.001);
+        assertEquals(6 * 60 * 1000, catchUp.getBehindMillis());
+        assertFalse(catchUp.update(start.plusMinutes(16), start.plusMinutes(20)));
+        assertFalse(catchUp.isActive());
+    }
+
+    @Test
+    public void testKeys() {
+        WebhookCatchUp catchUp = new WebhookCatchUp("name", start, 1000);
+        assertTrue(catchUp.update(start, start.plusHours(1)));
+        catchUp.queued(10);
+        catchUp.queued(5);
+        assertEquals(15, catchUp.getKeys());
+        assertTrue(catchUp.update(start.plusMinutes(1), start.plusHours(1)));
+        assertEquals(15, catchUp.getKeys());
+    }
+
+    @Test
+    public void testLocation() {
+        DateTime old = TimeUtil.now().minusHours(2);
+        DateTime recent = TimeUtil.now().minusMinutes(30);
+        ChannelConfig single = ChannelConfig.builder().name("single").storage(ChannelConfig.SINGLE).build();
+        ChannelConfig batch = ChannelConfig.builder().name("batch").storage(ChannelConfig.BATCH).build();
+        ChannelConfig both = ChannelConfig.builder().name("both").storage(ChannelConfig.BOTH).build();
+        assertEquals(Location.LONG_TERM_SINGLE, WebhookCatchUp.getLocation(single, old, 60));
+        assertEquals(Location.LONG_TERM_BATCH, WebhookCatchUp.getLocation(batch, old, 60));
+        assertEquals(Location.LONG_TERM, WebhookCatchUp.getLocation(both, old, 60));
+        assertEquals(Location.ALL, WebhookCatchUp.getLocation(single, recent, 60));
+    }
+}
@@ -0,0 +1,85 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class WebhookCheckpointTest {
+
+    private final LastContentPath lastContentPath = mock(LastContentPath.class);
+    private final WebhookContentPathSet inProcess = mock(WebhookContentPathSet.class);
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    private final DateTime start = new DateTime(2016, 1, 1, 0, 0, 0);
+    private final ContentKey first = new ContentKey(start, "first");
+    private final ContentKey second = new ContentKey(start.plusMillis(1), "second");
+    private final ContentKey third = new ContentKey(start.plusMillis(2), "third");
+
+    private WebhookCheckpoint create(ContentPath lastCompleted) {
+        return new WebhookCheckpoint("name", lastCompleted, Collections.emptySet(), lastContentPath, inProcess,
+                mock(MetricsService.class), deleted);
+    }
+
+    @Test
+    public void testInOrder() {
+        WebhookCheckpoint checkpoint = create(first);
+        checkpoint.add(second);
+        checkpoint.add(third);
+        checkpoint.complete(second);
+        checkpoint.complete(third);
+        verifyZeroInteractions(lastContentPath, inProcess);
+        checkpoint.flush();
+        verify(lastContentPath).updateIncrease(third, "name", WebhookLeader.WEBHOOK_LAST_COMPLETED);
+        verifyZeroInteractions(inProcess);
+        checkpoint.flush();
+        verifyNoMoreInteractions(lastContentPath);
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        WebhookCheckpoint checkpoint = create(first);
+        checkpoint.add(second);
+        checkpoint.add(third);
+        checkpoint.complete(third);
+        checkpoint.flush();
+        verify(inProcess).add("name", second);
+        verify(lastContentPath).updateIncrease(third, "name", WebhookLeader.WEBHOOK_LAST_COMPLETED);
+        assertEquals(Collections.singletonList(second), checkpoint.getInFlight());
+
+        checkpoint.complete(second);
+        checkpoint.flush();
+        verify(inProcess).remove("name", second);
+        assertEquals(third, checkpoint.getLastCompleted());
+    }
+
+    @Test
+    public void testPersistedInFlight() {
+        WebhookCheckpoint checkpoint = new WebhookCheckpoint("name", second, Collections.singleton(first),
+                lastContentPath, inProcess, mock(MetricsService.class), deleted);
+        checkpoint.add(first);
+        checkpoint.flush();
+        verifyZeroInteractions(inProcess);
+        checkpoint.complete(first);
+        checkpoint.flush();
+        verify(inProcess).remove("name", first);
+        verifyZeroInteractions(lastContentPath);
+    }
+
+    @Test
+    public void testDeleted() {
+        WebhookCheckpoint checkpoint = create(first);
+        checkpoint.add(second);
+        checkpoint.complete(second);
+        deleted.set(true);
+        checkpoint.close();
+        verifyZeroInteractions(lastContentPath, inProcess);
+    }
+}
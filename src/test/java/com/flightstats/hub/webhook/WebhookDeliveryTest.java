@@ -0,0 +1,124 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.cluster.ChannelKeyNotifier;
+import com.flightstats.hub.metrics.MetricsService;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class WebhookDeliveryTest {
+
+    private final WebhookDelivery delivery = new WebhookDelivery(mock(MetricsService.class),
+            mock(ChannelKeyNotifier.class), mock(ChannelKeyCache.class));
+
+    @Test
+    public void testLanesShareThreads() throws Exception {
+        WebhookDelivery.Lane busy = delivery.register("busy");
+        WebhookDelivery.Lane quiet = delivery.register("quiet");
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            busy.submit(() -> release.await(10, TimeUnit.SECONDS));
+        }
+        CountDownLatch quietCalled = new CountDownLatch(1);
+        quiet.submit(() -> {
+            quietCalled.countDown();
+            return null;
+        });
+        assertTrue(quietCalled.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        busy.shutdown(5000);
+        quiet.shutdown(5000);
+    }
+
+    @Test
+    public void testHangingLanesDoNotStarveOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebhookDelivery.Lane[] hanging = new WebhookDelivery.Lane[4];
+        for (int i = 0; i < hanging.length; i++) {
+            hanging[i] = delivery.register("hanging" + i, 1000);
+            for (int j = 0; j < 100; j++) {
+                hanging[i].submit(() -> release.await(10, TimeUnit.SECONDS));
+            }
+        }
+        CountDownLatch quietCalled = new CountDownLatch(1);
+        WebhookDelivery.Lane quiet = delivery.register("quiet");
+        quiet.submit(() -> {
+            quietCalled.countDown();
+            return null;
+        });
+        assertTrue(quietCalled.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        for (WebhookDelivery.Lane lane : hanging) {
+            lane.shutdown(5000);
+        }
+        quiet.shutdown(5000);
+    }
+
+    @Test
+    public void testShutdownWaitsForCalls() throws Exception {
+        WebhookDelivery.Lane lane = delivery.register("waits");
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            lane.submit(() -> {
+                Thread.sleep(10);
+                return completed.incrementAndGet();
+            });
+        }
+        lane.shutdown(10000);
+        assertEquals(20, completed.get());
+    }
+
+    @Test
+    public void testLaneThreads() throws Exception {
+        WebhookDelivery.Lane lane = delivery.register("limited", 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            lane.submit(() -> {
+                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                return running.decrementAndGet();
+            });
+        }
+        lane.shutdown(10000);
+        assertEquals(2, most.get());
+    }
+
+    @Test
+    public void testDelayedSubmit() throws Exception {
+        WebhookDelivery.Lane lane = delivery.register("delayed");
+        CountDownLatch called = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        lane.submit(() -> {
+            called.countDown();
+            return null;
+        }, 100);
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        lane.shutdown(1000);
+    }
+
+    @Test
+    public void testShutdownDropsDelayed() throws Exception {
+        WebhookDelivery.Lane lane = delivery.register("dropped");
+        AtomicInteger called = new AtomicInteger();
+        lane.submit(called::incrementAndGet, 200);
+        lane.shutdown(1000);
+        Thread.sleep(300);
+        assertEquals(0, called.get());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testSubmitAfterShutdown() throws Exception {
+        WebhookDelivery.Lane lane = delivery.register("rejects");
+        lane.shutdown(1000);
+        lane.submit(() -> null);
+    }
+}
@@ -0,0 +1,85 @@
+package com.flightstats.hub.webhook;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WebhookLimiterTest {
+
+    @Test
+    public void testIncreaseAndDecrease() {
+        WebhookLimiter limiter = new WebhookLimiter("name", 8, 0, 100, 1000, 1000);
+        assertEquals(8, limiter.getLimit());
+        limiter.onFailure();
+        assertEquals(4, limiter.getLimit());
+        limiter.onFailure();
+        assertEquals(2, limiter.getLimit());
+        limiter.onSuccess(0);
+        limiter.onSuccess(0);
+        assertEquals(3, limiter.getLimit());
+        limiter.onSuccess(10);
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testCircuit() throws Exception {
+        WebhookLimiter limiter = new WebhookLimiter("name", 4, 0, 3, 50, 1000);
+        limiter.onFailure();
+        limiter.onFailure();
+        assertEquals(WebhookLimiter.State.CLOSED, limiter.getState());
+        limiter.onFailure();
+        assertEquals(WebhookLimiter.State.OPEN, limiter.getState());
+        assertTrue(limiter.getOpenMillis() > 0);
+        Thread.sleep(60);
+        assertEquals(WebhookLimiter.State.HALF_OPEN, limiter.getState());
+        limiter.onFailure();
+        assertEquals(WebhookLimiter.State.OPEN, limiter.getState());
+        assertTrue(limiter.getOpenMillis() > 50);
+        Thread.sleep(110);
+        assertEquals(WebhookLimiter.State.HALF_OPEN, limiter.getState());
+        limiter.onSuccess(0);
+        assertEquals(WebhookLimiter.State.CLOSED, limiter.getState());
+    }
+
+    @Test
+    public void testSingleProbe() throws Exception {
+        WebhookLimiter limiter = new WebhookLimiter("name", 4, 0, 1, 50, 1000);
+        WebhookLimiter.Permit call = limiter.tryAttempt();
+        assertEquals(WebhookLimiter.Permit.CALL, call);
+        assertEquals(WebhookLimiter.Permit.CALL, limiter.tryAttempt());
+        limiter.onFailure();
+        limiter.attemptDone(call);
+        assertEquals(WebhookLimiter.Permit.REFUSED, limiter.tryAttempt());
+        Thread.sleep(60);
+        assertEquals(WebhookLimiter.State.HALF_OPEN, limiter.getState());
+        WebhookLimiter.Permit probe = limiter.tryAttempt();
+        assertEquals(WebhookLimiter.Permit.PROBE, probe);
+        assertEquals(WebhookLimiter.Permit.REFUSED, limiter.tryAttempt());
+        limiter.attemptDone(WebhookLimiter.Permit.CALL);
+        assertEquals(WebhookLimiter.Permit.REFUSED, limiter.tryAttempt());
+        limiter.onSuccess(0);
+        limiter.attemptDone(probe);
+        assertEquals(WebhookLimiter.Permit.CALL, limiter.tryAttempt());
+    }
+
+    @Test
+    public void testAcquireWaitsForLimit() throws Exception {
+        WebhookLimiter limiter = new WebhookLimiter("name", 1, 1000, 5, 1000, 1000);
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+    }
+}
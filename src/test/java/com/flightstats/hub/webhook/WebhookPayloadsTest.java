@@ -0,0 +1,128 @@
+package com.flightstats.hub.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class WebhookPayloadsTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DateTime start = new DateTime(2016, 1, 1, 0, 0, 0, DateTimeZone.UTC);
+    private final ContentKey first = new ContentKey(start, "first");
+    private final ContentKey second = new ContentKey(start.plusMillis(1), "second");
+
+    @SuppressWarnings("unchecked")
+    private ChannelService createChannelService() {
+        ChannelService channelService = mock(ChannelService.class);
+        doAnswer(invocation -> {
+            SortedSet<ContentKey> keys = (SortedSet<ContentKey>) invocation.getArguments()[1];
+            Consumer<Content> consumer = (Consumer<Content>) invocation.getArguments()[2];
+            for (ContentKey key : keys) {
+                consumer.accept(Content.builder()
+                        .withContentKey(key)
+                        .withContentType("text/plain")
+                        .withData(("payload-" + key.getHash()).getBytes())
+                        .build());
+            }
+            return null;
+        }).when(channelService).get(eq("stuff"), any(), any());
+        return channelService;
+    }
+
+    private Webhook createWebhook(int maxBytes) {
+        return Webhook.builder().name("name").channelUrl("http://hub/channel/stuff")
+                .callbackUrl("http://client").inlinePayloads(true).maxBytes(maxBytes).build();
+    }
+
+    @Test
+    public void testInlined() {
+        ObjectNode body = mapper.createObjectNode().put("name", "name");
+        List<Content> inlined = WebhookPayloads.select(createWebhook(1000), new BatchPath(Arrays.asList(first, second)),
+                body, createChannelService());
+        assertEquals(2, inlined.size());
+        assertEquals("payload-second", new String(inlined.get(1).getData()));
+        assertFalse(body.has("notInlined"));
+    }
+
+    @Test
+    public void testMaxBytes() {
+        ObjectNode body = mapper.createObjectNode().put("name", "name");
+        List<Content> inlined = WebhookPayloads.select(createWebhook(15), new BatchPath(Arrays.asList(first, second)),
+                body, createChannelService());
+        assertEquals(1, inlined.size());
+        assertEquals(first, inlined.get(0).getContentKey().get());
+        assertEquals("http://hub/channel/stuff/" + second.toUrl(), body.get("notInlined").get(0).asText());
+    }
+
+    @Test
+    public void testHeartbeat() {
+        ObjectNode body = mapper.createObjectNode().put("name", "name");
+        ChannelService channelService = createChannelService();
+        List<Content> inlined = WebhookPayloads.select(createWebhook(15), new MinutePath(start), body, channelService);
+        assertTrue(inlined.isEmpty());
+        assertFalse(body.has("notInlined"));
+        verifyZeroInteractions(channelService);
+    }
+
+    @Test
+    public void testStopsReading() {
+        ObjectNode body = mapper.createObjectNode().put("name", "name");
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            keys.add(new ContentKey(start.plusMillis(i), "key" + i));
+        }
+        ChannelService channelService = createChannelService();
+        List<Content> inlined = WebhookPayloads.select(createWebhook(15), new BatchPath(keys), body, channelService);
+        assertEquals(1, inlined.size());
+        assertEquals(24, body.get("notInlined").size());
+        verify(channelService, times(1)).get(eq("stuff"), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSkipsLongStream() {
+        ChannelService channelService = mock(ChannelService.class);
+        doAnswer(invocation -> {
+            Consumer<Content> consumer = (Consumer<Content>) invocation.getArguments()[2];
+            consumer.accept(Content.builder()
+                    .withContentKey(first)
+                    .withContentLength(1000L)
+                    .withStream(new InputStream() {
+                        @Override
+                        public int read() {
+                            throw new AssertionError("should not read");
+                        }
+                    })
+                    .build());
+            return null;
+        }).when(channelService).get(eq("stuff"), any(), any());
+        ObjectNode body = mapper.createObjectNode().put("name", "name");
+        List<Content> inlined = WebhookPayloads.select(createWebhook(100), first, body, channelService);
+        assertTrue(inlined.isEmpty());
+        assertEquals(1, body.get("notInlined").size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.flightstats.hub.webhook;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WebhookPipelineTest {
+
+    @Test
+    public void testCapacity() {
+        assertEquals(2, new WebhookPipeline<Integer>("name", "keys", 1).capacity());
+        assertEquals(4, new WebhookPipeline<Integer>("name", "keys", 4).capacity());
+        assertEquals(8, new WebhookPipeline<Integer>("name", "keys", 5).capacity());
+    }
+
+    @Test
+    public void testOfferPollDrain() throws Exception {
+        WebhookPipeline<Integer> pipeline = new WebhookPipeline<>("name", "keys", 4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pipeline.offer(i));
+        }
+        assertFalse(pipeline.offer(4));
+        assertEquals(0, pipeline.remainingCapacity());
+        assertEquals(0, (int) pipeline.poll(1, TimeUnit.MILLISECONDS));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, pipeline.drain(drained, 2));
+        assertEquals(Arrays.asList(1, 2), drained);
+        assertEquals(1, pipeline.size());
+        assertEquals(3, (int) pipeline.poll(1, TimeUnit.MILLISECONDS));
+        assertNull(pipeline.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, pipeline.getLagMillis());
+    }
+
+    @Test
+    public void testProducerConsumer() throws Exception {
+        WebhookPipeline<Integer> pipeline = new WebhookPipeline<>("name", "keys", 8);
+        int count = 100000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> producer = executor.submit(() -> {
+            for (int i = 0; i < count; i++) {
+                pipeline.put(i);
+            }
+            return null;
+        });
+        List<Integer> drained = new ArrayList<>();
+        int expected = 0;
+        while (expected < count) {
+            Integer item = pipeline.poll(10, TimeUnit.SECONDS);
+            assertNotNull(item);
+            assertEquals(expected++, (int) item);
+            drained.clear();
+            pipeline.drain(drained, 3);
+            for (Integer drainedItem : drained) {
+                assertEquals(expected++, (int) drainedItem);
+            }
+        }
+        producer.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        WebhookPipeline<Integer> pipeline = new WebhookPipeline<>("name", "keys", 2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> consumer = executor.submit(() -> pipeline.poll(1, TimeUnit.MINUTES));
+        Thread.sleep(50);
+        pipeline.close();
+        assertNull(consumer.get(5, TimeUnit.SECONDS));
+        assertFalse(pipeline.offer(1));
+        executor.shutdown();
+    }
+}
@@ -117,4 +117,15 @@ public class WebhookTest {
         assertEquals(withDefaultsA, withStartingKey);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBatchJson() throws Exception {
+        String json = "{\"callbackUrl\":\"end\",\"channelUrl\":\"url\",\"batch\":\"BATCH\",\"maxItems\":10}";
+        Webhook batch = Webhook.fromJson(json).withDefaults();
+        assertTrue(batch.isBatch());
+        assertEquals(10, (int) batch.getMaxItems());
+        assertEquals(1024 * 1024, (int) batch.getMaxBytes());
+        assertEquals(1000, (int) batch.getMaxWaitMillis());
+        assertEquals(batch, Webhook.fromJson(batch.toJson()));
+    }
+
+}
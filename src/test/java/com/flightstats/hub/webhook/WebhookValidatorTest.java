@@ -107,4 +107,16 @@ public class WebhookValidatorTest {
         webhookValidator.validate(webhook);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBatchDefaults() throws Exception {
+        webhook = webhook.withBatch("batch").withCallbackTimeoutSeconds(10).withName("blah").withDefaults();
+        webhookValidator.validate(webhook);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testBatchZeroItems() throws Exception {
+        webhook = webhook.withBatch("BATCH").withCallbackTimeoutSeconds(10).withName("blah").withMaxItems(0).withDefaults();
+        webhookValidator.validate(webhook);
+    }
+
+}